@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.zavtech.morpheus.frame.DataFrame;
+
+/**
+ * A command line tool that reports the retained heap of intraday frames for each column storage scheme
+ *
+ * JMH measures throughput and allocation rate but not what a frame retains once built, so this loads the same
+ * payload many times per scheme, holds on to every frame and reports the heap delta after a full collection.
+ * Run it with <code>java -cp target/benchmarks.jar com.zavtech.morpheus.google.GoogleQuoteFootprint [dayCount] [frames]</code>.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteFootprint {
+
+    private static final String TICKER = "AAPL";
+
+    public static void main(String[] args) throws IOException {
+        final int dayCount = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+        final int frameCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final File dir = Files.createTempDirectory("google-footprint").toFile();
+        try {
+            GoogleQuotePayloads.writeIntraday(dir, TICKER, dayCount);
+            final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(new File(dir, "<TICKER>-<DAYS>.txt").toURI().toString());
+            System.out.printf(Locale.US, "%-8s %10s %14s %12s%n", "Storage", "Rows", "Bytes/Frame", "Bytes/Row");
+            for (GoogleQuoteStorage storage : GoogleQuoteStorage.values()) {
+                measure(source, storage, dayCount, frameCount);
+            }
+        } finally {
+            GoogleQuotePayloads.delete(dir);
+        }
+    }
+
+    /**
+     * Loads and retains the number of frames specified and prints the retained heap per frame
+     * @param source        the intraday source
+     * @param storage       the column storage scheme
+     * @param dayCount      the number of sessions per frame
+     * @param frameCount    the number of frames to retain
+     */
+    private static void measure(GoogleQuoteIntradaySource source, GoogleQuoteStorage storage, int dayCount, int frameCount) {
+        final List<DataFrame<LocalDateTime,String>> frames = new ArrayList<>(frameCount);
+        final long before = usedHeap();
+        for (int i = 0; i < frameCount; ++i) {
+            frames.add(source.read(options -> {
+                options.setTicker(TICKER);
+                options.setDayCount(dayCount);
+                options.setStorage(storage);
+            }));
+        }
+        final long after = usedHeap();
+        final int rows = frames.get(0).rowCount();
+        final long perFrame = (after - before) / frameCount;
+        System.out.printf(Locale.US, "%-8s %10d %14d %12d%n", storage, rows, perFrame, perFrame / Math.max(1, rows));
+    }
+
+    /**
+     * Returns the used heap after requesting a full collection
+     * @return  the used heap in bytes
+     */
+    private static long usedHeap() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
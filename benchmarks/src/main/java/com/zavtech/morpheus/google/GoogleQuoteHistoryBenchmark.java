@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A JMH benchmark of the end of day path, measuring parsing, frame building and derived columns separately
+ *
+ * The read benchmark runs the full GoogleQuoteHistorySource pipeline against a file: URL template, while the
+ * remaining benchmarks isolate one stage each using in-memory inputs prepared during setup.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GoogleQuoteHistoryBenchmark {
+
+    private static final String TICKER = "AAPL";
+
+    @Param({"1", "20"})
+    private int years;
+
+    @Param({"DOUBLE", "COMPACT"})
+    private GoogleQuoteStorage storage;
+
+    private File dir;
+    private byte[] payload;
+    private LocalDate start;
+    private long[] keys;
+    private double[][] fields;
+    private GoogleQuoteBuffer buffer;
+    private GoogleQuoteHistorySource source;
+    private GoogleQuoteDerivations noDerivations;
+    private GoogleQuoteDerivations derivations;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("google-history").toFile();
+        final File file = GoogleQuotePayloads.writeHistory(dir, TICKER, years);
+        this.payload = Files.readAllBytes(file.toPath());
+        this.start = GoogleQuotePayloads.LAST_DATE.minusYears(years);
+        this.source = new GoogleQuoteHistorySource(new File(dir, "<TICKER>.csv").toURI().toString());
+        this.buffer = parse();
+        this.keys = buffer.keys();
+        this.fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+        for (int i = 0; i < fields.length; ++i) {
+            this.fields[i] = buffer.column(i);
+        }
+        this.noDerivations = new GoogleQuoteDerivations(Collections.emptyList(), 20, 1L);
+        this.derivations = new GoogleQuoteDerivations(GoogleQuoteDerivations.DEFAULT_COLUMNS, 20, 1L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GoogleQuotePayloads.delete(dir);
+    }
+
+
+    @Benchmark
+    public GoogleQuoteBuffer parse() throws IOException {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(years * 262 + 16, true);
+        new GoogleQuoteHistoryParser().parse(new ByteArrayInputStream(payload), buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public DataFrame<LocalDate,String> build() {
+        return buffer.toDataFrame(LocalDate.class, LocalDate::ofEpochDay, noDerivations, storage);
+    }
+
+    @Benchmark
+    public double[][] derive() {
+        return derivations.compute(keys, fields);
+    }
+
+    @Benchmark
+    public DataFrame<LocalDate,String> read() {
+        return source.read(options -> {
+            options.setTicker(TICKER);
+            options.setStart(start);
+            options.setEnd(GoogleQuotePayloads.LAST_DATE);
+            options.setStorage(storage);
+        });
+    }
+}
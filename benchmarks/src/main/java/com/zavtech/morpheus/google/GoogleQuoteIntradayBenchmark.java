@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A JMH benchmark of the intraday path, measuring parsing, frame building and derived columns separately
+ *
+ * The read benchmark runs the full GoogleQuoteIntradaySource pipeline against a file: URL template, while the
+ * remaining benchmarks isolate one stage each using in-memory inputs prepared during setup.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GoogleQuoteIntradayBenchmark {
+
+    private static final String TICKER = "AAPL";
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Param({"1", "5", "15"})
+    private int dayCount;
+
+    @Param({"DOUBLE", "COMPACT"})
+    private GoogleQuoteStorage storage;
+
+    private File dir;
+    private byte[] payload;
+    private long[] keys;
+    private double[][] fields;
+    private GoogleQuoteBuffer buffer;
+    private GoogleQuoteIntradaySource source;
+    private GoogleQuoteDerivations noDerivations;
+    private GoogleQuoteDerivations derivations;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("google-intraday").toFile();
+        final File file = GoogleQuotePayloads.writeIntraday(dir, TICKER, dayCount);
+        this.payload = Files.readAllBytes(file.toPath());
+        this.source = new GoogleQuoteIntradaySource(new File(dir, "<TICKER>-<DAYS>.txt").toURI().toString());
+        this.buffer = parse();
+        this.keys = buffer.keys();
+        this.fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+        for (int i = 0; i < fields.length; ++i) {
+            this.fields[i] = buffer.column(i);
+        }
+        this.noDerivations = new GoogleQuoteDerivations(Collections.emptyList(), 20, 86400L);
+        this.derivations = new GoogleQuoteDerivations(GoogleQuoteDerivations.DEFAULT_COLUMNS, 20, 86400L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GoogleQuotePayloads.delete(dir);
+    }
+
+
+    @Benchmark
+    public GoogleQuoteBuffer parse() throws IOException {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(dayCount * 391, false);
+        new GoogleQuoteIntradayParser(NEW_YORK).parse(new ByteArrayInputStream(payload), buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public DataFrame<LocalDateTime,String> build() {
+        return buffer.toDataFrame(LocalDateTime.class, second -> LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC), noDerivations, storage);
+    }
+
+    @Benchmark
+    public double[][] derive() {
+        return derivations.compute(keys, fields);
+    }
+
+    @Benchmark
+    public DataFrame<LocalDateTime,String> read() {
+        return source.read(options -> {
+            options.setTicker(TICKER);
+            options.setDayCount(dayCount);
+            options.setStorage(storage);
+        });
+    }
+}
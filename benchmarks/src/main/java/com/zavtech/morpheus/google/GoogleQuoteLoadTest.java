@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.zavtech.morpheus.frame.DataFrameSource;
+
+/**
+ * An end to end load test that drives the Google sources against a GoogleQuoteReplayServer with many concurrent tickers
+ *
+ * Each run starts a local replay server, points GoogleQuoteHistorySource and GoogleQuoteIntradaySource at it
+ * through their url template constructors, and loads every ticker through a GoogleQuoteBatchLoader. A warm up batch
+ * is loaded first and discarded. The report gives tickers per second, exact p50 and p99 request latency over the
+ * raw latency of every measured request, the peak total heap used as sampled every 10 millis during the run, and
+ * the GC time spent during the run.
+ *
+ * Options are passed as <code>--name=value</code>, for example:
+ * <pre>
+ * java -cp target/benchmarks.jar com.zavtech.morpheus.google.GoogleQuoteLoadTest --tickers=5000 --concurrency=256 --latency=50
+ * </pre>
+ * Supported options with their defaults are mode=both (history, intraday or both), tickers=2000, warmup=200,
+ * concurrency=128, years=5, days=5, latency=20 (millis), bandwidth=0 (bytes per second per response, 0 for unlimited),
+ * errorRate=0, errorStatus=503 and recordings (a directory of TICKER.csv and TICKER.txt payloads to replay).
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteLoadTest {
+
+    private Map<String,String> options;
+
+    /**
+     * Constructor
+     * @param options   the load test options
+     */
+    private GoogleQuoteLoadTest(Map<String,String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Map<String,String> options = new HashMap<>();
+        for (String arg : args) {
+            final int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                throw new IllegalArgumentException("Expected an option of the form --name=value: " + arg);
+            }
+            options.put(arg.substring(2, index), arg.substring(index + 1));
+        }
+        new GoogleQuoteLoadTest(options).run();
+    }
+
+
+    /**
+     * Runs the load test for each configured mode and prints a report line per mode
+     * @throws IOException  if the replay server fails to start
+     */
+    private void run() throws IOException {
+        final String mode = option("mode", "both");
+        final int concurrency = Integer.parseInt(option("concurrency", "128"));
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(concurrency));
+        }
+        try (GoogleQuoteReplayServer server = new GoogleQuoteReplayServer(Math.max(1024, concurrency * 2))) {
+            server.setLatencyMillis(Long.parseLong(option("latency", "20")));
+            server.setBandwidth(Long.parseLong(option("bandwidth", "0")));
+            server.setErrors(Double.parseDouble(option("errorRate", "0")), Integer.parseInt(option("errorStatus", "503")));
+            server.setRecordings(options.containsKey("recordings") ? new File(options.get("recordings")) : null);
+            System.out.printf(Locale.US, "%-9s %8s %7s %9s %10s %9s %9s %12s %8s %6s%n",
+                "Mode", "Tickers", "Failed", "Elapsed", "Tickers/s", "p50(ms)", "p99(ms)", "PeakHeap(MB)", "GC(ms)", "GCs"
+            );
+            if (mode.equals("history") || mode.equals("both")) {
+                final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+                final LocalDate end = LocalDate.of(2017, 8, 18);
+                final LocalDate start = end.minusYears(Integer.parseInt(option("years", "5")));
+                final Latencies latencies = new Latencies();
+                source.setMetricsListener(latencies);
+                run("history", source, latencies, concurrency, (ticker, request) -> {
+                    request.setTicker(ticker);
+                    request.setStart(start);
+                    request.setEnd(end);
+                });
+            }
+            if (mode.equals("intraday") || mode.equals("both")) {
+                final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+                final int dayCount = Integer.parseInt(option("days", "5"));
+                final Latencies latencies = new Latencies();
+                source.setMetricsListener(latencies);
+                run("intraday", source, latencies, concurrency, (ticker, request) -> {
+                    request.setTicker(ticker);
+                    request.setDayCount(dayCount);
+                });
+            }
+            System.out.printf(Locale.US, "Server: %d requests, %d injected errors, %.1f MB sent%n",
+                server.getRequestCount(), server.getErrorCount(), server.getBytesSent() / 1048576d
+            );
+        }
+    }
+
+
+    /**
+     * Loads a warm up batch and then the measured batch through the source, printing a report line
+     * @param name          the name of the mode
+     * @param source        the source to load through
+     * @param latencies     the latency recorder attached to the source
+     * @param concurrency   the max number of requests in flight
+     * @param configurator  the configurator to apply request options for each ticker
+     * @param <R>           the row key type
+     * @param <O>           the options type
+     */
+    private <R,O extends DataFrameSource.Options<R,String>> void run(
+        String name,
+        DataFrameSource<R,String,O> source,
+        Latencies latencies,
+        int concurrency,
+        BiConsumer<String,O> configurator) {
+        final GoogleQuoteBatchLoader<R,O> loader = new GoogleQuoteBatchLoader<>(source, concurrency);
+        loader.read(tickers("W", Integer.parseInt(option("warmup", "200"))), configurator);
+        latencies.reset();
+        final List<String> tickers = tickers("T", Integer.parseInt(option("tickers", "2000")));
+        System.gc();
+        final long gcTime = gcTime();
+        final long gcCount = gcCount();
+        final HeapSampler sampler = new HeapSampler();
+        final long start = System.nanoTime();
+        final GoogleQuoteBatchLoader.Result<R> result = loader.read(tickers, configurator);
+        final double elapsed = (System.nanoTime() - start) / 1e9d;
+        final long peakHeap = sampler.finish();
+        final long[] sorted = latencies.sorted();
+        final int failed = result.failures().size();
+        System.out.printf(Locale.US, "%-9s %8d %7d %8.2fs %10.1f %9.2f %9.2f %12.1f %8d %6d%n",
+            name,
+            tickers.size(),
+            failed,
+            elapsed,
+            (tickers.size() - failed) / elapsed,
+            percentile(sorted, 0.5d) / 1e6d,
+            percentile(sorted, 0.99d) / 1e6d,
+            peakHeap / 1048576d,
+            gcTime() - gcTime,
+            gcCount() - gcCount
+        );
+    }
+
+
+    /**
+     * Returns the value of an option
+     * @param name          the option name
+     * @param defaultValue  the value if the option was not specified
+     * @return              the option value
+     */
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+
+    /**
+     * Returns synthetic tickers with the prefix specified
+     * @param prefix    the ticker prefix
+     * @param count     the number of tickers
+     * @return          the tickers
+     */
+    private static List<String> tickers(String prefix, int count) {
+        final List<String> tickers = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            tickers.add(String.format("%s%05d", prefix, i));
+        }
+        return tickers;
+    }
+
+
+    /**
+     * Returns the nearest rank percentile of the sorted values
+     * @param sorted    the values in ascending order
+     * @param quantile  the quantile, for example 0.99
+     * @return          the percentile, NaN if there are no values
+     */
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        } else {
+            final int rank = (int)Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+        }
+    }
+
+
+    /**
+     * Returns the accumulated collection time across all collectors
+     * @return  the collection time in millis
+     */
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(t -> t > 0).sum();
+    }
+
+
+    /**
+     * Returns the accumulated collection count across all collectors
+     * @return  the collection count
+     */
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+    }
+
+
+    /**
+     * A metrics listener that records the raw total latency of every request so percentiles are exact
+     */
+    private static class Latencies implements GoogleQuoteMetricsListener {
+
+        private int count;
+        private long[] nanos = new long[1024];
+
+        @Override
+        public synchronized void onRequest(GoogleQuoteRequestMetrics metrics) {
+            if (count == nanos.length) {
+                this.nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            this.nanos[count++] = metrics.getTotalNanos();
+        }
+
+        /**
+         * Discards all the latencies recorded so far
+         */
+        synchronized void reset() {
+            this.count = 0;
+        }
+
+        /**
+         * Returns the latencies recorded since the last reset in ascending order
+         * @return  the sorted latencies in nanos
+         */
+        synchronized long[] sorted() {
+            final long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+
+    /**
+     * A daemon thread that samples total heap used at a fixed interval and keeps the highest value seen
+     */
+    private static class HeapSampler extends Thread {
+
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        /**
+         * Constructor
+         */
+        HeapSampler() {
+            super("GoogleQuoteLoadTest-HeapSampler");
+            this.setDaemon(true);
+            this.peak = used();
+            this.start();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                this.peak = Math.max(peak, used());
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stops sampling and returns the peak
+         * @return  the highest total heap used observed, in bytes
+         */
+        long finish() {
+            this.running = false;
+            this.interrupt();
+            try {
+                this.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return Math.max(peak, used());
+        }
+
+        /**
+         * Returns the total heap currently used
+         * @return  the heap used in bytes
+         */
+        private static long used() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+    }
+}
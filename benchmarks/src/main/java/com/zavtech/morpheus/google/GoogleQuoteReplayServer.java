@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that stands in for the Google Finance endpoints, replaying recorded or synthetic payloads
+ *
+ * If a recordings directory is configured, a file named TICKER.csv is replayed for end of day requests and
+ * TICKER.txt for intraday requests, as captured from the real endpoints. Any other ticker is served a synthetic
+ * payload for the requested range, which is generated once per range and shared across tickers so that the server
+ * does not compete with the client for CPU. Latency, per response bandwidth and a rate of error responses can be
+ * configured to reproduce a slow or unreliable upstream.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteReplayServer implements AutoCloseable {
+
+    private static final int CHUNK_BYTES = 8192;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM dd, yyyy", Locale.US);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private File recordings;
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong errorCount = new AtomicLong();
+    private AtomicLong bytesSent = new AtomicLong();
+    private Map<String,byte[]> payloads = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param backlog   the max number of pending connections, which should be at least the client concurrency
+     * @throws IOException  if the server fails to start
+     */
+    public GoogleQuoteReplayServer(int backlog) throws IOException {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "GoogleQuoteReplayServer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), backlog);
+        this.server.createContext("/finance/historical", exchange -> respond(exchange, true));
+        this.server.createContext("/finance/getprices", exchange -> respond(exchange, false));
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Returns the url template to use with GoogleQuoteHistorySource
+     * @return  the url template
+     */
+    public String historyUrlTemplate() {
+        return "http://localhost:" + server.getAddress().getPort() + "/finance/historical?output=csv&q=<TICKER>&startdate=<START>&enddate=<END>";
+    }
+
+    /**
+     * Returns the url template to use with GoogleQuoteIntradaySource
+     * @return  the url template
+     */
+    public String intradayUrlTemplate() {
+        return "http://localhost:" + server.getAddress().getPort() + "/finance/getprices?i=60&p=<DAYS>d&f=d,o,h,l,c,v&df=cpct&q=<TICKER>";
+    }
+
+    /**
+     * Sets the directory of recorded payloads to replay, named TICKER.csv for end of day and TICKER.txt for intraday
+     * @param recordings    the recordings directory, null to serve only synthetic payloads
+     */
+    public void setRecordings(File recordings) {
+        this.recordings = recordings;
+    }
+
+    /**
+     * Sets the latency to apply before each response
+     * @param latencyMillis the latency in millis
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the bandwidth of each response, which is paced in chunks
+     * @param bytesPerSecond    the bytes per second for a single response, zero for unlimited
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Sets the fraction of requests that fail, and the status code they fail with
+     * @param errorRate     the fraction of requests to fail, in the range 0 to 1
+     * @param errorStatus   the HTTP status code for failed requests, for example 500 or 503
+     */
+    public void setErrors(double errorRate, int errorStatus) {
+        if (errorRate < 0d || errorRate > 1d) {
+            throw new IllegalArgumentException("The error rate must be in the range 0 to 1: " + errorRate);
+        }
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Returns the total number of requests received
+     * @return  the request count
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests failed by error injection
+     * @return  the error count
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Returns the total number of response bytes sent
+     * @return  the bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Responds to an exchange with a history or intraday payload
+     * @param exchange  the exchange
+     * @param history   true for an end of day request, false for intraday
+     * @throws IOException  if the response fails
+     */
+    private void respond(HttpExchange exchange, boolean history) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            final Map<String,String> query = query(exchange.getRequestURI().getRawQuery());
+            final String ticker = query.get("q");
+            if (ticker == null) {
+                exchange.sendResponseHeaders(400, -1);
+            } else if (errorRate > 0d && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errorCount.incrementAndGet();
+                exchange.sendResponseHeaders(errorStatus, -1);
+            } else {
+                final byte[] bytes = history ? history(ticker, query) : intraday(ticker, query);
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    write(os, bytes);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    /**
+     * Returns the end of day payload for a request
+     * @param ticker    the ticker reference
+     * @param query     the decoded query parameters
+     * @return          the payload bytes
+     */
+    private byte[] history(String ticker, Map<String,String> query) {
+        final File recorded = recordings != null ? new File(recordings, ticker + ".csv") : null;
+        if (recorded != null && recorded.isFile()) {
+            return payloads.computeIfAbsent(recorded.getAbsolutePath(), k -> read(recorded));
+        } else {
+            final LocalDate start = LocalDate.parse(query.get("startdate"), DATE_FORMAT);
+            final LocalDate end = LocalDate.parse(query.get("enddate"), DATE_FORMAT);
+            final String key = "history:" + start + ":" + end;
+            return payloads.computeIfAbsent(key, k -> GoogleQuotePayloads.history("SYNTHETIC", start, end).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+
+    /**
+     * Returns the intraday payload for a request
+     * @param ticker    the ticker reference
+     * @param query     the decoded query parameters
+     * @return          the payload bytes
+     */
+    private byte[] intraday(String ticker, Map<String,String> query) {
+        final File recorded = recordings != null ? new File(recordings, ticker + ".txt") : null;
+        if (recorded != null && recorded.isFile()) {
+            return payloads.computeIfAbsent(recorded.getAbsolutePath(), k -> read(recorded));
+        } else {
+            final int dayCount = Integer.parseInt(query.get("p").replace("d", ""));
+            final String key = "intraday:" + dayCount;
+            return payloads.computeIfAbsent(key, k -> GoogleQuotePayloads.intraday("SYNTHETIC", dayCount).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+
+    /**
+     * Writes the response body, pacing chunks to the configured bandwidth
+     * @param os    the response body stream
+     * @param bytes the response body
+     * @throws IOException  if the write fails
+     * @throws InterruptedException if interrupted while pacing
+     */
+    private void write(OutputStream os, byte[] bytes) throws IOException, InterruptedException {
+        final long rate = bytesPerSecond;
+        if (rate <= 0L) {
+            os.write(bytes);
+        } else {
+            final long start = System.nanoTime();
+            for (int offset = 0; offset < bytes.length; offset += CHUNK_BYTES) {
+                final int length = Math.min(CHUNK_BYTES, bytes.length - offset);
+                os.write(bytes, offset, length);
+                final long dueNanos = (offset + length) * 1000000000L / rate;
+                final long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1000000L;
+                if (aheadMillis > 0) {
+                    Thread.sleep(aheadMillis);
+                }
+            }
+        }
+        bytesSent.addAndGet(bytes.length);
+    }
+
+
+    /**
+     * Returns the contents of a recorded payload
+     * @param file  the recorded payload
+     * @return      the payload bytes
+     */
+    private static byte[] read(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read recorded payload: " + file.getAbsolutePath(), ex);
+        }
+    }
+
+
+    /**
+     * Returns the decoded query parameters from a raw query string
+     * @param rawQuery  the raw query string
+     * @return          the decoded parameters
+     */
+    private static Map<String,String> query(String rawQuery) throws UnsupportedEncodingException {
+        final Map<String,String> result = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                final int index = pair.indexOf('=');
+                if (index > 0) {
+                    result.put(pair.substring(0, index), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A codec that encodes one session of intraday bars into a compact block, mirroring the shape of a getprices payload
+ *
+ * A block stores the session anchor and bar interval once, followed by each bar as a varint step from the previous
+ * bar in units of the interval. Prices are stored as fixed point integers at the smallest decimal scale that holds
+ * every price in the session exactly, with close as a zigzag varint delta from the previous close and open, high
+ * and low as deltas from their own close, so a typical minute bar encodes in under a dozen bytes. Volumes are
+ * stored as unsigned varints. A session with prices or volumes that cannot be represented exactly in fixed point
+ * falls back to raw doubles for that field, and a session containing missing values carries a presence mask per
+ * bar, so decoding always reproduces the input bit for bit.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteArchiveCodec {
+
+    private static final int MAX_SCALE = 6;
+    private static final int FLAG_MISSING = 1;
+    private static final int FLAG_RAW_PRICES = 2;
+    private static final int FLAG_RAW_VOLUME = 4;
+    private static final double MAX_EXACT = 9007199254740992d;
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6 };
+    private static final int[] PRICE_FIELDS = { GoogleQuoteParser.OPEN, GoogleQuoteParser.HIGH, GoogleQuoteParser.LOW };
+
+    /**
+     * Constructor
+     */
+    private GoogleQuoteArchiveCodec() {
+        super();
+    }
+
+
+    /**
+     * Encodes the bars in the row range specified, which must all fall within one session
+     * @param keys      the bar keys as local epoch seconds in ascending order
+     * @param fields    the open, high, low, close and volume columns, indexed as defined by GoogleQuoteParser
+     * @param from      the first row of the session, inclusive
+     * @param to        the last row of the session, exclusive
+     * @return          the encoded block
+     */
+    static byte[] encode(long[] keys, double[][] fields, int from, int to) {
+        final long day = Math.floorDiv(keys[from], 86400L);
+        final long anchor = keys[from];
+        long interval = 0L;
+        for (int i = from + 1; i < to; ++i) {
+            interval = gcd(interval, keys[i] - anchor);
+        }
+        interval = Math.max(1L, interval);
+        final boolean missing = hasMissing(fields, from, to);
+        final int scale = scale(fields, from, to);
+        final boolean rawVolume = !integral(fields[GoogleQuoteParser.VOLUME], from, to);
+        final Writer writer = new Writer((to - from) * 12 + 32);
+        writer.writeVarLong(day);
+        writer.writeVarLong(anchor - day * 86400L);
+        writer.writeVarLong(interval);
+        writer.writeVarLong(to - from);
+        writer.writeByte((missing ? FLAG_MISSING : 0) | (scale < 0 ? FLAG_RAW_PRICES : 0) | (rawVolume ? FLAG_RAW_VOLUME : 0));
+        writer.writeByte(Math.max(0, scale));
+        final double factor = POWERS_OF_TEN[Math.max(0, scale)];
+        long previousStep = 0L;
+        long previousClose = 0L;
+        for (int i = from; i < to; ++i) {
+            final long step = (keys[i] - anchor) / interval;
+            writer.writeVarLong(step - previousStep);
+            previousStep = step;
+            if (missing) {
+                int mask = 0;
+                for (int field = 0; field < GoogleQuoteBuffer.FIELD_COUNT; ++field) {
+                    if (!Double.isNaN(fields[field][i])) mask |= 1 << field;
+                }
+                writer.writeByte(mask);
+            }
+            final double close = fields[GoogleQuoteParser.CLOSE][i];
+            if (scale < 0) {
+                for (int field = 0; field < 4; ++field) {
+                    final double value = fields[field][i];
+                    if (!Double.isNaN(value)) writer.writeDouble(value);
+                }
+            } else {
+                final long closeFixed = Double.isNaN(close) ? previousClose : Math.round(close * factor);
+                if (!Double.isNaN(close)) {
+                    writer.writeVarLong(zigzag(closeFixed - previousClose));
+                    previousClose = closeFixed;
+                }
+                for (int field : PRICE_FIELDS) {
+                    final double value = fields[field][i];
+                    if (!Double.isNaN(value)) {
+                        writer.writeVarLong(zigzag(Math.round(value * factor) - closeFixed));
+                    }
+                }
+            }
+            final double volume = fields[GoogleQuoteParser.VOLUME][i];
+            if (!Double.isNaN(volume)) {
+                if (rawVolume) {
+                    writer.writeDouble(volume);
+                } else {
+                    writer.writeVarLong((long)volume);
+                }
+            }
+        }
+        return writer.toByteArray();
+    }
+
+
+    /**
+     * Decodes an encoded block, passing each bar to the handler in ascending key order
+     * @param block     the encoded block, which is read from its current position
+     * @param handler   the handler to receive bars
+     * @return          the number of bars decoded
+     */
+    static int decode(ByteBuffer block, GoogleQuoteHandler handler) {
+        final long day = readVarLong(block);
+        final long anchor = day * 86400L + readVarLong(block);
+        final long interval = readVarLong(block);
+        final int count = (int)readVarLong(block);
+        final int flags = block.get() & 0xFF;
+        final int scale = block.get() & 0xFF;
+        final boolean missing = (flags & FLAG_MISSING) != 0;
+        final boolean rawPrices = (flags & FLAG_RAW_PRICES) != 0;
+        final boolean rawVolume = (flags & FLAG_RAW_VOLUME) != 0;
+        final double factor = POWERS_OF_TEN[scale];
+        final double[] values = new double[GoogleQuoteBuffer.FIELD_COUNT];
+        long step = 0L;
+        long previousClose = 0L;
+        for (int i = 0; i < count; ++i) {
+            step += readVarLong(block);
+            final int mask = missing ? block.get() & 0xFF : 0x1F;
+            if (rawPrices) {
+                for (int field = 0; field < 4; ++field) {
+                    values[field] = (mask & (1 << field)) != 0 ? block.getDouble() : Double.NaN;
+                }
+            } else {
+                if ((mask & (1 << GoogleQuoteParser.CLOSE)) != 0) {
+                    previousClose += unzigzag(readVarLong(block));
+                    values[GoogleQuoteParser.CLOSE] = previousClose / factor;
+                } else {
+                    values[GoogleQuoteParser.CLOSE] = Double.NaN;
+                }
+                for (int field : PRICE_FIELDS) {
+                    values[field] = (mask & (1 << field)) != 0 ? (previousClose + unzigzag(readVarLong(block))) / factor : Double.NaN;
+                }
+            }
+            if ((mask & (1 << GoogleQuoteParser.VOLUME)) == 0) {
+                values[GoogleQuoteParser.VOLUME] = Double.NaN;
+            } else {
+                values[GoogleQuoteParser.VOLUME] = rawVolume ? block.getDouble() : (double)readVarLong(block);
+            }
+            final long key = anchor + step * interval;
+            if (!handler.onQuote(key, values[0], values[1], values[2], values[3], values[4])) {
+                return i + 1;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the smallest decimal scale at which every price in the range is an exact fixed point integer
+     * @param fields    the quote columns
+     * @param from      the first row, inclusive
+     * @param to        the last row, exclusive
+     * @return          the scale, or -1 if prices must be stored as raw doubles
+     */
+    private static int scale(double[][] fields, int from, int to) {
+        int scale = 0;
+        for (int field = 0; field < 4; ++field) {
+            final double[] values = fields[field];
+            for (int i = from; i < to; ++i) {
+                final double value = values[i];
+                if (!Double.isNaN(value)) {
+                    while (!exact(value, scale)) {
+                        if (++scale > MAX_SCALE) {
+                            return -1;
+                        }
+                    }
+                }
+            }
+        }
+        return scale;
+    }
+
+
+    /**
+     * Returns true if the value round trips exactly through a fixed point integer at the scale specified
+     * @param value the value
+     * @param scale the decimal scale
+     * @return      true if the value is exact at the scale
+     */
+    private static boolean exact(double value, int scale) {
+        final double factor = POWERS_OF_TEN[scale];
+        final double scaled = Math.rint(value * factor);
+        return Math.abs(scaled) < MAX_EXACT && scaled / factor == value && Double.doubleToLongBits(value) != Double.doubleToLongBits(-0d);
+    }
+
+
+    /**
+     * Returns true if every value present in the range is a non-negative integer that fits in a varint exactly
+     * @param values    the column values
+     * @param from      the first row, inclusive
+     * @param to        the last row, exclusive
+     * @return          true if the values can be stored as unsigned varints
+     */
+    private static boolean integral(double[] values, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            final double value = values[i];
+            if (!Double.isNaN(value) && (value < 0d || value >= MAX_EXACT || value != Math.rint(value) || Double.doubleToLongBits(value) == Double.doubleToLongBits(-0d))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns true if any field in the range has a missing value
+     * @param fields    the quote columns
+     * @param from      the first row, inclusive
+     * @param to        the last row, exclusive
+     * @return          true if a presence mask is required
+     */
+    private static boolean hasMissing(double[][] fields, int from, int to) {
+        for (double[] values : fields) {
+            for (int i = from; i < to; ++i) {
+                if (Double.isNaN(values[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the greatest common divisor of two non-negative values
+     * @param a the first value
+     * @param b the second value
+     * @return  the greatest common divisor
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0L) {
+            final long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+
+    /**
+     * Maps a signed value to an unsigned one so that small magnitudes encode in few bytes
+     * @param value the signed value
+     * @return      the zigzag encoded value
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    /**
+     * Reverses zigzag encoding
+     * @param value the zigzag encoded value
+     * @return      the signed value
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+
+    /**
+     * Reads an unsigned LEB128 varint from the buffer
+     * @param buffer    the buffer to read from
+     * @return          the value
+     */
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0L;
+        int shift = 0;
+        while (true) {
+            final byte b = buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+
+    /**
+     * A minimal growable byte writer for encoding blocks
+     */
+    private static class Writer {
+
+        private int size;
+        private byte[] bytes;
+
+        /**
+         * Constructor
+         * @param capacity  the initial capacity in bytes
+         */
+        Writer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /**
+         * Writes a single byte
+         * @param value the byte value
+         */
+        void writeByte(int value) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[size++] = (byte)value;
+        }
+
+        /**
+         * Writes an unsigned LEB128 varint
+         * @param value the value, treated as unsigned
+         */
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0L) {
+                writeByte((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int)value);
+        }
+
+        /**
+         * Writes the raw bits of a double in big endian order, which is the default for ByteBuffer reads
+         * @param value the value
+         */
+        void writeDouble(double value) {
+            final long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int)(bits >>> shift));
+            }
+        }
+
+        /**
+         * Returns a copy of the bytes written
+         * @return  the bytes written
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+}
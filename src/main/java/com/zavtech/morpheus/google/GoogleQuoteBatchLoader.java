@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import com.zavtech.morpheus.frame.DataFrameSource;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A class that loads quotes for many tickers concurrently through one of the Google DataFrameSource implementations.
+ *
+ * The number of requests in flight is bounded by the concurrency limit, and each ticker yields either a frame or
+ * the failure that occurred while loading it, so one bad ticker never aborts the rest of the batch. Where the JVM
+ * supports virtual threads they are used to run the requests, otherwise a bounded pool of daemon threads is used.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @param <R>   the row key type of frames produced by the source
+ * @param <O>   the options type of the source
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteBatchLoader<R,O extends DataFrameSource.Options<R,String>> {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private int concurrency;
+    private DataFrameSource<R,String,O> source;
+
+    /**
+     * Constructor
+     * @param source        the source to load quotes from
+     */
+    public GoogleQuoteBatchLoader(DataFrameSource<R,String,O> source) {
+        this(source, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Constructor
+     * @param source        the source to load quotes from
+     * @param concurrency   the max number of requests in flight at any one time
+     */
+    public GoogleQuoteBatchLoader(DataFrameSource<R,String,O> source, int concurrency) {
+        Asserts.notNull(source, "The source cannot be null");
+        Asserts.assertTrue(concurrency > 0, "The concurrency must be > 0");
+        this.source = source;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Returns the max number of requests in flight for this loader
+     * @return  the concurrency limit
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the max number of requests in flight for this loader
+     * @param concurrency   the concurrency limit, must be > 0
+     */
+    public void setConcurrency(int concurrency) {
+        Asserts.assertTrue(concurrency > 0, "The concurrency must be > 0");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Loads quotes for all the tickers specified, blocking until every request has completed or failed
+     * @param tickers       the tickers to load quotes for
+     * @param configurator  the configurator to apply request options for each ticker
+     * @return              the results for the batch
+     */
+    public Result<R> read(Collection<String> tickers, BiConsumer<String,O> configurator) {
+        Asserts.notNull(tickers, "The tickers cannot be null");
+        Asserts.notNull(configurator, "The configurator cannot be null");
+        final Map<String,DataFrame<R,String>> frames = new ConcurrentHashMap<>(tickers.size());
+        final Map<String,Throwable> failures = new ConcurrentHashMap<>();
+        final Semaphore permits = new Semaphore(concurrency);
+        final ExecutorService executor = createExecutor(Math.max(1, Math.min(concurrency, tickers.size())));
+        try {
+            final List<Future<?>> futures = new ArrayList<>(tickers.size());
+            for (String ticker : tickers) {
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            frames.put(ticker, source.read(options -> configurator.accept(ticker, options)));
+                        } catch (Throwable t) {
+                            failures.put(ticker, t);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RuntimeException ex) {
+                    permits.release();
+                    throw ex;
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return new Result<>(tickers, frames, failures);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataFrameException("Interrupted while loading quotes for " + tickers.size() + " tickers", ex);
+        } catch (ExecutionException ex) {
+            throw new DataFrameException("Failed to load quotes for " + tickers.size() + " tickers", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns an executor to run requests, using virtual threads where the JVM supports them
+     * @param threads   the number of platform threads to use if virtual threads are not supported
+     * @return          the newly created executor
+     */
+    static ExecutorService createExecutor(int threads) {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                final Thread thread = new Thread(runnable, "GoogleQuoteBatchLoader-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+
+    /**
+     * The results of a batch request, which captures a frame or a failure for each ticker
+     * @param <R>   the row key type
+     */
+    public static class Result<R> {
+
+        private Map<String,DataFrame<R,String>> frames;
+        private Map<String,Throwable> failures;
+
+        /**
+         * Constructor
+         * @param tickers   the tickers in the order they were requested
+         * @param frames    the frames keyed by ticker
+         * @param failures  the failures keyed by ticker
+         */
+        Result(Collection<String> tickers, Map<String,DataFrame<R,String>> frames, Map<String,Throwable> failures) {
+            this.frames = new LinkedHashMap<>(frames.size());
+            this.failures = new LinkedHashMap<>(failures.size());
+            tickers.forEach(ticker -> {
+                final DataFrame<R,String> frame = frames.get(ticker);
+                final Throwable failure = failures.get(ticker);
+                if (frame != null) this.frames.put(ticker, frame);
+                if (failure != null) this.failures.put(ticker, failure);
+            });
+        }
+
+        /**
+         * Returns true if every ticker in the batch loaded successfully
+         * @return  true if there were no failures
+         */
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * Returns the frame for the ticker specified
+         * @param ticker    the ticker reference
+         * @return          the frame, empty if the ticker failed or was not requested
+         */
+        public Optional<DataFrame<R,String>> frame(String ticker) {
+            return Optional.ofNullable(frames.get(ticker));
+        }
+
+        /**
+         * Returns the failure for the ticker specified
+         * @param ticker    the ticker reference
+         * @return          the failure, empty if the ticker loaded successfully or was not requested
+         */
+        public Optional<Throwable> failure(String ticker) {
+            return Optional.ofNullable(failures.get(ticker));
+        }
+
+        /**
+         * Returns an unmodifiable map of the frames loaded, in the order the tickers were requested
+         * @return  the frames keyed by ticker
+         */
+        public Map<String,DataFrame<R,String>> frames() {
+            return Collections.unmodifiableMap(frames);
+        }
+
+        /**
+         * Returns an unmodifiable map of the failures, in the order the tickers were requested
+         * @return  the failures keyed by ticker
+         */
+        public Map<String,Throwable> failures() {
+            return Collections.unmodifiableMap(failures);
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+import com.zavtech.morpheus.array.Array;
+import com.zavtech.morpheus.frame.DataFrame;
+
+/**
+ * A growable set of primitive column buffers that quotes are parsed into before a DataFrame is built in one step.
+ *
+ * Rows are kept in ascending key order. A buffer created in reverse mode fills from the tail towards the head, so
+ * a feed that arrives newest first, like the Google historical CSV, ends up in chronological order without a sort.
+ * If the feed turns out not to be strictly ordered, the rows are sorted and de-duplicated before the frame is built.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteBuffer implements GoogleQuoteHandler {
+
+    static final int FIELD_COUNT = 5;
+
+    private int start;
+    private int end;
+    private int growCount;
+    private boolean reverse;
+    private boolean ordered = true;
+    private long[] keys;
+    private double[][] values;
+
+    /**
+     * Constructor
+     * @param capacity  the initial row capacity, ideally sized from the requested range
+     * @param reverse   true if quotes arrive in descending key order
+     */
+    GoogleQuoteBuffer(int capacity, boolean reverse) {
+        final int length = Math.max(16, capacity);
+        this.reverse = reverse;
+        this.start = reverse ? length : 0;
+        this.end = reverse ? length : 0;
+        this.keys = new long[length];
+        this.values = new double[FIELD_COUNT][length];
+    }
+
+    /**
+     * Returns the number of rows in this buffer
+     * @return  the row count
+     */
+    int size() {
+        return end - start;
+    }
+
+    /**
+     * Returns the current row capacity of this buffer
+     * @return  the row capacity
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the number of times this buffer has grown beyond its initial capacity
+     * @return  the number of capacity growths
+     */
+    int growCount() {
+        return growCount;
+    }
+
+    /**
+     * Returns the key for the row specified
+     * @param row   the row ordinal
+     * @return      the row key
+     */
+    long key(int row) {
+        return keys[start + row];
+    }
+
+    /**
+     * Returns the value for the row and field specified
+     * @param row   the row ordinal
+     * @param field the field, as defined by GoogleQuoteParser
+     * @return      the value
+     */
+    double value(int row, int field) {
+        return values[field][start + row];
+    }
+
+    @Override
+    public boolean onQuote(long key, double open, double high, double low, double close, double volume) {
+        final int row;
+        if (reverse) {
+            if (start == 0) grow();
+            row = --start;
+            if (row + 1 < end && key >= keys[row + 1]) ordered = false;
+        } else {
+            if (end == keys.length) grow();
+            row = end++;
+            if (row > start && key <= keys[row - 1]) ordered = false;
+        }
+        this.keys[row] = key;
+        this.values[GoogleQuoteParser.OPEN][row] = open;
+        this.values[GoogleQuoteParser.HIGH][row] = high;
+        this.values[GoogleQuoteParser.LOW][row] = low;
+        this.values[GoogleQuoteParser.CLOSE][row] = close;
+        this.values[GoogleQuoteParser.VOLUME][row] = volume;
+        return true;
+    }
+
+
+    /**
+     * Sorts this buffer if required, after which it is only ever read and can be shared across threads
+     * @return  this buffer
+     */
+    GoogleQuoteBuffer ordered() {
+        if (!ordered) {
+            normalize();
+        }
+        return this;
+    }
+
+
+    /**
+     * Returns a DataFrame built from the contents of this buffer in ascending key order
+     * @param keyType       the row key type
+     * @param keyMapper     the function to map primitive keys to row keys
+     * @param derivations   the derived columns to append after the quote columns
+     * @param storage       the column storage scheme
+     * @param <R>           the row key type
+     * @return              the newly created frame
+     */
+    <R> DataFrame<R,String> toDataFrame(Class<R> keyType, LongFunction<R> keyMapper, GoogleQuoteDerivations derivations, GoogleQuoteStorage storage) {
+        return toDataFrame(keyType, keyMapper, derivations, storage, null);
+    }
+
+
+    /**
+     * Returns a DataFrame built from the contents of this buffer, recording derive and build timings if requested
+     * @param keyType       the row key type
+     * @param keyMapper     the function to map primitive keys to row keys
+     * @param derivations   the derived columns to append after the quote columns
+     * @param storage       the column storage scheme
+     * @param metrics       the metrics for the request, null if not enabled
+     * @param <R>           the row key type
+     * @return              the newly created frame
+     */
+    <R> DataFrame<R,String> toDataFrame(
+        Class<R> keyType,
+        LongFunction<R> keyMapper,
+        GoogleQuoteDerivations derivations,
+        GoogleQuoteStorage storage,
+        GoogleQuoteRequestMetrics metrics) {
+        final long start = metrics != null ? System.nanoTime() : 0L;
+        final long[] rowKeys = keys();
+        final double[][] fields = new double[FIELD_COUNT][];
+        for (int i = 0; i < FIELD_COUNT; ++i) {
+            fields[i] = column(i);
+        }
+        final long copied = metrics != null ? System.nanoTime() : 0L;
+        final double[][] derivedValues = derivations.compute(rowKeys, fields);
+        final long derived = metrics != null ? System.nanoTime() : 0L;
+        final DataFrame<R,String> frame = createFrame(keyType, keyMapper, rowKeys, fields, derivations.columns(), derivedValues, storage);
+        if (metrics != null) {
+            metrics.addNanos(GoogleQuotePhase.DERIVE, derived - copied);
+            metrics.addNanos(GoogleQuotePhase.BUILD, (copied - start) + (System.nanoTime() - derived));
+        }
+        return frame;
+    }
+
+
+    /**
+     * Returns a DataFrame built from primitive quote columns in one step
+     * @param keyType       the row key type
+     * @param keyMapper     the function to map primitive keys to row keys
+     * @param keys          the primitive row keys in ascending order
+     * @param fields        the open, high, low, close and volume columns, indexed as defined by GoogleQuoteParser
+     * @param derived       the derived columns to append after the quote columns
+     * @param derivedValues the values for each derived column
+     * @param storage       the column storage scheme
+     * @param <R>           the row key type
+     * @return              the newly created frame
+     */
+    static <R> DataFrame<R,String> createFrame(
+        Class<R> keyType,
+        LongFunction<R> keyMapper,
+        long[] keys,
+        double[][] fields,
+        GoogleQuoteDerivedColumn[] derived,
+        double[][] derivedValues,
+        GoogleQuoteStorage storage) {
+        final Array<R> index = Array.of(keyType, keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            index.setValue(i, keyMapper.apply(keys[i]));
+        }
+        return DataFrame.of(index, String.class, columns -> {
+            columns.add("Open", storage.prices(fields[GoogleQuoteParser.OPEN]));
+            columns.add("High", storage.prices(fields[GoogleQuoteParser.HIGH]));
+            columns.add("Low", storage.prices(fields[GoogleQuoteParser.LOW]));
+            columns.add("Close", storage.prices(fields[GoogleQuoteParser.CLOSE]));
+            columns.add("Volume", storage.volumes(fields[GoogleQuoteParser.VOLUME]));
+            for (int i = 0; i < derived.length; ++i) {
+                columns.add(derived[i].getColumnKey(), storage.prices(derivedValues[i]));
+            }
+        });
+    }
+
+
+    /**
+     * Appends the rows of this buffer whose keys fall within the range specified to the handler, in ascending order
+     * @param fromKey   the lower bound key, inclusive
+     * @param toKey     the upper bound key, inclusive
+     * @param handler   the handler to receive rows
+     * @return          the number of rows passed to the handler
+     */
+    int forEach(long fromKey, long toKey, GoogleQuoteHandler handler) {
+        if (!ordered) {
+            normalize();
+        }
+        int count = 0;
+        for (int row = start; row < end; ++row) {
+            final long key = keys[row];
+            if (key >= fromKey && key <= toKey) {
+                ++count;
+                final boolean proceed = handler.onQuote(
+                    key,
+                    values[GoogleQuoteParser.OPEN][row],
+                    values[GoogleQuoteParser.HIGH][row],
+                    values[GoogleQuoteParser.LOW][row],
+                    values[GoogleQuoteParser.CLOSE][row],
+                    values[GoogleQuoteParser.VOLUME][row]
+                );
+                if (!proceed) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns a copy of the keys trimmed to the size of this buffer
+     * @return  the keys in ascending order
+     */
+    long[] keys() {
+        if (!ordered) {
+            normalize();
+        }
+        return Arrays.copyOfRange(keys, start, end);
+    }
+
+
+    /**
+     * Returns a copy of the values for a field trimmed to the size of this buffer
+     * @param field the field, as defined by GoogleQuoteParser
+     * @return      the column values in ascending key order
+     */
+    double[] column(int field) {
+        if (!ordered) {
+            normalize();
+        }
+        return Arrays.copyOfRange(values[field], start, end);
+    }
+
+
+    /**
+     * Doubles the capacity of this buffer, preserving the position of rows relative to the fill direction
+     */
+    private void grow() {
+        final int length = keys.length;
+        final int newLength = length * 2;
+        final int offset = reverse ? newLength - length : 0;
+        final long[] newKeys = new long[newLength];
+        System.arraycopy(keys, 0, newKeys, offset, length);
+        this.keys = newKeys;
+        for (int i = 0; i < FIELD_COUNT; ++i) {
+            final double[] newValues = new double[newLength];
+            System.arraycopy(values[i], 0, newValues, offset, length);
+            this.values[i] = newValues;
+        }
+        this.start += offset;
+        this.end += offset;
+        this.growCount++;
+    }
+
+
+    /**
+     * Sorts rows into ascending key order, keeping the first row to arrive for any duplicate key
+     */
+    private void normalize() {
+        final int size = size();
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = reverse ? size - 1 - i : i;
+        }
+        Arrays.sort(order, (i1, i2) -> Long.compare(keys[start + i1], keys[start + i2]));
+        int count = 0;
+        final long[] newKeys = new long[keys.length];
+        final double[][] newValues = new double[FIELD_COUNT][keys.length];
+        for (int i = 0; i < size; ++i) {
+            final int row = start + order[i];
+            if (count == 0 || keys[row] != newKeys[count - 1]) {
+                newKeys[count] = keys[row];
+                for (int j = 0; j < FIELD_COUNT; ++j) {
+                    newValues[j][count] = values[j][row];
+                }
+                ++count;
+            }
+        }
+        this.keys = newKeys;
+        this.values = newValues;
+        this.start = 0;
+        this.end = count;
+        this.reverse = false;
+        this.ordered = true;
+    }
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A class that computes a selection of derived columns from primitive quote columns.
+ *
+ * All selected columns are computed together in a single pass over the input arrays. When the number of rows
+ * exceeds a threshold, the columns are instead computed in parallel, each in its own pass, since they are
+ * independent of one another.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteDerivations {
+
+    static final int PARALLEL_THRESHOLD = 100000;
+
+    static final List<GoogleQuoteDerivedColumn> DEFAULT_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+        GoogleQuoteDerivedColumn.CHANGE,
+        GoogleQuoteDerivedColumn.CHANGE_PERCENT
+    ));
+
+    private int window;
+    private long sessionLength;
+    private GoogleQuoteDerivedColumn[] columns;
+
+    /**
+     * Constructor
+     * @param columns       the columns to compute, in the order they should appear
+     * @param window        the window length for rolling columns
+     * @param sessionLength the number of key units in a session, 1 for daily keys, 86400 for local epoch seconds
+     */
+    GoogleQuoteDerivations(List<GoogleQuoteDerivedColumn> columns, int window, long sessionLength) {
+        Asserts.assertTrue(window > 1, "The rolling window must be > 1");
+        Asserts.assertTrue(sessionLength > 0, "The session length must be > 0");
+        this.window = window;
+        this.sessionLength = sessionLength;
+        this.columns = columns.stream().distinct().toArray(GoogleQuoteDerivedColumn[]::new);
+    }
+
+    /**
+     * Returns the columns computed by this object
+     * @return  the derived columns
+     */
+    GoogleQuoteDerivedColumn[] columns() {
+        return columns;
+    }
+
+    /**
+     * Returns derivations for a subset of the columns computed by this object, with the same window and session length
+     * @param selected  the columns to compute, in the order they should appear
+     * @return          the derivations for the selected columns
+     */
+    GoogleQuoteDerivations select(List<GoogleQuoteDerivedColumn> selected) {
+        return new GoogleQuoteDerivations(selected, window, sessionLength);
+    }
+
+    /**
+     * Computes the derived columns from the inputs provided
+     * @param keys      the row keys in ascending order
+     * @param fields    the open, high, low, close and volume columns, indexed as defined by GoogleQuoteParser
+     * @return          the derived columns, in the same order as columns()
+     */
+    double[][] compute(long[] keys, double[][] fields) {
+        final int size = keys.length;
+        final double[][] results = new double[columns.length][];
+        if (size < PARALLEL_THRESHOLD || columns.length < 2) {
+            compute(columns, keys, fields, results);
+        } else {
+            IntStream.range(0, columns.length).parallel().forEach(i -> {
+                final double[][] result = new double[1][];
+                compute(new GoogleQuoteDerivedColumn[] { columns[i] }, keys, fields, result);
+                results[i] = result[0];
+            });
+        }
+        return results;
+    }
+
+
+    /**
+     * Computes the selected columns in a single pass over the inputs
+     * @param selected  the columns to compute
+     * @param keys      the row keys in ascending order
+     * @param fields    the open, high, low, close and volume columns
+     * @param results   the array to receive results, with one entry per selected column
+     */
+    private void compute(GoogleQuoteDerivedColumn[] selected, long[] keys, double[][] fields, double[][] results) {
+        final int size = keys.length;
+        final int[] slots = new int[GoogleQuoteDerivedColumn.values().length];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < selected.length; ++i) {
+            slots[selected[i].ordinal()] = i;
+            results[i] = new double[size];
+        }
+        final double[] change = output(results, slots, GoogleQuoteDerivedColumn.CHANGE);
+        final double[] changePercent = output(results, slots, GoogleQuoteDerivedColumn.CHANGE_PERCENT);
+        final double[] logReturn = output(results, slots, GoogleQuoteDerivedColumn.LOG_RETURN);
+        final double[] trueRange = output(results, slots, GoogleQuoteDerivedColumn.TRUE_RANGE);
+        final double[] typicalPrice = output(results, slots, GoogleQuoteDerivedColumn.TYPICAL_PRICE);
+        final double[] vwap = output(results, slots, GoogleQuoteDerivedColumn.VWAP);
+        final double[] rollingMean = output(results, slots, GoogleQuoteDerivedColumn.ROLLING_MEAN);
+        final double[] rollingVolatility = output(results, slots, GoogleQuoteDerivedColumn.ROLLING_VOLATILITY);
+        final double[] high = fields[GoogleQuoteParser.HIGH];
+        final double[] low = fields[GoogleQuoteParser.LOW];
+        final double[] close = fields[GoogleQuoteParser.CLOSE];
+        final double[] volume = fields[GoogleQuoteParser.VOLUME];
+        final Rolling closeWindow = new Rolling();
+        final Rolling returnWindow = new Rolling();
+        long session = Long.MIN_VALUE;
+        double sumPriceVolume = 0d;
+        double sumVolume = 0d;
+        for (int i = 0; i < size; ++i) {
+            final double current = close[i];
+            final double previous = i > 0 ? close[i - 1] : Double.NaN;
+            if (change != null) {
+                change[i] = current - previous;
+            }
+            if (changePercent != null) {
+                changePercent[i] = (current / previous) - 1d;
+            }
+            if (logReturn != null) {
+                logReturn[i] = Math.log(current / previous);
+            }
+            if (trueRange != null) {
+                final double range = high[i] - low[i];
+                trueRange[i] = i == 0 ? range : Math.max(range, Math.max(Math.abs(high[i] - previous), Math.abs(low[i] - previous)));
+            }
+            if (typicalPrice != null) {
+                typicalPrice[i] = (high[i] + low[i] + current) / 3d;
+            }
+            if (vwap != null) {
+                final long sessionKey = Math.floorDiv(keys[i], sessionLength);
+                if (sessionKey != session) {
+                    session = sessionKey;
+                    sumPriceVolume = 0d;
+                    sumVolume = 0d;
+                }
+                final double price = (high[i] + low[i] + current) / 3d;
+                if (!Double.isNaN(price) && !Double.isNaN(volume[i])) {
+                    sumPriceVolume += price * volume[i];
+                    sumVolume += volume[i];
+                }
+                vwap[i] = sumVolume > 0d ? sumPriceVolume / sumVolume : Double.NaN;
+            }
+            if (rollingMean != null) {
+                closeWindow.add(current);
+                if (i >= window) {
+                    closeWindow.remove(close[i - window]);
+                }
+                rollingMean[i] = i >= window - 1 ? closeWindow.mean(window) : Double.NaN;
+            }
+            if (rollingVolatility != null) {
+                if (i >= 1) {
+                    returnWindow.add(Math.log(current / previous));
+                }
+                if (i > window) {
+                    returnWindow.remove(Math.log(close[i - window] / close[i - window - 1]));
+                }
+                rollingVolatility[i] = i >= window ? returnWindow.stdDev(window) : Double.NaN;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the output array for a column, or null if the column is not selected
+     * @param results   the results array
+     * @param slots     the slot of each column in the results array, -1 if not selected
+     * @param column    the column
+     * @return          the output array, or null
+     */
+    private static double[] output(double[][] results, int[] slots, GoogleQuoteDerivedColumn column) {
+        final int slot = slots[column.ordinal()];
+        return slot >= 0 ? results[slot] : null;
+    }
+
+
+    /**
+     * Running sums over a rolling window that tracks missing values separately so they do not poison the sums
+     */
+    private static class Rolling {
+
+        private double sum;
+        private double sumOfSquares;
+        private int missingCount;
+
+        void add(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                ++missingCount;
+            } else {
+                sum += value;
+                sumOfSquares += value * value;
+            }
+        }
+
+        void remove(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                --missingCount;
+            } else {
+                sum -= value;
+                sumOfSquares -= value * value;
+            }
+        }
+
+        double mean(int count) {
+            return missingCount > 0 ? Double.NaN : sum / count;
+        }
+
+        double stdDev(int count) {
+            if (missingCount > 0) {
+                return Double.NaN;
+            } else {
+                final double variance = (sumOfSquares - sum * sum / count) / (count - 1);
+                return Math.sqrt(Math.max(0d, variance));
+            }
+        }
+    }
+
+}
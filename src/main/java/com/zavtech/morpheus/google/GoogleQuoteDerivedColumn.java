@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+/**
+ * An enum of the columns that can be derived from quote data while a frame is being built
+ *
+ * Rolling columns use the window configured on the request options, and are NaN until the window is full or
+ * while it contains a missing value.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public enum GoogleQuoteDerivedColumn {
+
+    /** The change in close from the previous bar */
+    CHANGE("Change"),
+
+    /** The change in close from the previous bar as a fraction of the previous close */
+    CHANGE_PERCENT("ChangePercent"),
+
+    /** The natural log of the ratio of close to the previous close */
+    LOG_RETURN("LogReturn"),
+
+    /** The greatest of high - low, |high - previous close| and |low - previous close| */
+    TRUE_RANGE("TrueRange"),
+
+    /** The average of high, low and close */
+    TYPICAL_PRICE("TypicalPrice"),
+
+    /** The volume weighted typical price accumulated from the start of each session, which is a calendar day */
+    VWAP("VWAP"),
+
+    /** The mean close over the rolling window */
+    ROLLING_MEAN("RollingMean"),
+
+    /** The sample standard deviation of log returns over the rolling window */
+    ROLLING_VOLATILITY("RollingVolatility");
+
+    private String columnKey;
+
+    /**
+     * Constructor
+     * @param columnKey the column key in the resulting frame
+     */
+    GoogleQuoteDerivedColumn(String columnKey) {
+        this.columnKey = columnKey;
+    }
+
+    /**
+     * Returns the column key for this derived column
+     * @return  the column key
+     */
+    public String getColumnKey() {
+        return columnKey;
+    }
+}
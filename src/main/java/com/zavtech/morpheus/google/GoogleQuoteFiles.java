@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+
+/**
+ * A class that names the per-ticker files written by the caches, stores and archives in this package.
+ *
+ * Tickers may contain characters that are not valid in file names, such as the colon in an exchange prefix, so any
+ * character other than a letter, digit, dot or dash is replaced, and the hash of the original ticker is appended
+ * so that tickers which differ only in replaced characters still map to distinct files.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteFiles {
+
+    /**
+     * Constructor
+     */
+    private GoogleQuoteFiles() {
+        super();
+    }
+
+    /**
+     * Returns the file for the ticker in the directory specified
+     * @param directory the directory that holds the file
+     * @param ticker    the ticker reference
+     * @param suffix    the file suffix, including the leading dot
+     * @return          the file for the ticker
+     */
+    static File fileFor(File directory, String ticker, String suffix) {
+        final StringBuilder name = new StringBuilder(ticker.length() + 16);
+        for (int i = 0; i < ticker.length(); ++i) {
+            final char c = ticker.charAt(i);
+            final boolean safe = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-';
+            name.append(safe ? c : '_');
+        }
+        name.append('-').append(Integer.toHexString(ticker.hashCode())).append(suffix);
+        return new File(directory, name.toString());
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+/**
+ * A callback that receives quote bars as primitives as they are parsed from a Google Finance response.
+ *
+ * This is the interface used by the stream() methods of GoogleQuoteHistorySource and GoogleQuoteIntradaySource,
+ * which push each bar to the handler as it comes off the network rather than building a DataFrame, so memory
+ * use stays flat regardless of the size of the request. For end of day quotes the key is an epoch day, which can
+ * be converted with <code>LocalDate.ofEpochDay(key)</code>. For intraday quotes the key is a local epoch second in
+ * the exchange time zone, which can be converted with <code>LocalDateTime.ofEpochSecond(key, 0, ZoneOffset.UTC)</code>.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+@FunctionalInterface
+public interface GoogleQuoteHandler {
+
+    /**
+     * Called for each bar parsed from the response
+     * @param key       the bar key, an epoch day for end of day quotes or a local epoch second for intraday quotes
+     * @param open      the open price, NaN if missing
+     * @param high      the high price, NaN if missing
+     * @param low       the low price, NaN if missing
+     * @param close     the close price, NaN if missing
+     * @param volume    the volume, NaN if missing
+     * @return          true to continue parsing, false to stop
+     */
+    boolean onQuote(long key, double open, double high, double low, double close, double volume);
+
+}
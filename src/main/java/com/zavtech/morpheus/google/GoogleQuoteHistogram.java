@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of nanosecond durations with power of two buckets, used to aggregate request metrics
+ *
+ * Recording is a handful of atomic increments, and percentiles are reported as the upper bound of the bucket that
+ * contains them, so they are accurate to within a factor of two, which is enough to tell a slow phase from a fast one.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteHistogram {
+
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong sum = new AtomicLong();
+    private AtomicLong max = new AtomicLong();
+    private AtomicLongArray buckets = new AtomicLongArray(64);
+
+    /**
+     * Constructor
+     */
+    GoogleQuoteHistogram() {
+        super();
+    }
+
+    /**
+     * Records a duration in this histogram
+     * @param nanos the duration in nanos, negative values are treated as zero
+     */
+    void record(long nanos) {
+        final long value = Math.max(0L, nanos);
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+        this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * Returns the number of durations recorded
+     * @return  the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of all durations recorded
+     * @return  the sum in nanos
+     */
+    public long getSumNanos() {
+        return sum.get();
+    }
+
+    /**
+     * Returns the longest duration recorded
+     * @return  the max in nanos
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean duration recorded
+     * @return  the mean in nanos, zero if nothing has been recorded
+     */
+    public double getMeanNanos() {
+        final long n = count.get();
+        return n == 0 ? 0d : (double)sum.get() / n;
+    }
+
+    /**
+     * Returns an upper bound of the duration at the percentile specified
+     * @param percentile    the percentile, in the range 0 to 1, for example 0.99
+     * @return              the duration in nanos, zero if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0d || percentile > 1d) {
+            throw new IllegalArgumentException("The percentile must be in the range 0 to 1: " + percentile);
+        }
+        final long n = count.get();
+        final long rank = (long)Math.ceil(percentile * n);
+        long seen = 0L;
+        for (int i = 0; i < buckets.length(); ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                final long upper = i == 0 ? 0L : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1L;
+                return Math.min(upper, max.get());
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Resets this histogram
+     */
+    void reset() {
+        this.count.set(0L);
+        this.sum.set(0L);
+        this.max.set(0L);
+        for (int i = 0; i < buckets.length(); ++i) {
+            this.buckets.set(i, 0L);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+            getCount(),
+            getMeanNanos() / 1e6d,
+            getPercentileNanos(0.5d) / 1e6d,
+            getPercentileNanos(0.99d) / 1e6d,
+            getMaxNanos() / 1e6d
+        );
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A persistent cache of end of day quotes that allows GoogleQuoteHistorySource to fetch only the dates it does not already have.
+ *
+ * Each ticker is stored in its own file along with the contiguous date range that has been fetched for it. A request
+ * is served from the file for any dates within that range, and only the ranges before and after it are fetched from
+ * Google, after which the merged data is written back. Dates from today onwards in the exchange zone are never
+ * persisted since the bar for the current session may still change. Access to each ticker is serialized through a
+ * fixed set of striped locks, so memory use does not grow with the number of tickers seen. When the total size of the cache directory exceeds the configured limit,
+ * the least recently used files are deleted.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteHistoryCache {
+
+    private static final int MAGIC = 0x47514843;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".gqh";
+    private static final int LOCK_STRIPES = 64;
+
+    private File directory;
+    private long maxBytes;
+    private Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Constructor
+     * @param directory the directory to store cache files in, which is created if it does not exist
+     */
+    public GoogleQuoteHistoryCache(File directory) {
+        this(directory, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor
+     * @param directory the directory to store cache files in, which is created if it does not exist
+     * @param maxBytes  the max total size of cache files before least recently used files are evicted
+     */
+    public GoogleQuoteHistoryCache(File directory, long maxBytes) {
+        Asserts.notNull(directory, "The cache directory cannot be null");
+        Asserts.assertTrue(maxBytes > 0, "The max bytes must be > 0");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Arrays.setAll(locks, i -> new Object());
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create cache directory: " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Returns the directory for this cache
+     * @return  the cache directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the max total size of files in this cache
+     * @return  the max size in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the total size of files currently in this cache
+     * @return  the size in bytes
+     */
+    public long getSizeBytes() {
+        return Arrays.stream(files()).mapToLong(File::length).sum();
+    }
+
+    /**
+     * Removes the cached data for the ticker specified
+     * @param ticker    the ticker reference
+     * @return          true if cached data was removed
+     */
+    public boolean remove(String ticker) {
+        synchronized (lock(ticker)) {
+            return fileFor(ticker).delete();
+        }
+    }
+
+    /**
+     * Removes all cached data from this cache
+     */
+    public void clear() {
+        Arrays.stream(files()).forEach(File::delete);
+    }
+
+
+    /**
+     * Returns quotes for the range specified, serving covered dates from disk and loading the rest through the loader
+     * @param ticker    the ticker reference
+     * @param start     the start date, inclusive
+     * @param end       the end date, inclusive
+     * @param loader    the loader to fetch ranges not already in the cache
+     * @return          the quotes for the range in ascending date order
+     * @throws IOException  if reading, loading or writing fails
+     */
+    GoogleQuoteBuffer read(String ticker, LocalDate start, LocalDate end, Loader loader) throws IOException {
+        synchronized (lock(ticker)) {
+            final File file = fileFor(ticker);
+            final Entry entry = file.exists() ? readEntry(file) : null;
+            final long lastFinal = LocalDate.now(GoogleQuoteIntradaySource.EXCHANGE_ZONE).minusDays(1).toEpochDay();
+            final long startDay = start.toEpochDay();
+            final long endDay = end.toEpochDay();
+            final List<GoogleQuoteBuffer> parts = new ArrayList<>(3);
+            long coveredFrom = startDay;
+            long coveredTo = Math.min(endDay, lastFinal);
+            if (entry == null) {
+                parts.add(loader.load(ticker, start, end));
+            } else {
+                if (startDay < entry.from) {
+                    parts.add(loader.load(ticker, start, LocalDate.ofEpochDay(entry.from - 1)));
+                }
+                parts.add(entry.quotes);
+                if (endDay > entry.to) {
+                    parts.add(loader.load(ticker, LocalDate.ofEpochDay(entry.to + 1), end));
+                }
+                coveredFrom = Math.min(coveredFrom, entry.from);
+                coveredTo = Math.max(coveredTo, entry.to);
+            }
+            final GoogleQuoteBuffer merged = new GoogleQuoteBuffer(parts.stream().mapToInt(GoogleQuoteBuffer::size).sum(), false);
+            parts.forEach(part -> part.forEach(Long.MIN_VALUE, Long.MAX_VALUE, merged));
+            if (entry == null || coveredFrom < entry.from || coveredTo > entry.to) {
+                if (coveredFrom <= coveredTo) {
+                    writeEntry(file, coveredFrom, coveredTo, merged);
+                    evict(file);
+                }
+            } else {
+                file.setLastModified(System.currentTimeMillis());
+            }
+            final GoogleQuoteBuffer result = new GoogleQuoteBuffer(merged.size(), false);
+            merged.forEach(startDay, endDay, result);
+            return result;
+        }
+    }
+
+
+    /**
+     * Returns the lock object for the ticker specified, which is shared with any other tickers in the same stripe
+     * @param ticker    the ticker reference
+     * @return          the lock object
+     */
+    private Object lock(String ticker) {
+        return locks[(ticker.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * Returns the cache file for the ticker specified
+     * @param ticker    the ticker reference
+     * @return          the cache file
+     */
+    private File fileFor(String ticker) {
+        return GoogleQuoteFiles.fileFor(directory, ticker, SUFFIX);
+    }
+
+    /**
+     * Returns the cache files in the cache directory
+     * @return  the cache files
+     */
+    private File[] files() {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return files != null ? files : new File[0];
+    }
+
+
+    /**
+     * Reads a cache entry from the file specified
+     * @param file  the cache file
+     * @return      the cache entry
+     * @throws IOException  if the file cannot be read or is not a valid cache file
+     */
+    private Entry readEntry(File file) throws IOException {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new IOException("Not a valid quote cache file: " + file.getAbsolutePath());
+            }
+            final long from = is.readLong();
+            final long to = is.readLong();
+            final int count = is.readInt();
+            final GoogleQuoteBuffer quotes = new GoogleQuoteBuffer(count, false);
+            for (int i = 0; i < count; ++i) {
+                quotes.onQuote(is.readLong(), is.readDouble(), is.readDouble(), is.readDouble(), is.readDouble(), is.readDouble());
+            }
+            return new Entry(from, to, quotes);
+        }
+    }
+
+
+    /**
+     * Writes a cache entry to the file specified, replacing it atomically
+     * @param file      the cache file
+     * @param from      the first date covered, as an epoch day
+     * @param to        the last date covered, as an epoch day
+     * @param quotes    the quotes, of which only those in the covered range are written
+     * @throws IOException  if the file cannot be written
+     */
+    private void writeEntry(File file, long from, long to, GoogleQuoteBuffer quotes) throws IOException {
+        final File temp = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            final int count = quotes.forEach(from, to, (key, open, high, low, close, volume) -> true);
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeLong(from);
+            os.writeLong(to);
+            os.writeInt(count);
+            for (int row = 0; row < quotes.size(); ++row) {
+                final long key = quotes.key(row);
+                if (key >= from && key <= to) {
+                    os.writeLong(key);
+                    os.writeDouble(quotes.value(row, GoogleQuoteParser.OPEN));
+                    os.writeDouble(quotes.value(row, GoogleQuoteParser.HIGH));
+                    os.writeDouble(quotes.value(row, GoogleQuoteParser.LOW));
+                    os.writeDouble(quotes.value(row, GoogleQuoteParser.CLOSE));
+                    os.writeDouble(quotes.value(row, GoogleQuoteParser.VOLUME));
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Deletes the least recently used cache files until the cache is within its size limit
+     * @param retain    the file to retain regardless of size
+     */
+    private void evict(File retain) {
+        final File[] files = files();
+        long total = Arrays.stream(files).mapToLong(File::length).sum();
+        if (total > maxBytes) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                if (total <= maxBytes) {
+                    break;
+                } else if (!file.equals(retain)) {
+                    final long length = file.length();
+                    if (file.delete()) {
+                        total -= length;
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A function that loads quotes for a date range that is not in the cache
+     */
+    @FunctionalInterface
+    interface Loader {
+
+        /**
+         * Loads quotes for the ticker and range specified
+         * @param ticker    the ticker reference
+         * @param start     the start date, inclusive
+         * @param end       the end date, inclusive
+         * @return          the quotes in ascending date order
+         * @throws IOException  if the load fails
+         */
+        GoogleQuoteBuffer load(String ticker, LocalDate start, LocalDate end) throws IOException;
+    }
+
+
+    /**
+     * The contents of a cache file
+     */
+    private static class Entry {
+
+        private long from;
+        private long to;
+        private GoogleQuoteBuffer quotes;
+
+        /**
+         * Constructor
+         * @param from      the first date covered, as an epoch day
+         * @param to        the last date covered, as an epoch day
+         * @param quotes    the cached quotes
+         */
+        Entry(long from, long to, GoogleQuoteBuffer quotes) {
+            this.from = from;
+            this.to = to;
+            this.quotes = quotes;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+/**
+ * A scanner that parses the Google Finance historical CSV format directly from response bytes.
+ *
+ * Lines are expected in the form <code>d-MMM-yy,open,high,low,close,volume</code>, and any line that does not
+ * begin with such a date is skipped, which includes the header line. Dates are decoded with a month lookup table
+ * into epoch days, and numbers are accumulated from bytes without creating intermediate Strings. Google reports
+ * missing values with a <code>-</code> placeholder, which is parsed as NaN.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteHistoryParser extends GoogleQuoteParser {
+
+    private static final int[] MONTHS = {
+        month("jan"), month("feb"), month("mar"), month("apr"), month("may"), month("jun"),
+        month("jul"), month("aug"), month("sep"), month("oct"), month("nov"), month("dec")
+    };
+
+    private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    /**
+     * Constructor
+     */
+    GoogleQuoteHistoryParser() {
+        this(8192);
+    }
+
+    /**
+     * Constructor
+     * @param bufferSize    the initial size of the read buffer
+     */
+    GoogleQuoteHistoryParser(int bufferSize) {
+        super(bufferSize);
+    }
+
+    @Override
+    protected boolean parseLine(int from, int to) {
+        if (to - from >= 3 && buffer[from] == (byte)0xEF && buffer[from + 1] == (byte)0xBB && buffer[from + 2] == (byte)0xBF) {
+            from += 3;
+        }
+        final int dateEnd = indexOf(buffer, (byte)',', from, to);
+        if (dateEnd < 0 || !parseDate(from, dateEnd)) {
+            return false;
+        }
+        int fieldStart = dateEnd + 1;
+        for (int i = 0; i < 5; ++i) {
+            final int fieldEnd = i < 4 ? indexOf(buffer, (byte)',', fieldStart, to) : to;
+            if (fieldEnd <= fieldStart) {
+                return false;
+            } else if (i == 4 && indexOf(buffer, (byte)',', fieldStart, to) >= 0) {
+                return false;
+            } else {
+                values[i] = parseNumber(fieldStart, fieldEnd);
+                fieldStart = fieldEnd + 1;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Parses a date in d-MMM-yy format into the key field of this parser as an epoch day
+     * @param from  the offset of the first byte of the date
+     * @param to    the offset after the last byte of the date
+     * @return      true if the bytes represent a valid date
+     */
+    private boolean parseDate(int from, int to) {
+        final int length = to - from;
+        if (length != 8 && length != 9) {
+            return false;
+        }
+        final int dayLength = length - 7;
+        int day = 0;
+        for (int i = 0; i < dayLength; ++i) {
+            final int digit = buffer[from + i] - '0';
+            if (digit < 0 || digit > 9) return false;
+            day = day * 10 + digit;
+        }
+        final int offset = from + dayLength;
+        if (buffer[offset] != '-' || buffer[offset + 4] != '-') {
+            return false;
+        }
+        final int month = monthOf(buffer[offset + 1], buffer[offset + 2], buffer[offset + 3]);
+        final int tens = buffer[offset + 5] - '0';
+        final int units = buffer[offset + 6] - '0';
+        if (month < 1 || tens < 0 || tens > 9 || units < 0 || units > 9) {
+            return false;
+        }
+        final int year = 2000 + tens * 10 + units;
+        if (day < 1 || day > DAYS_IN_MONTH[month - 1] || (month == 2 && day == 29 && !isLeapYear(year))) {
+            return false;
+        }
+        this.key = toEpochDay(year, month, day);
+        return true;
+    }
+
+
+    /**
+     * Returns the month number for the three letter month abbreviation, ignoring case
+     * @return  the month number from 1 to 12, or -1 if not a valid month
+     */
+    private static int monthOf(byte b1, byte b2, byte b3) {
+        final int key = ((b1 | 0x20) << 16) | ((b2 | 0x20) << 8) | (b3 | 0x20);
+        for (int i = 0; i < MONTHS.length; ++i) {
+            if (MONTHS[i] == key) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the lookup key for a lower case three letter month abbreviation
+     * @param name  the month abbreviation
+     * @return      the lookup key
+     */
+    private static int month(String name) {
+        return (name.charAt(0) << 16) | (name.charAt(1) << 8) | name.charAt(2);
+    }
+
+    /**
+     * Returns true if the year is a leap year in the ISO calendar
+     * @param year  the year
+     * @return      true if a leap year
+     */
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * Returns the epoch day for the ISO date specified, without creating a LocalDate
+     * @param year  the year
+     * @param month the month of year from 1 to 12
+     * @param day   the day of month
+     * @return      the epoch day, consistent with LocalDate.toEpochDay()
+     */
+    static long toEpochDay(int year, int month, int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+}
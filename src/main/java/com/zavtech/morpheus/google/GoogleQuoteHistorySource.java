@@ -15,21 +15,26 @@
  */
 package com.zavtech.morpheus.google;
 
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
+import java.time.Period;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 import com.zavtech.morpheus.array.Array;
 import com.zavtech.morpheus.frame.DataFrame;
 import com.zavtech.morpheus.frame.DataFrameException;
 import com.zavtech.morpheus.frame.DataFrameSource;
-import com.zavtech.morpheus.index.Index;
 import com.zavtech.morpheus.util.Asserts;
-import com.zavtech.morpheus.util.TextStreamReader;
 
 /**
  * A DataFrameSource implementation that loads historical end of day prices from Google Finance.
@@ -43,6 +48,12 @@ import com.zavtech.morpheus.util.TextStreamReader;
 public class GoogleQuoteHistorySource extends DataFrameSource<LocalDate,String,GoogleQuoteHistorySource.Options> {
 
     private String urlTemplate;
+    private GoogleQuoteTransport transport;
+    private GoogleQuoteHistoryCache cache;
+    private GoogleQuoteMemoryCache memoryCache;
+    private GoogleQuoteStore store;
+    private Period shardPeriod;
+    private GoogleQuoteMetricsListener metricsListener;
 
     /**
      * Constructor
@@ -56,74 +67,326 @@ public class GoogleQuoteHistorySource extends DataFrameSource<LocalDate,String,G
      * @param urlTemplate   the url template to replace symbol
      */
     public GoogleQuoteHistorySource(String urlTemplate) {
+        this(urlTemplate, new GoogleQuoteHttpTransport());
+    }
+
+    /**
+     * Constructor
+     * @param urlTemplate   the url template to expand for each request
+     * @param transport     the transport used to issue requests
+     */
+    public GoogleQuoteHistorySource(String urlTemplate, GoogleQuoteTransport transport) {
+        Asserts.notNull(urlTemplate, "The url template cannot be null");
+        Asserts.notNull(transport, "The transport cannot be null");
         this.urlTemplate = urlTemplate;
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the transport used by this source to issue requests
+     * @return  the transport for this source
+     */
+    public GoogleQuoteTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used by this source to issue requests
+     * @param transport the transport for this source
+     */
+    public void setTransport(GoogleQuoteTransport transport) {
+        Asserts.notNull(transport, "The transport cannot be null");
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the persistent cache for this source so that only dates not already cached are fetched
+     * @param cache the cache, null to fetch the full range for every request
+     */
+    public void setCache(GoogleQuoteHistoryCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the memory mapped store to serve quotes from, which is consulted after the memory cache and before the persistent cache
+     * Only dates outside the range held in the store for a ticker are loaded from the persistent cache or Google Finance.
+     * @param store the quote store, null for none
+     */
+    public void setStore(GoogleQuoteStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets the window length used to split long date ranges into sub-requests that are fetched concurrently
+     * The windows are stitched back into a single series in date order, so latency for a deep history request
+     * is bounded by the slowest window rather than the sum of all of them.
+     * @param shardPeriod   the window length, for example Period.ofYears(1), null to fetch every range in one request
+     */
+    public void setShardPeriod(Period shardPeriod) {
+        Asserts.assertTrue(shardPeriod == null || (!shardPeriod.isNegative() && !shardPeriod.isZero()), "The shard period must be positive");
+        this.shardPeriod = shardPeriod;
+    }
+
+    /**
+     * Sets the in-memory cache for this source, which is consulted before the persistent cache
+     * @param memoryCache   the memory cache, which may be shared with other sources, null for none
+     */
+    public void setMemoryCache(GoogleQuoteMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Sets the listener to receive phase timings and counts for each request read through this source
+     * Metrics are not collected while there is no listener, so the cost of instrumentation is only paid when used.
+     * @param metricsListener   the listener, for example a GoogleQuoteMetricsRegistry, null for none
+     */
+    public void setMetricsListener(GoogleQuoteMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
     }
 
     @Override
     public DataFrame<LocalDate, String> read(Consumer<GoogleQuoteHistorySource.Options> configurator) throws DataFrameException {
-        TextStreamReader reader = null;
         final Options options = initOptions(new Options(), configurator);
+        final GoogleQuoteMetricsListener listener = metricsListener;
+        final GoogleQuoteRequestMetrics metrics = listener != null ? new GoogleQuoteRequestMetrics("history", options.ticker) : null;
+        int rowCount = 0;
+        Throwable failure = null;
         try {
-            final DateTimeFormatter formatter1 = DateTimeFormatter.ofPattern("d-MMM-yy");
-            final DateTimeFormatter formatter2 = DateTimeFormatter.ofPattern("MMM'+'dd'%2C+'yyyy");
-            final String start = formatter2.format(options.start);
-            final String end = formatter2.format(options.end);
-            final String urlString = urlTemplate.replace("<TICKER>", options.ticker).replace("<START>", start).replace("<END>", end);
-            final Index<LocalDate> index = Index.of(LocalDate.class, 1000);
-            final Array<String> columns = Array.of("Open", "High", "Low", "Close", "Volume", "Change", "ChangePercent");
-            final DataFrame<LocalDate,String> frame = DataFrame.ofDoubles(index, columns);
-            final Matcher lineMatcher = Pattern.compile("(\\d{1,2}?-\\p{Alpha}{3}-\\d{2}),(.+),(.+),(.+),(.+),(.+)").matcher("");
-            reader = new TextStreamReader(new URL(urlString).openStream());
-            while (reader.hasNext()) {
-                final String line = reader.nextLine();
-                if (lineMatcher.reset(line).matches()) {
-                    final LocalDate localDate = LocalDate.parse(lineMatcher.group(1), formatter1);
-                    frame.rows().add(localDate, v -> {
-                        switch (v.colOrdinal()) {
-                            case 0: return Double.parseDouble(lineMatcher.group(2));
-                            case 1: return Double.parseDouble(lineMatcher.group(3));
-                            case 2: return Double.parseDouble(lineMatcher.group(4));
-                            case 3: return Double.parseDouble(lineMatcher.group(5));
-                            case 4: return Double.parseDouble(lineMatcher.group(6));
-                            default: return v.getDouble();
-                        }
-                    });
-                }
-            }
-            return calculateChanges(frame);
+            final GoogleQuoteBuffer buffer = load(options, metrics);
+            final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(options.derivedColumns, options.rollingWindow, 1L);
+            rowCount = buffer.size();
+            return buffer.toDataFrame(LocalDate.class, LocalDate::ofEpochDay, derivations, options.getStorage(), metrics);
         } catch (Exception ex) {
+            failure = ex;
             throw new DataFrameException("Failed to load historical quotes from Google Finance for " + options.ticker, ex);
         } finally {
-            if (reader != null) {
-                reader.close();
+            if (metrics != null) {
+                metrics.complete(failure == null ? rowCount : 0, failure);
+                listener.onRequest(metrics);
             }
         }
     }
 
 
     /**
-     * Calculates price changes from close to close
-     * @param frame the quote frame
-     * @return      the same as input
+     * Reads quotes asynchronously on the executor of the transport for this source
+     * The request itself uses blocking I/O, so it occupies a thread of that executor until the frame is built.
+     * @param configurator  the options configurator
+     * @return              the future result, which completes exceptionally with a DataFrameException on failure
      */
-    private DataFrame<LocalDate,String> calculateChanges(DataFrame<LocalDate,String> frame) {
-        frame.rows().sort((row1, row2) -> row1.key().compareTo(row2.key()));
-        IntStream.range(1, frame.rowCount()).forEach(rowIndex -> {
-            final double previous = frame.data().getDouble(rowIndex - 1, "Close");
-            final double current = frame.data().getDouble(rowIndex, "Close");
-            frame.data().setDouble(rowIndex, "Change", current - previous);
-            frame.data().setDouble(rowIndex, "ChangePercent", (current / previous) - 1d);
-        });
-        return frame;
+    public CompletableFuture<DataFrame<LocalDate,String>> readAsync(Consumer<Options> configurator) {
+        return CompletableFuture.supplyAsync(() -> read(configurator), transport.executor());
+    }
+
+
+    /**
+     * Streams end of day quotes to the handler as they are parsed, without building a DataFrame
+     *
+     * Quotes are passed in the order Google returns them, which is newest first, with keys expressed as epoch days.
+     * The caches are bypassed and derived columns are not computed in this mode, but if a store is set the quotes
+     * are loaded through it, and are then passed newest first from memory.
+     *
+     * @param configurator  the options configurator
+     * @param handler       the handler to receive quotes, which can return false to stop the stream early
+     * @return              the number of quotes passed to the handler
+     * @throws DataFrameException   if the request fails
+     */
+    public int stream(Consumer<Options> configurator, GoogleQuoteHandler handler) throws DataFrameException {
+        final Options options = initOptions(new Options(), configurator);
+        if (store == null) {
+            try (InputStream is = openStream(options.ticker, options.start, options.end)) {
+                return new GoogleQuoteHistoryParser().parse(is, handler);
+            } catch (Exception ex) {
+                throw new DataFrameException("Failed to stream historical quotes from Google Finance for " + options.ticker, ex);
+            }
+        } else {
+            try {
+                final GoogleQuoteBuffer buffer = loadStored(options.ticker, options.start, options.end, null);
+                for (int row = buffer.size() - 1; row >= 0; --row) {
+                    final double open = buffer.value(row, GoogleQuoteParser.OPEN);
+                    final double high = buffer.value(row, GoogleQuoteParser.HIGH);
+                    final double low = buffer.value(row, GoogleQuoteParser.LOW);
+                    final double close = buffer.value(row, GoogleQuoteParser.CLOSE);
+                    final double volume = buffer.value(row, GoogleQuoteParser.VOLUME);
+                    if (!handler.onQuote(buffer.key(row), open, high, low, close, volume)) {
+                        return buffer.size() - row;
+                    }
+                }
+                return buffer.size();
+            } catch (Exception ex) {
+                throw new DataFrameException("Failed to stream historical quotes for " + options.ticker, ex);
+            }
+        }
+    }
+
+
+    /**
+     * Loads quotes for the request without building a DataFrame, which is how panels are assembled
+     * @param configurator  the options configurator
+     * @return              the quotes in ascending date order
+     * @throws IOException  if the request fails
+     */
+    GoogleQuoteBuffer readBuffer(Consumer<Options> configurator) throws IOException {
+        return load(initOptions(new Options(), configurator), null);
     }
 
 
+    /**
+     * Loads quotes for the request through the memory cache, the store and then the persistent cache if there are any
+     * @param options   the request options
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending date order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer load(Options options, GoogleQuoteRequestMetrics metrics) throws IOException {
+        return memoryCache != null
+            ? memoryCache.readHistory(options.ticker, options.start, options.end, () -> loadStored(options.ticker, options.start, options.end, metrics))
+            : loadStored(options.ticker, options.start, options.end, metrics);
+    }
+
+
+    /**
+     * Loads quotes for the ticker and date range from the store if there is one, loading only the dates before or after those covered
+     * @param ticker    the ticker reference
+     * @param startDate the start date
+     * @param endDate   the end date
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending date order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer loadStored(String ticker, LocalDate startDate, LocalDate endDate, GoogleQuoteRequestMetrics metrics) throws IOException {
+        final GoogleQuoteStore store = this.store;
+        final GoogleQuoteStore.Slice slice = store != null ? store.read(ticker, GoogleQuoteStore.Frequency.DAILY, startDate.toEpochDay(), endDate.toEpochDay()) : null;
+        if (slice == null || !slice.hasCoverage()) {
+            return load(ticker, startDate, endDate, metrics);
+        } else {
+            final LocalDate firstCovered = LocalDate.ofEpochDay(slice.firstCoveredKey());
+            final LocalDate lastCovered = LocalDate.ofEpochDay(slice.lastCoveredKey());
+            final int capacity = (int)(ChronoUnit.DAYS.between(startDate, endDate) * 5 / 7) + 16;
+            final GoogleQuoteBuffer result = new GoogleQuoteBuffer(capacity, false);
+            if (startDate.isBefore(firstCovered)) {
+                final LocalDate lastDay = endDate.isBefore(firstCovered) ? endDate : firstCovered.minusDays(1);
+                load(ticker, startDate, lastDay, metrics).forEach(Long.MIN_VALUE, Long.MAX_VALUE, result);
+            }
+            slice.forEach(result);
+            if (endDate.isAfter(lastCovered)) {
+                final LocalDate firstDay = startDate.isAfter(lastCovered) ? startDate : lastCovered.plusDays(1);
+                load(ticker, firstDay, endDate, metrics).forEach(Long.MIN_VALUE, Long.MAX_VALUE, result);
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * Loads quotes for the ticker and date range through the persistent cache if there is one
+     * @param ticker    the ticker reference
+     * @param startDate the start date
+     * @param endDate   the end date
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending date order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer load(String ticker, LocalDate startDate, LocalDate endDate, GoogleQuoteRequestMetrics metrics) throws IOException {
+        if (cache == null) {
+            return fetch(ticker, startDate, endDate, metrics);
+        } else {
+            return cache.read(ticker, startDate, endDate, (t, start, end) -> fetch(t, start, end, metrics));
+        }
+    }
+
+
+    /**
+     * Fetches quotes for the ticker and date range from Google Finance, sharding the range if configured
+     * @param ticker    the ticker reference
+     * @param startDate the start date
+     * @param endDate   the end date
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending date order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer fetch(String ticker, LocalDate startDate, LocalDate endDate, GoogleQuoteRequestMetrics metrics) throws IOException {
+        final Period period = shardPeriod;
+        if (period == null || !startDate.plus(period).isBefore(endDate)) {
+            return fetchRange(ticker, startDate, endDate, metrics);
+        }
+        final List<Window> windows = new ArrayList<>();
+        for (LocalDate from = startDate; !from.isAfter(endDate); from = from.plus(period)) {
+            final LocalDate lastDay = from.plus(period).minusDays(1);
+            windows.add(new Window(ticker, from, lastDay.isBefore(endDate) ? lastDay : endDate, metrics));
+        }
+        for (int i = 1; i < windows.size(); ++i) {
+            try {
+                transport.executor().execute(windows.get(i));
+            } catch (RejectedExecutionException ex) {
+                break;
+            }
+        }
+        final int capacity = (int)(ChronoUnit.DAYS.between(startDate, endDate) * 5 / 7) + 16;
+        final GoogleQuoteBuffer result = new GoogleQuoteBuffer(capacity, false);
+        try {
+            for (Window window : windows) {
+                window.run();
+                window.result.join().forEach(Long.MIN_VALUE, Long.MAX_VALUE, result);
+            }
+            return result;
+        } catch (CompletionException ex) {
+            windows.forEach(Window::cancel);
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            } else {
+                throw ex;
+            }
+        }
+    }
+
+
+    /**
+     * Fetches quotes for the ticker and date range from Google Finance in a single request
+     * @param ticker    the ticker reference
+     * @param startDate the start date
+     * @param endDate   the end date
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending date order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer fetchRange(String ticker, LocalDate startDate, LocalDate endDate, GoogleQuoteRequestMetrics metrics) throws IOException {
+        final int capacity = (int)(ChronoUnit.DAYS.between(startDate, endDate) * 5 / 7) + 16;
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(capacity, true);
+        final GoogleQuoteHistoryParser parser = new GoogleQuoteHistoryParser();
+        GoogleQuoteRequestMetrics.parse(metrics, () -> openStream(ticker, startDate, endDate), parser, buffer);
+        if (metrics != null) {
+            metrics.addGrowths(buffer);
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Returns a stream for the response to a request for the ticker and date range
+     * @param ticker    the ticker reference
+     * @param startDate the start date
+     * @param endDate   the end date
+     * @return          the response stream
+     * @throws IOException  if the request fails
+     */
+    private InputStream openStream(String ticker, LocalDate startDate, LocalDate endDate) throws IOException {
+        final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMM'+'dd'%2C+'yyyy");
+        final String start = formatter.format(startDate);
+        final String end = formatter.format(endDate);
+        final String urlString = urlTemplate.replace("<TICKER>", ticker).replace("<START>", start).replace("<END>", end);
+        return transport.open(urlString);
+    }
+
 
     public class Options implements DataFrameSource.Options<LocalDate,String> {
 
         private String ticker;
         private LocalDate start;
         private LocalDate end;
+        private int rollingWindow = 20;
+        private List<GoogleQuoteDerivedColumn> derivedColumns = GoogleQuoteDerivations.DEFAULT_COLUMNS;
+        private GoogleQuoteStorage storage = GoogleQuoteStorage.DOUBLE;
 
 
         @Override
@@ -132,6 +395,8 @@ public class GoogleQuoteHistorySource extends DataFrameSource<LocalDate,String,G
             Asserts.notNull(start, "The start date must be specified");
             Asserts.notNull(end, "The end date must be specified");
             Asserts.assertTrue(start.compareTo(end) < 0, "The start date must be < end date");
+            Asserts.assertTrue(rollingWindow > 1, "The rolling window must be > 1");
+            Asserts.notNull(storage, "The column storage must be specified");
         }
 
         /**
@@ -157,6 +422,131 @@ public class GoogleQuoteHistorySource extends DataFrameSource<LocalDate,String,G
         public void setEnd(LocalDate end) {
             this.end = end;
         }
+
+        /**
+         * Sets the columns to derive from the quote data, which replace the default of Change and ChangePercent
+         * @param columns   the derived columns, in the order they should appear after the quote columns
+         */
+        public void setDerivedColumns(GoogleQuoteDerivedColumn... columns) {
+            this.derivedColumns = Arrays.asList(columns);
+        }
+
+        /**
+         * Sets the window length for rolling derived columns
+         * @param rollingWindow the number of bars in the rolling window, which must be > 1
+         */
+        public void setRollingWindow(int rollingWindow) {
+            this.rollingWindow = rollingWindow;
+        }
+
+        /**
+         * Sets the column storage scheme, where COMPACT stores prices as float and volume as long
+         * To save further heap, derived columns can be dropped entirely by calling setDerivedColumns() with no arguments.
+         * @param storage   the column storage scheme
+         */
+        public void setStorage(GoogleQuoteStorage storage) {
+            this.storage = storage;
+        }
+
+        /**
+         * Returns the instrument ticker for this request
+         * @return  the instrument ticker
+         */
+        public String getTicker() {
+            return ticker;
+        }
+
+        /**
+         * Returns the start date for this request
+         * @return  the start date
+         */
+        public LocalDate getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end date for this request
+         * @return  the end date
+         */
+        public LocalDate getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the columns to derive from the quote data
+         * @return  the derived columns
+         */
+        public List<GoogleQuoteDerivedColumn> getDerivedColumns() {
+            return derivedColumns;
+        }
+
+        /**
+         * Returns the window length for rolling derived columns
+         * @return  the number of bars in the rolling window
+         */
+        public int getRollingWindow() {
+            return rollingWindow;
+        }
+
+        /**
+         * Returns the column storage scheme for this request
+         * @return  the column storage scheme
+         */
+        public GoogleQuoteStorage getStorage() {
+            return storage;
+        }
+    }
+
+
+    /**
+     * A window of a sharded request, which runs on whichever thread claims it first
+     *
+     * Windows are submitted to the transport executor, but the calling thread also runs every window it reaches
+     * that no worker has started. A caller that is itself a worker of a bounded executor therefore never waits on
+     * a window that cannot be scheduled, and at worst fetches the windows sequentially.
+     */
+    private class Window implements Runnable {
+
+        private String ticker;
+        private LocalDate start;
+        private LocalDate end;
+        private GoogleQuoteRequestMetrics metrics;
+        private AtomicBoolean claimed = new AtomicBoolean();
+        private CompletableFuture<GoogleQuoteBuffer> result = new CompletableFuture<>();
+
+        /**
+         * Constructor
+         * @param ticker    the ticker reference
+         * @param start     the window start date
+         * @param end       the window end date
+         * @param metrics   the metrics for the request, null if not enabled
+         */
+        Window(String ticker, LocalDate start, LocalDate end, GoogleQuoteRequestMetrics metrics) {
+            this.ticker = ticker;
+            this.start = start;
+            this.end = end;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Prevents this window from running if it has not been claimed yet
+         */
+        void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                result.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                try {
+                    result.complete(fetchRange(ticker, start, end, metrics));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            }
+        }
     }
 
 
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+
+/**
+ * An exception raised when Google Finance responds to a request with an HTTP error status
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteHttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private int statusCode;
+    private String url;
+
+    /**
+     * Constructor
+     * @param url           the request url
+     * @param statusCode    the HTTP status code returned
+     */
+    public GoogleQuoteHttpException(String url, int statusCode) {
+        super("HTTP " + statusCode + " returned for " + url);
+        this.url = url;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the request url that failed
+     * @return  the request url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the HTTP status code returned by the server
+     * @return  the HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
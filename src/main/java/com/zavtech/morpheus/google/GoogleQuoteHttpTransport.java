@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * The default GoogleQuoteTransport, which issues requests over persistent HTTP connections with gzip compression.
+ *
+ * Connections are reused through the JDK keep-alive cache, which only returns a connection to the pool once its
+ * response has been fully consumed, so the streams returned here drain any unread body when closed. Error
+ * responses are drained the same way before a GoogleQuoteHttpException is raised. Draining stops after a small
+ * byte budget, past which the connection is closed instead, so a consumer that stops early does not pay for the
+ * rest of a large or slow response. Urls with a scheme other than http or https, such as file: urls used for
+ * recorded payloads, are opened directly.
+ *
+ * Requests use blocking I/O, so each asynchronous request in flight occupies a thread of the executor. The shared
+ * default executor is bounded at 64 daemon threads, and further asynchronous requests queue until one is free.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteHttpTransport implements GoogleQuoteTransport {
+
+    private static final int DRAIN_LIMIT = 16384;
+    private static final int DEFAULT_THREADS = 64;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor defaultExecutor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        final Thread thread = new Thread(runnable, "GoogleQuoteTransport-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        defaultExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    private boolean compression;
+    private Executor executor;
+
+    /**
+     * Constructor
+     */
+    public GoogleQuoteHttpTransport() {
+        this(10000, 30000);
+    }
+
+    /**
+     * Constructor
+     * @param connectTimeoutMillis  the connect timeout in millis, 0 for no timeout
+     * @param readTimeoutMillis     the read timeout in millis, 0 for no timeout
+     */
+    public GoogleQuoteHttpTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        Asserts.assertTrue(connectTimeoutMillis >= 0, "The connect timeout must be >= 0");
+        Asserts.assertTrue(readTimeoutMillis >= 0, "The read timeout must be >= 0");
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.compression = true;
+        this.executor = defaultExecutor;
+    }
+
+    /**
+     * Returns the shared, bounded daemon executor used for asynchronous requests when none is specified
+     * @return  the shared default executor
+     */
+    static Executor defaultExecutor() {
+        return defaultExecutor;
+    }
+
+    /**
+     * Returns the connect timeout for this transport
+     * @return  the connect timeout in millis
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Sets the connect timeout for this transport
+     * @param connectTimeoutMillis  the connect timeout in millis, 0 for no timeout
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        Asserts.assertTrue(connectTimeoutMillis >= 0, "The connect timeout must be >= 0");
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Returns the read timeout for this transport
+     * @return  the read timeout in millis
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Sets the read timeout for this transport
+     * @param readTimeoutMillis the read timeout in millis, 0 for no timeout
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        Asserts.assertTrue(readTimeoutMillis >= 0, "The read timeout must be >= 0");
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Returns true if this transport requests gzip compressed responses
+     * @return  true if compression is requested
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets whether this transport requests gzip compressed responses
+     * @param compression   true to send Accept-Encoding: gzip
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets the executor used to run asynchronous reads through this transport
+     * @param executor  the executor for asynchronous requests
+     */
+    public void setExecutor(Executor executor) {
+        Asserts.notNull(executor, "The executor cannot be null");
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public InputStream open(String url) throws IOException {
+        final URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        if (!(connection instanceof HttpURLConnection)) {
+            return connection.getInputStream();
+        }
+        final HttpURLConnection http = (HttpURLConnection)connection;
+        http.setRequestProperty("Connection", "keep-alive");
+        if (compression) {
+            http.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        final int statusCode = http.getResponseCode();
+        if (statusCode >= 400) {
+            final InputStream error = http.getErrorStream();
+            if (error != null && !drain(error)) {
+                http.disconnect();
+            }
+            throw new GoogleQuoteHttpException(url, statusCode);
+        }
+        final InputStream body = new DrainingInputStream(http.getInputStream(), http);
+        if (!"gzip".equalsIgnoreCase(http.getContentEncoding())) {
+            return body;
+        }
+        try {
+            return new GZIPInputStream(body, 8192);
+        } catch (IOException | RuntimeException ex) {
+            try {
+                body.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Reads the stream to the end, up to a small byte budget, and closes it so the underlying connection can be reused
+     * @param is    the stream to drain
+     * @return      true if the end of the stream was reached within the budget
+     */
+    private static boolean drain(InputStream is) {
+        try (InputStream input = is) {
+            final byte[] buffer = new byte[4096];
+            int remaining = DRAIN_LIMIT;
+            while (remaining > 0) {
+                final int count = input.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (count < 0) {
+                    return true;
+                }
+                remaining -= count;
+            }
+            return input.read() < 0;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+
+    /**
+     * A stream that consumes a bounded number of unread bytes on close, so callers that stop early do not prevent
+     * connection reuse for short remainders, and disconnects rather than downloading the rest of a long response
+     */
+    private static class DrainingInputStream extends FilterInputStream {
+
+        private HttpURLConnection connection;
+
+        /**
+         * Constructor
+         * @param is            the response body stream
+         * @param connection    the connection to disconnect if the remainder exceeds the drain budget
+         */
+        DrainingInputStream(InputStream is, HttpURLConnection connection) {
+            super(is);
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() {
+            if (!drain(in)) {
+                connection.disconnect();
+            }
+        }
+    }
+
+}
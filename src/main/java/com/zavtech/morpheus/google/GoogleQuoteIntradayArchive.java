@@ -0,0 +1,571 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A directory of append-only intraday archives, which hold months of minute bars per ticker in compact encoded form.
+ *
+ * Each file holds one ticker as a sequence of session blocks encoded by GoogleQuoteArchiveCodec, where a session
+ * is stored as an anchor plus varint steps, with delta encoded fixed point prices and varint volumes. Every block
+ * is preceded by its length and local epoch day, so opening a file only scans these 8 byte prefixes to build an
+ * index of sessions, and a query reads and decodes only the blocks for the sessions it touches. New sessions are
+ * appended to the end of a file. As the most recent session fills up during the day, its new version is appended
+ * as well, and a block for the same day as the one before it supersedes that block. Writes that add a session
+ * are forced to disk before the index is updated, so previously archived sessions survive a crash mid-write. Writes
+ * that only refresh the open session are not forced, since the block they supersede stays in the file and is read
+ * back in their place if they are lost, which keeps a poller refreshing every minute from paying for an fsync each
+ * time. Once superseded blocks outweigh live ones the file is compacted into a temporary file that atomically
+ * replaces it, which bounds the file at about twice its live size however often the open session is refreshed.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteIntradayArchive {
+
+    private static final int MAGIC = 0x47514941;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int PREFIX_BYTES = 8;
+
+    private File directory;
+    private ConcurrentHashMap<String,Index> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param directory the directory to store archives in, which is created if it does not exist
+     */
+    public GoogleQuoteIntradayArchive(File directory) {
+        Asserts.notNull(directory, "The archive directory cannot be null");
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create archive directory: " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Returns the directory for this archive
+     * @return  the archive directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns true if this archive holds any sessions for the ticker
+     * @param ticker    the ticker reference
+     * @return          true if sessions exist
+     */
+    public boolean contains(String ticker) {
+        return fileFor(ticker).exists();
+    }
+
+    /**
+     * Returns the size of the archive file for the ticker
+     * @param ticker    the ticker reference
+     * @return          the size in bytes, zero if there is no archive for the ticker
+     */
+    public long size(String ticker) {
+        return fileFor(ticker).length();
+    }
+
+    /**
+     * Returns the sessions held for the ticker in ascending order
+     * @param ticker    the ticker reference
+     * @return          the session dates
+     * @throws IOException  if the archive cannot be read
+     */
+    public List<LocalDate> sessions(String ticker) throws IOException {
+        final Index index = index(ticker);
+        final List<LocalDate> sessions = new ArrayList<>(index.size);
+        for (int i = 0; i < index.size; ++i) {
+            sessions.add(LocalDate.ofEpochDay(index.days[i]));
+        }
+        return Collections.unmodifiableList(sessions);
+    }
+
+    /**
+     * Appends the sessions in an intraday frame, as produced by GoogleQuoteIntradaySource, to the archive for the ticker
+     * Sessions older than the most recent archived session are ignored, and the most recent session is replaced.
+     * @param ticker    the ticker reference
+     * @param frame     the quote frame
+     * @return          the number of sessions written
+     * @throws IOException  if the archive cannot be written
+     */
+    public int append(String ticker, DataFrame<LocalDateTime,String> frame) throws IOException {
+        final long[] keys = new long[frame.rowCount()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = frame.rows().key(i).toEpochSecond(ZoneOffset.UTC);
+        }
+        return append(ticker, keys, GoogleQuoteStore.columns(frame));
+    }
+
+    /**
+     * Fetches the most recent sessions for the ticker from the source and appends any that are new to the archive
+     * @param ticker    the ticker reference
+     * @param source    the source to fetch from
+     * @param dayCount  the number of recent sessions to fetch, which should cover the gap since the last update
+     * @return          the number of sessions written
+     * @throws IOException  if the fetch or the write fails
+     */
+    public int update(String ticker, GoogleQuoteIntradaySource source, int dayCount) throws IOException {
+        Asserts.notNull(source, "The source cannot be null");
+        final GoogleQuoteBuffer buffer = source.readBuffer(options -> {
+            options.setTicker(ticker);
+            options.setDayCount(dayCount);
+        });
+        final double[][] fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = buffer.column(i);
+        }
+        return append(ticker, buffer.keys(), fields);
+    }
+
+    /**
+     * Returns intraday quotes for the sessions within the date range, decoding only the sessions required
+     * @param ticker    the ticker reference
+     * @param start     the first session date, inclusive
+     * @param end       the last session date, inclusive
+     * @return          the quote frame, empty if the archive has no data for the ticker
+     * @throws IOException  if the archive cannot be read
+     */
+    public Optional<DataFrame<LocalDateTime,String>> read(String ticker, LocalDate start, LocalDate end) throws IOException {
+        final Selection selection = select(ticker, start, end);
+        return selection.index.size == 0 ? Optional.empty() : Optional.of(toFrame(selection.decode()));
+    }
+
+    /**
+     * Returns intraday quotes for the most recent sessions held for the ticker
+     * @param ticker    the ticker reference
+     * @param dayCount  the number of sessions to return
+     * @return          the quote frame, empty if the archive has no data for the ticker
+     * @throws IOException  if the archive cannot be read
+     */
+    public Optional<DataFrame<LocalDateTime,String>> read(String ticker, int dayCount) throws IOException {
+        Asserts.assertTrue(dayCount > 0, "The day count must be > 0");
+        final Selection selection = select(ticker, dayCount);
+        return selection.index.size == 0 ? Optional.empty() : Optional.of(toFrame(selection.decode()));
+    }
+
+    /**
+     * Streams bars for the sessions within the date range to the handler, without building a DataFrame
+     * @param ticker    the ticker reference
+     * @param start     the first session date, inclusive
+     * @param end       the last session date, inclusive
+     * @param handler   the handler to receive bars in ascending order, with keys expressed as local epoch seconds
+     * @return          the number of bars passed to the handler
+     * @throws IOException  if the archive cannot be read
+     */
+    public int stream(String ticker, LocalDate start, LocalDate end, GoogleQuoteHandler handler) throws IOException {
+        return select(ticker, start, end).decode(handler);
+    }
+
+
+    /**
+     * Appends the sessions in the primitive columns to the archive for the ticker
+     * @param ticker    the ticker reference
+     * @param keys      the bar keys as local epoch seconds in ascending order
+     * @param fields    the open, high, low, close and volume columns
+     * @return          the number of sessions written
+     * @throws IOException  if the archive cannot be written
+     */
+    int append(String ticker, long[] keys, double[][] fields) throws IOException {
+        Asserts.notNull(ticker, "The ticker cannot be null");
+        synchronized (this) {
+            final Index index = index(ticker);
+            final long lastDay = index.size > 0 ? index.days[index.size - 1] : Long.MIN_VALUE;
+            final List<byte[]> blocks = new ArrayList<>();
+            final List<Long> days = new ArrayList<>();
+            int from = 0;
+            while (from < keys.length) {
+                final long day = Math.floorDiv(keys[from], 86400L);
+                int to = from + 1;
+                while (to < keys.length && Math.floorDiv(keys[to], 86400L) == day) ++to;
+                if (day >= lastDay) {
+                    blocks.add(GoogleQuoteArchiveCodec.encode(keys, fields, from, to));
+                    days.add(day);
+                }
+                from = to;
+            }
+            if (!blocks.isEmpty()) {
+                final boolean replace = days.get(0) == lastDay;
+                final Index result = write(ticker, index, replace, days, blocks);
+                this.indexes.put(ticker, result.dead > result.end - HEADER_BYTES - result.dead ? compact(ticker, result) : result);
+            }
+            return blocks.size();
+        }
+    }
+
+
+    /**
+     * Appends blocks to the end of the archive file, discarding any unindexed partial tail, and forces them to disk unless they only supersede the last indexed session
+     * @param ticker    the ticker reference
+     * @param index     the current index
+     * @param replace   true if the first block supersedes the last indexed session
+     * @param days      the session days of the blocks
+     * @param blocks    the encoded blocks
+     * @return          the updated index
+     * @throws IOException  if the write fails
+     */
+    private Index write(String ticker, Index index, boolean replace, List<Long> days, List<byte[]> blocks) throws IOException {
+        final int total = blocks.stream().mapToInt(block -> block.length + PREFIX_BYTES).sum();
+        final ByteBuffer buffer = ByteBuffer.allocate(total + HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        final long start = index.end;
+        if (start == HEADER_BYTES) {
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+        final Index result = index.copy(replace ? index.size - 1 : index.size, days.size());
+        result.dead = index.dead + (replace ? PREFIX_BYTES + index.lengths[index.size - 1] : 0);
+        long offset = start;
+        for (int i = 0; i < blocks.size(); ++i) {
+            final byte[] block = blocks.get(i);
+            buffer.putInt(block.length).putInt((int)(long)days.get(i)).put(block);
+            result.add(days.get(i), offset + PREFIX_BYTES, block.length);
+            offset += PREFIX_BYTES + block.length;
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(fileFor(ticker).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long writePosition = start == HEADER_BYTES ? 0L : start;
+            channel.truncate(writePosition);
+            while (buffer.hasRemaining()) {
+                writePosition += channel.write(buffer, writePosition);
+            }
+            if (!replace || blocks.size() > 1) {
+                channel.force(true);
+            }
+        }
+        result.end = offset;
+        return result;
+    }
+
+
+    /**
+     * Rewrites the live blocks of the archive file into a temporary file, which then atomically replaces it
+     * @param ticker    the ticker reference
+     * @param index     the current index
+     * @return          the index of the compacted file
+     * @throws IOException  if the compaction fails, in which case the existing file is left untouched
+     */
+    private Index compact(String ticker, Index index) throws IOException {
+        final File file = fileFor(ticker);
+        final File temp = new File(directory, file.getName() + ".tmp");
+        final ByteBuffer bytes = readBlocks(ticker, index, 0, index.size);
+        final long base = index.offsets[0] - PREFIX_BYTES;
+        final Index result = new Index(index.size);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0L;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+            for (int i = 0; i < index.size; ++i) {
+                bytes.limit((int)(index.offsets[i] + index.lengths[i] - base));
+                bytes.position((int)(index.offsets[i] - PREFIX_BYTES - base));
+                result.add(index.days[i], position + PREFIX_BYTES, index.lengths[i]);
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+            }
+            channel.force(true);
+            result.end = position;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return result;
+    }
+
+
+    /**
+     * Selects the sessions within the date range, reading their blocks while appends are excluded
+     * @param ticker    the ticker reference
+     * @param start     the first session date, inclusive
+     * @param end       the last session date, inclusive
+     * @return          the selection
+     * @throws IOException  if the archive cannot be read
+     */
+    private synchronized Selection select(String ticker, LocalDate start, LocalDate end) throws IOException {
+        final Index index = index(ticker);
+        final int from = index.search(start.toEpochDay());
+        final int to = index.search(end.toEpochDay() + 1);
+        return new Selection(index, from, to, readBlocks(ticker, index, from, to));
+    }
+
+
+    /**
+     * Selects the most recent sessions, reading their blocks while appends are excluded
+     * @param ticker    the ticker reference
+     * @param dayCount  the number of sessions
+     * @return          the selection
+     * @throws IOException  if the archive cannot be read
+     */
+    private synchronized Selection select(String ticker, int dayCount) throws IOException {
+        final Index index = index(ticker);
+        final int from = Math.max(0, index.size - dayCount);
+        return new Selection(index, from, index.size, readBlocks(ticker, index, from, index.size));
+    }
+
+
+    /**
+     * Reads the contiguous blocks in the index range from the archive file in a single read
+     * @param ticker    the ticker reference
+     * @param index     the index for the ticker
+     * @param from      the first session ordinal, inclusive
+     * @param to        the last session ordinal, exclusive
+     * @return          the bytes from the prefix of the first block to the end of the last, empty if the range is empty
+     * @throws IOException  if the archive cannot be read
+     */
+    private ByteBuffer readBlocks(String ticker, Index index, int from, int to) throws IOException {
+        if (from >= to) {
+            return ByteBuffer.allocate(0);
+        }
+        final long start = index.offsets[from] - PREFIX_BYTES;
+        final long end = index.offsets[to - 1] + index.lengths[to - 1];
+        final ByteBuffer bytes = ByteBuffer.allocate((int)(end - start));
+        try (FileChannel channel = FileChannel.open(fileFor(ticker).toPath(), StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) {
+                    throw new IOException("Unexpected end of intraday archive for " + ticker);
+                }
+            }
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Returns a frame of decoded bars with the default derived columns
+     * @param buffer    the decoded bars
+     * @return          the quote frame
+     */
+    private DataFrame<LocalDateTime,String> toFrame(GoogleQuoteBuffer buffer) {
+        final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(GoogleQuoteDerivations.DEFAULT_COLUMNS, 20, 86400L);
+        return buffer.toDataFrame(LocalDateTime.class, key -> LocalDateTime.ofEpochSecond(key, 0, ZoneOffset.UTC), derivations, GoogleQuoteStorage.DOUBLE);
+    }
+
+
+    /**
+     * Returns the session index for the ticker, scanning the block prefixes of its file on first access
+     * @param ticker    the ticker reference
+     * @return          the session index, empty if there is no archive for the ticker
+     * @throws IOException  if the file is not a valid archive
+     */
+    private Index index(String ticker) throws IOException {
+        final Index existing = indexes.get(ticker);
+        if (existing != null) {
+            return existing;
+        }
+        final File file = fileFor(ticker);
+        final Index index = new Index(64);
+        if (file.exists()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final long size = channel.size();
+                final ByteBuffer prefix = ByteBuffer.allocate(PREFIX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                if (size < HEADER_BYTES || channel.read(prefix, 0L) < HEADER_BYTES || prefix.getInt(0) != MAGIC || prefix.getInt(4) != VERSION) {
+                    throw new IOException("Not a valid intraday archive file: " + file.getAbsolutePath());
+                }
+                long position = HEADER_BYTES;
+                while (position + PREFIX_BYTES <= size) {
+                    prefix.clear();
+                    channel.read(prefix, position);
+                    final int length = prefix.getInt(0);
+                    if (length <= 0 || position + PREFIX_BYTES + length > size) {
+                        break;
+                    }
+                    final int day = prefix.getInt(4);
+                    if (index.size > 0 && index.days[index.size - 1] == day) {
+                        index.size--;
+                        index.dead += PREFIX_BYTES + index.lengths[index.size];
+                    }
+                    index.add(day, position + PREFIX_BYTES, length);
+                    position += PREFIX_BYTES + length;
+                }
+                index.end = position;
+            }
+        }
+        final Index previous = indexes.putIfAbsent(ticker, index);
+        return previous != null ? previous : index;
+    }
+
+
+    /**
+     * Returns the archive file for the ticker specified
+     * @param ticker    the ticker reference
+     * @return          the archive file
+     */
+    private File fileFor(String ticker) {
+        return GoogleQuoteFiles.fileFor(directory, ticker, ".gqa");
+    }
+
+
+    /**
+     * A range of sessions selected from an archive together with their encoded blocks, which are decoded on demand
+     */
+    private static class Selection {
+
+        private Index index;
+        private int from;
+        private int to;
+        private ByteBuffer bytes;
+
+        /**
+         * Constructor
+         * @param index the index the range refers to
+         * @param from  the first session ordinal, inclusive
+         * @param to    the last session ordinal, exclusive
+         * @param bytes the blocks for the range
+         */
+        Selection(Index index, int from, int to, ByteBuffer bytes) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Decodes the selected sessions into a buffer
+         * @return  the decoded bars in ascending order
+         */
+        GoogleQuoteBuffer decode() {
+            final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(Math.max(1, to - from) * 391, false);
+            decode(buffer);
+            return buffer;
+        }
+
+        /**
+         * Decodes the selected sessions to the handler
+         * @param handler   the handler to receive bars, which can return false to stop early
+         * @return          the number of bars passed to the handler
+         */
+        int decode(GoogleQuoteHandler handler) {
+            if (from >= to) {
+                return 0;
+            }
+            final long start = index.offsets[from] - PREFIX_BYTES;
+            final boolean[] proceed = { true };
+            final GoogleQuoteHandler guard = (key, open, high, low, close, volume) -> {
+                proceed[0] = handler.onQuote(key, open, high, low, close, volume);
+                return proceed[0];
+            };
+            int count = 0;
+            for (int i = from; i < to && proceed[0]; ++i) {
+                bytes.limit((int)(index.offsets[i] + index.lengths[i] - start));
+                bytes.position((int)(index.offsets[i] - start));
+                count += GoogleQuoteArchiveCodec.decode(bytes, guard);
+            }
+            return count;
+        }
+    }
+
+
+    /**
+     * An index of the session blocks in an archive file, which is replaced rather than modified once published
+     */
+    private static class Index {
+
+        private int size;
+        private long dead;
+        private long end = HEADER_BYTES;
+        private long[] days;
+        private long[] offsets;
+        private int[] lengths;
+
+        /**
+         * Constructor
+         * @param capacity  the initial session capacity
+         */
+        Index(int capacity) {
+            this.days = new long[Math.max(16, capacity)];
+            this.offsets = new long[days.length];
+            this.lengths = new int[days.length];
+        }
+
+        /**
+         * Returns a copy of the first sessions of this index with room for more
+         * @param count     the number of sessions to keep
+         * @param extra     the number of sessions about to be added
+         * @return          the copy
+         */
+        Index copy(int count, int extra) {
+            final Index copy = new Index(count + extra);
+            System.arraycopy(days, 0, copy.days, 0, count);
+            System.arraycopy(offsets, 0, copy.offsets, 0, count);
+            System.arraycopy(lengths, 0, copy.lengths, 0, count);
+            copy.size = count;
+            return copy;
+        }
+
+        /**
+         * Adds a session to this index
+         * @param day       the local epoch day of the session
+         * @param offset    the file offset of the encoded block
+         * @param length    the length of the encoded block
+         */
+        void add(long day, long offset, int length) {
+            if (size == days.length) {
+                this.days = Arrays.copyOf(days, size * 2);
+                this.offsets = Arrays.copyOf(offsets, size * 2);
+                this.lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            this.days[size] = day;
+            this.offsets[size] = offset;
+            this.lengths[size] = length;
+            this.size++;
+        }
+
+        /**
+         * Returns the ordinal of the first session on or after the day specified
+         * @param day   the local epoch day
+         * @return      the session ordinal, which is size if every session is before the day
+         */
+        int search(long day) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (days[mid] < day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+}
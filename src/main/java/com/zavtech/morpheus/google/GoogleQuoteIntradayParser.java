@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+
+/**
+ * A scanner that decodes the Google Finance getprices format directly from response bytes.
+ *
+ * Each line is dispatched on its first character rather than tested against a sequence of patterns. A line that
+ * starts with <code>a</code> carries an absolute epoch second anchor for a new session, a line that starts with a
+ * digit carries an offset from the last anchor in units of the interval, and header lines such as INTERVAL, COLUMNS
+ * and TIMEZONE_OFFSET update the state of the decoder. Quote keys are local epoch seconds, in other words the
+ * seconds since 1970-01-01T00:00 in the exchange time zone, so <code>LocalDateTime.ofEpochSecond(key, 0, UTC)</code>
+ * recovers the local timestamp.
+ *
+ * The UTC offset is taken from the most recent TIMEZONE_OFFSET header. In the absence of one, the offset of the
+ * fallback zone is resolved once at each session anchor and reused until the next transition of that zone, so
+ * zone rules are only consulted again for bars that straddle a daylight saving change.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteIntradayParser extends GoogleQuoteParser {
+
+    private static final int[] DEFAULT_COLUMNS = { OPEN, HIGH, LOW, CLOSE, VOLUME };
+
+    private ZoneRules zoneRules;
+    private long interval = 60L;
+    private long anchor = Long.MIN_VALUE;
+    private boolean headerOffset;
+    private long offsetSeconds;
+    private long offsetValidFrom = Long.MAX_VALUE;
+    private long offsetValidUntil = Long.MIN_VALUE;
+    private int[] columns = DEFAULT_COLUMNS;
+
+    /**
+     * Constructor
+     * @param zoneId    the zone used to resolve local time when the response has no TIMEZONE_OFFSET header
+     */
+    GoogleQuoteIntradayParser(ZoneId zoneId) {
+        this(zoneId, 32 * 1024);
+    }
+
+    /**
+     * Constructor
+     * @param zoneId        the zone used to resolve local time when the response has no TIMEZONE_OFFSET header
+     * @param bufferSize    the initial size of the read buffer
+     */
+    GoogleQuoteIntradayParser(ZoneId zoneId, int bufferSize) {
+        super(bufferSize);
+        this.zoneRules = zoneId.getRules();
+    }
+
+    /**
+     * Returns the bar interval in seconds, as reported by the most recent INTERVAL header
+     * @return  the bar interval in seconds
+     */
+    long getInterval() {
+        return interval;
+    }
+
+    @Override
+    protected boolean parseLine(int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        final byte first = buffer[from];
+        if (first >= '0' && first <= '9') {
+            if (anchor == Long.MIN_VALUE) {
+                return false;
+            } else {
+                final int comma = indexOf(buffer, (byte)',', from, to);
+                final long increment = comma < 0 ? -1L : parseLong(from, comma);
+                return increment >= 0 && parseValues(anchor + increment * interval, comma + 1, to);
+            }
+        } else if (first == 'a') {
+            final int comma = indexOf(buffer, (byte)',', from + 1, to);
+            if (comma < 0) {
+                return false;
+            } else {
+                this.anchor = parseLong(from + 1, comma);
+                return parseValues(anchor, comma + 1, to);
+            }
+        } else if (first == 'I' && startsWith(from, to, "INTERVAL=")) {
+            this.interval = parseLong(from + 9, to);
+            return false;
+        } else if (first == 'T' && startsWith(from, to, "TIMEZONE_OFFSET=")) {
+            this.offsetSeconds = parseLong(from + 16, to) * 60L;
+            this.headerOffset = true;
+            return false;
+        } else if (first == 'C' && startsWith(from, to, "COLUMNS=")) {
+            this.columns = parseColumns(from + 8, to);
+            return false;
+        } else {
+            return false;
+        }
+    }
+
+
+    /**
+     * Parses the comma separated values of a price line into the key and values fields of this parser
+     * @param epochSecond   the UTC epoch second for the bar
+     * @param from          the offset of the first value
+     * @param to            the offset after the last value
+     * @return              true if the line contains the expected number of values
+     */
+    private boolean parseValues(long epochSecond, int from, int to) {
+        Arrays.fill(values, Double.NaN);
+        int fieldStart = from;
+        for (int i = 0; i < columns.length; ++i) {
+            final int comma = indexOf(buffer, (byte)',', fieldStart, to);
+            final int fieldEnd = comma < 0 ? to : comma;
+            if ((comma < 0) != (i == columns.length - 1)) {
+                return false;
+            } else if (columns[i] >= 0) {
+                values[columns[i]] = parseNumber(fieldStart, fieldEnd);
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        this.key = epochSecond + offsetAt(epochSecond);
+        return true;
+    }
+
+
+    /**
+     * Returns the UTC offset in seconds that applies at the epoch second specified
+     * @param epochSecond   the UTC epoch second
+     * @return              the offset in seconds to add to yield local time
+     */
+    private long offsetAt(long epochSecond) {
+        if (headerOffset) {
+            return offsetSeconds;
+        } else if (epochSecond >= offsetValidFrom && epochSecond < offsetValidUntil) {
+            return offsetSeconds;
+        } else {
+            final Instant instant = Instant.ofEpochSecond(epochSecond);
+            final ZoneOffsetTransition next = zoneRules.nextTransition(instant);
+            this.offsetSeconds = zoneRules.getOffset(instant).getTotalSeconds();
+            this.offsetValidFrom = epochSecond;
+            this.offsetValidUntil = next != null ? next.toEpochSecond() : Long.MAX_VALUE;
+            return offsetSeconds;
+        }
+    }
+
+
+    /**
+     * Parses the COLUMNS header into a mapping from field position to value index
+     * @param from  the offset of the first column name
+     * @param to    the offset after the last column name
+     * @return      the value index for each field that follows the date, -1 for fields that are ignored
+     */
+    private int[] parseColumns(int from, int to) {
+        int count = 0;
+        int[] result = new int[8];
+        int nameStart = from;
+        while (nameStart < to) {
+            final int comma = indexOf(buffer, (byte)',', nameStart, to);
+            final int nameEnd = comma < 0 ? to : comma;
+            if (!startsWith(nameStart, nameEnd, "DATE") || nameEnd - nameStart != 4) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = columnOf(nameStart, nameEnd);
+            }
+            nameStart = nameEnd + 1;
+        }
+        return count > 0 ? Arrays.copyOf(result, count) : DEFAULT_COLUMNS;
+    }
+
+
+    /**
+     * Returns the value index for the column name in the byte range specified
+     * @param from  the offset of the first byte of the name
+     * @param to    the offset after the last byte of the name
+     * @return      the value index, -1 if the column is not one of the quote fields
+     */
+    private int columnOf(int from, int to) {
+        switch (to - from) {
+            case 3:  return startsWith(from, to, "LOW") ? LOW : -1;
+            case 4:  return startsWith(from, to, "OPEN") ? OPEN : startsWith(from, to, "HIGH") ? HIGH : -1;
+            case 5:  return startsWith(from, to, "CLOSE") ? CLOSE : -1;
+            case 6:  return startsWith(from, to, "VOLUME") ? VOLUME : -1;
+            default: return -1;
+        }
+    }
+
+}
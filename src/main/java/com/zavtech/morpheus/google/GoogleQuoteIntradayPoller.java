@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A long lived poller that keeps intraday frames for a universe of tickers current during the trading day.
+ *
+ * The first poll for a ticker loads the configured number of sessions, and each subsequent poll requests only the
+ * sessions from the one holding the last key seen up to the current session, and appends the bars newer than that
+ * key to the existing frame in a single batch, so the frame is never rebuilt and sessions missed while the poller
+ * was stopped are filled in. The last bar is usually still forming when it is first seen, so when a poll re-sends it with different
+ * values the last row is revised in place. Change and ChangePercent are computed for the appended and revised rows
+ * only, chained from the close before them. Every append and revision is made while holding the monitor of the
+ * frame, and listeners are notified on the polling thread while still holding it, so any other thread reading a
+ * frame should synchronize on it.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteIntradayPoller implements AutoCloseable {
+
+    /** The most sessions requested to catch up, as the feed only serves a limited number of recent sessions of minute bars */
+    static final int MAX_CATCH_UP_DAYS = 15;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final GoogleQuoteDerivedColumn[] DERIVED_COLUMNS = {
+        GoogleQuoteDerivedColumn.CHANGE,
+        GoogleQuoteDerivedColumn.CHANGE_PERCENT
+    };
+
+    private int initialDayCount;
+    private GoogleQuoteIntradaySource source;
+    private ScheduledExecutorService scheduler;
+    private Map<String,Series> seriesMap = new ConcurrentHashMap<>();
+    private List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor
+     * @param source    the source to poll for intraday quotes
+     */
+    public GoogleQuoteIntradayPoller(GoogleQuoteIntradaySource source) {
+        this(source, 1);
+    }
+
+    /**
+     * Constructor
+     * @param source            the source to poll for intraday quotes
+     * @param initialDayCount   the number of sessions to load on the first poll for each ticker
+     */
+    public GoogleQuoteIntradayPoller(GoogleQuoteIntradaySource source, int initialDayCount) {
+        Asserts.notNull(source, "The source cannot be null");
+        Asserts.assertTrue(initialDayCount > 0, "The initial day count must be > 0");
+        this.source = source;
+        this.initialDayCount = initialDayCount;
+    }
+
+    /**
+     * Adds tickers to the universe polled by this poller
+     * @param tickers   the tickers to add
+     */
+    public void add(String... tickers) {
+        Arrays.stream(tickers).forEach(ticker -> seriesMap.computeIfAbsent(ticker, Series::new));
+    }
+
+    /**
+     * Removes a ticker from the universe polled by this poller, discarding its frame
+     * @param ticker    the ticker to remove
+     * @return          true if the ticker was removed
+     */
+    public boolean remove(String ticker) {
+        return seriesMap.remove(ticker) != null;
+    }
+
+    /**
+     * Returns the tickers polled by this poller
+     * @return  the unmodifiable set of tickers
+     */
+    public Set<String> tickers() {
+        return Collections.unmodifiableSet(seriesMap.keySet());
+    }
+
+    /**
+     * Adds a listener to be notified when bars are appended or revised
+     * @param listener  the listener to add
+     */
+    public void addListener(Listener listener) {
+        Asserts.notNull(listener, "The listener cannot be null");
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener from this poller
+     * @param listener  the listener to remove
+     */
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Returns the live frame for the ticker specified
+     * @param ticker    the ticker reference
+     * @return          the frame, empty if the ticker is not polled or has not yet loaded
+     */
+    public Optional<DataFrame<LocalDateTime,String>> frame(String ticker) {
+        final Series series = seriesMap.get(ticker);
+        return series != null ? Optional.ofNullable(series.frame) : Optional.empty();
+    }
+
+    /**
+     * Polls every ticker once, blocking until all requests have completed or failed
+     * @return  the total number of bars appended or revised across all tickers
+     */
+    public int poll() {
+        final List<Series> universe = new ArrayList<>(seriesMap.values());
+        final AtomicInteger total = new AtomicInteger();
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[universe.size()];
+        for (int i = 0; i < futures.length; ++i) {
+            final Series series = universe.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    total.addAndGet(poll(series));
+                } catch (Throwable t) {
+                    listeners.forEach(listener -> listener.onFailure(series.ticker, t));
+                }
+            }, source.getTransport().executor());
+        }
+        CompletableFuture.allOf(futures).join();
+        return total.get();
+    }
+
+    /**
+     * Starts polling every ticker on a background thread at the fixed period specified
+     * @param period    the polling period
+     * @param unit      the time unit for period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        Asserts.assertTrue(scheduler == null, "The poller has already been started");
+        Asserts.assertTrue(period > 0, "The polling period must be > 0");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "GoogleQuoteIntradayPoller-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::poll, 0L, period, unit);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+
+    /**
+     * Polls the ticker for a series, appending bars newer than those already seen and revising the last bar
+     * @param series    the series to poll
+     * @return          the number of bars appended or revised
+     */
+    private int poll(Series series) {
+        synchronized (series) {
+            final long lastKey = series.lastKey;
+            final LocalDate today = LocalDate.now(GoogleQuoteIntradaySource.EXCHANGE_ZONE);
+            final int dayCount = series.frame == null ? initialDayCount : sessionsSince(lastKey, today, MAX_CATCH_UP_DAYS);
+            final GoogleQuoteBuffer bars = new GoogleQuoteBuffer(dayCount * 391, false);
+            source.stream(options -> {
+                options.setTicker(series.ticker);
+                options.setDayCount(dayCount);
+            }, (key, open, high, low, close, volume) -> key < lastKey || bars.onQuote(key, open, high, low, close, volume));
+            final int count = bars.size() > 0 ? series.update(bars) : 0;
+            if (count > 0) {
+                final DataFrame<LocalDateTime,String> frame = series.frame;
+                synchronized (frame) {
+                    listeners.forEach(listener -> listener.onBars(series.ticker, frame, count));
+                }
+            }
+            return count;
+        }
+    }
+
+
+    /**
+     * Returns the number of weekday sessions from the one holding the key up to and including the current session
+     * Exchange holidays are counted as sessions, which at worst requests a session more than needed.
+     * @param lastKey       the last key seen, as a local epoch second
+     * @param today         the current date in the exchange zone
+     * @param maxDayCount   the maximum number of sessions to return
+     * @return              the number of sessions to request, at least 1
+     */
+    static int sessionsSince(long lastKey, LocalDate today, int maxDayCount) {
+        int count = 0;
+        final LocalDate lastDay = LocalDate.ofEpochDay(Math.floorDiv(lastKey, 86400L));
+        for (LocalDate date = today; !date.isBefore(lastDay) && count < maxDayCount; date = date.minusDays(1)) {
+            final DayOfWeek dayOfWeek = date.getDayOfWeek();
+            if (dayOfWeek != DayOfWeek.SATURDAY && dayOfWeek != DayOfWeek.SUNDAY) {
+                ++count;
+            }
+        }
+        return Math.max(1, count);
+    }
+
+
+    /**
+     * Returns the row key for a local epoch second
+     * @param localSecond   the local epoch second
+     * @return              the row key
+     */
+    private static LocalDateTime toDateTime(long localSecond) {
+        return LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC);
+    }
+
+
+    /**
+     * The live state for a single ticker, guarded by its own monitor, with its frame guarded by the frame monitor
+     */
+    private static class Series {
+
+        private String ticker;
+        private long lastKey = Long.MIN_VALUE;
+        private double lastClose = Double.NaN;
+        private double priorClose = Double.NaN;
+        private double[] lastBar = new double[GoogleQuoteBuffer.FIELD_COUNT];
+        private volatile DataFrame<LocalDateTime,String> frame;
+
+        /**
+         * Constructor
+         * @param ticker    the ticker reference
+         */
+        Series(String ticker) {
+            this.ticker = ticker;
+        }
+
+        /**
+         * Applies polled bars to the frame for this series, creating it on first use
+         * @param bars  the bars at or after the last key, in ascending order
+         * @return      the number of rows appended or revised, which are the last rows of the frame
+         */
+        private int update(GoogleQuoteBuffer bars) {
+            final long[] keys = bars.keys();
+            final double[][] fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+            for (int i = 0; i < fields.length; ++i) {
+                fields[i] = bars.column(i);
+            }
+            final boolean resent = keys[0] == lastKey;
+            final boolean revised = resent && !isLastBar(fields);
+            final int start = resent && !revised ? 1 : 0;
+            if (start == keys.length) {
+                return 0;
+            }
+            final double[] close = fields[GoogleQuoteParser.CLOSE];
+            final double[] change = new double[keys.length];
+            final double[] changePercent = new double[keys.length];
+            double previous = revised ? priorClose : lastClose;
+            double prior = priorClose;
+            for (int i = start; i < keys.length; ++i) {
+                change[i] = close[i] - previous;
+                changePercent[i] = (close[i] / previous) - 1d;
+                prior = previous;
+                previous = close[i];
+            }
+            if (frame == null) {
+                final double[][] derived = {change, changePercent};
+                this.frame = GoogleQuoteBuffer.createFrame(LocalDateTime.class, GoogleQuoteIntradayPoller::toDateTime, keys, fields, DERIVED_COLUMNS, derived, GoogleQuoteStorage.DOUBLE);
+            } else {
+                final int first = revised ? 1 : start;
+                final List<LocalDateTime> appended = new ArrayList<>(keys.length - first);
+                for (int i = first; i < keys.length; ++i) {
+                    appended.add(toDateTime(keys[i]));
+                }
+                synchronized (frame) {
+                    final int offset = frame.rowCount() - first;
+                    frame.rows().addAll(appended);
+                    for (int i = start; i < keys.length; ++i) {
+                        final int row = offset + i;
+                        for (int j = 0; j < fields.length; ++j) {
+                            frame.data().setDouble(row, j, fields[j][i]);
+                        }
+                        frame.data().setDouble(row, fields.length, change[i]);
+                        frame.data().setDouble(row, fields.length + 1, changePercent[i]);
+                    }
+                }
+            }
+            final int last = keys.length - 1;
+            for (int j = 0; j < fields.length; ++j) {
+                this.lastBar[j] = fields[j][last];
+            }
+            this.lastKey = keys[last];
+            this.lastClose = previous;
+            this.priorClose = prior;
+            return keys.length - start;
+        }
+
+        /**
+         * Returns true if the first polled bar has the same values as the last bar already applied
+         * @param fields    the polled open, high, low, close and volume columns
+         * @return          true if the first bar is unchanged
+         */
+        private boolean isLastBar(double[][] fields) {
+            for (int j = 0; j < fields.length; ++j) {
+                if (Double.doubleToLongBits(fields[j][0]) != Double.doubleToLongBits(lastBar[j])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * An interface to a listener that is notified as bars are appended to or revised in the frames of a poller
+     */
+    public interface Listener {
+
+        /**
+         * Called after bars have been appended to or revised in the frame for a ticker, while the frame is locked
+         * @param ticker    the ticker reference
+         * @param frame     the live frame for the ticker, where the new or revised bars are the last count rows
+         * @param count     the number of bars appended or revised
+         */
+        void onBars(String ticker, DataFrame<LocalDateTime,String> frame, int count);
+
+        /**
+         * Called when a poll for a ticker fails, after which polling continues as normal
+         * @param ticker    the ticker reference
+         * @param error     the failure
+         */
+        default void onFailure(String ticker, Throwable error) {
+        }
+    }
+
+}
@@ -15,24 +15,25 @@
  */
 package com.zavtech.morpheus.google;
 
-import java.net.URL;
-import java.time.Instant;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 import com.zavtech.morpheus.array.Array;
 import com.zavtech.morpheus.frame.DataFrame;
 import com.zavtech.morpheus.frame.DataFrameException;
 import com.zavtech.morpheus.frame.DataFrameOptions;
 import com.zavtech.morpheus.frame.DataFrameSource;
-import com.zavtech.morpheus.index.Index;
 import com.zavtech.morpheus.util.Asserts;
-import com.zavtech.morpheus.util.TextStreamReader;
 
 /**
  * A DataFrameSource implementation that loads intraday prices from Google Finance.
@@ -45,7 +46,14 @@ import com.zavtech.morpheus.util.TextStreamReader;
  */
 public class GoogleQuoteIntradaySource extends DataFrameSource<LocalDateTime,String,GoogleQuoteIntradaySource.Options> {
 
+    /** The zone of the exchange whose sessions the intraday feed reports, which defines local keys and the current session */
+    static final ZoneId EXCHANGE_ZONE = ZoneId.of("America/New_York");
+
     private String urlTemplate;
+    private GoogleQuoteTransport transport;
+    private GoogleQuoteMemoryCache memoryCache;
+    private GoogleQuoteStore store;
+    private GoogleQuoteMetricsListener metricsListener;
 
     /**
      * Constructor
@@ -59,86 +67,258 @@ public class GoogleQuoteIntradaySource extends DataFrameSource<LocalDateTime,Str
      * @param urlTemplate   the UTL template string
      */
     public GoogleQuoteIntradaySource(String urlTemplate) {
+        this(urlTemplate, new GoogleQuoteHttpTransport());
+    }
+
+    /**
+     * Constructor
+     * @param urlTemplate   the url template to expand for each request
+     * @param transport     the transport used to issue requests
+     */
+    public GoogleQuoteIntradaySource(String urlTemplate, GoogleQuoteTransport transport) {
+        Asserts.notNull(urlTemplate, "The url template cannot be null");
+        Asserts.notNull(transport, "The transport cannot be null");
         this.urlTemplate = urlTemplate;
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the transport used by this source to issue requests
+     * @return  the transport for this source
+     */
+    public GoogleQuoteTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used by this source to issue requests
+     * @param transport the transport for this source
+     */
+    public void setTransport(GoogleQuoteTransport transport) {
+        Asserts.notNull(transport, "The transport cannot be null");
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the in-memory cache for this source, so repeated requests with the same options are not re-fetched
+     * @param memoryCache   the memory cache, which may be shared with other sources, null for none
+     */
+    public void setMemoryCache(GoogleQuoteMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Sets the memory mapped store to serve quotes from, which is consulted after the memory cache
+     * Requests are loaded from Google Finance if the store holds fewer sessions for the ticker than the day count.
+     * @param store the quote store, null for none
+     */
+    public void setStore(GoogleQuoteStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets the listener to receive phase timings and counts for each request read through this source
+     * Metrics are not collected while there is no listener, so the cost of instrumentation is only paid when used.
+     * @param metricsListener   the listener, for example a GoogleQuoteMetricsRegistry, null for none
+     */
+    public void setMetricsListener(GoogleQuoteMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
     }
 
 
     @Override
     public DataFrame<LocalDateTime, String> read(Consumer<Options> configurator) throws DataFrameException {
         return DataFrameOptions.whileNotIgnoringDuplicates(() -> {
-            TextStreamReader reader = null;
             final Options options = initOptions(new Options(), configurator);
+            final GoogleQuoteMetricsListener listener = metricsListener;
+            final GoogleQuoteRequestMetrics metrics = listener != null ? new GoogleQuoteRequestMetrics("intraday", options.ticker) : null;
+            int rowCount = 0;
+            Throwable failure = null;
             try {
-                long interval = 0L;
-                long startTime = 0L;
-                final URL url = new URL(urlTemplate.replace("<DAYS>", String.valueOf(options.dayCount)).replace("<TICKER>", options.ticker));
-                reader = new TextStreamReader(url.openStream());
-                final Matcher intervalMatcher = Pattern.compile("INTERVAL=(\\d+)").matcher("");
-                final Matcher firstPriceLineMatcher = Pattern.compile("a(\\d+),(.*),(.*),(.*),(.*),(.*)").matcher("");
-                final Matcher standardPriceLineMatcher = Pattern.compile("(\\d+),(.*),(.*),(.*),(.*),(.*)").matcher("");
-                final Array<String> fields = Array.of("Open", "High", "Low", "Close", "Volume", "Change", "ChangePercent");
-                final ZoneId zoneId = ZoneId.of("America/New_York");
-                final Index<LocalDateTime> index = Index.of(LocalDateTime.class, 5000);
-                final DataFrame<LocalDateTime,String> frame = DataFrame.ofDoubles(index, fields);
-                while (reader.hasNext()) {
-                    final String line = reader.nextLine();
-                    if (intervalMatcher.reset(line).matches()) {
-                        interval = Long.parseLong(intervalMatcher.group(1));
-                    } else if (firstPriceLineMatcher.reset(line).matches()) {
-                        startTime = Long.parseLong(firstPriceLineMatcher.group(1));
-                        final Instant instant = Instant.ofEpochSecond(startTime);
-                        final LocalDateTime timestamp = ZonedDateTime.ofInstant(instant, zoneId).toLocalDateTime();
-                        frame.rows().add(timestamp, v -> {
-                            switch (v.colOrdinal()) {
-                                case 0:  return Double.parseDouble(firstPriceLineMatcher.group(2));
-                                case 1:  return Double.parseDouble(firstPriceLineMatcher.group(3));
-                                case 2:  return Double.parseDouble(firstPriceLineMatcher.group(4));
-                                case 3:  return Double.parseDouble(firstPriceLineMatcher.group(5));
-                                case 4:  return Double.parseDouble(firstPriceLineMatcher.group(6));
-                                default: return v.getDouble();
-                            }
-                        });
-                    } else if (standardPriceLineMatcher.reset(line).matches()) {
-                        final long increment = Long.parseLong(standardPriceLineMatcher.group(1));
-                        final long seconds = increment * interval;
-                        final Instant instant = Instant.ofEpochSecond(startTime + seconds);
-                        final LocalDateTime timestamp = ZonedDateTime.ofInstant(instant, zoneId).toLocalDateTime();
-                        frame.rows().add(timestamp, v -> {
-                            switch (v.colOrdinal()) {
-                                case 0:  return Double.parseDouble(standardPriceLineMatcher.group(2));
-                                case 1:  return Double.parseDouble(standardPriceLineMatcher.group(3));
-                                case 2:  return Double.parseDouble(standardPriceLineMatcher.group(4));
-                                case 3:  return Double.parseDouble(standardPriceLineMatcher.group(5));
-                                case 4:  return Double.parseDouble(standardPriceLineMatcher.group(6));
-                                default: return v.getDouble();
-                            }
-                        });
-                    }
-                }
-                return  calculateChanges(frame);
+                final GoogleQuoteBuffer buffer = load(options, metrics);
+                final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(options.derivedColumns, options.rollingWindow, 86400L);
+                rowCount = buffer.size();
+                return buffer.toDataFrame(LocalDateTime.class, localSecond -> LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC), derivations, options.getStorage(), metrics);
             } catch (Exception ex) {
+                failure = ex;
                 throw new DataFrameException("Failed to load intraday quotes from Google finance for " + options.ticker, ex);
             } finally {
-                if (reader != null) {
-                    reader.close();
+                if (metrics != null) {
+                    metrics.complete(failure == null ? rowCount : 0, failure);
+                    listener.onRequest(metrics);
                 }
             }
         });
     }
 
+
     /**
-     * Calculates price changes from close to close
-     * @param frame the quote frame
-     * @return      the same as input
+     * Reads quotes asynchronously on the executor of the transport for this source
+     * The request itself uses blocking I/O, so it occupies a thread of that executor until the frame is built.
+     * @param configurator  the options configurator
+     * @return              the future result, which completes exceptionally with a DataFrameException on failure
      */
-    private DataFrame<LocalDateTime,String> calculateChanges(DataFrame<LocalDateTime,String> frame) {
-        IntStream.range(1, frame.rowCount()).forEach(rowIndex -> {
-            final double previous = frame.data().getDouble(rowIndex - 1, "Close");
-            final double current = frame.data().getDouble(rowIndex, "Close");
-            frame.data().setDouble(rowIndex, "Change", current - previous);
-            frame.data().setDouble(rowIndex, "ChangePercent", (current / previous) - 1d);
-        });
-        return frame;
+    public CompletableFuture<DataFrame<LocalDateTime,String>> readAsync(Consumer<Options> configurator) {
+        return CompletableFuture.supplyAsync(() -> read(configurator), transport.executor());
+    }
+
+
+    /**
+     * Streams intraday quotes to the handler as they are parsed, without building a DataFrame
+     *
+     * Quotes are passed in the order they arrive, which is oldest first, with keys expressed as local epoch seconds.
+     * Resampling is applied if requested in the options, but derived columns are not computed in this mode. If a store
+     * is set and holds enough sessions for the ticker, the quotes are passed from the store rather than requested.
+     *
+     * @param configurator  the options configurator
+     * @param handler       the handler to receive quotes, which can return false to stop the stream early
+     * @return              the number of quotes passed to the handler
+     * @throws DataFrameException   if the request fails
+     */
+    public int stream(Consumer<Options> configurator, GoogleQuoteHandler handler) throws DataFrameException {
+        final Options options = initOptions(new Options(), configurator);
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            final GoogleQuoteHandler counter = (key, open, high, low, close, volume) -> {
+                count.incrementAndGet();
+                return handler.onQuote(key, open, high, low, close, volume);
+            };
+            final GoogleQuoteStore.Slice slice = readStore(options);
+            if (slice == null) {
+                parse(options, null, counter);
+            } else {
+                replay(slice, options, counter);
+            }
+            return count.get();
+        } catch (Exception ex) {
+            throw new DataFrameException("Failed to stream intraday quotes from Google finance for " + options.ticker, ex);
+        }
+    }
+
+
+    /**
+     * Loads quotes for the request without building a DataFrame, which is how panels are assembled
+     * @param configurator  the options configurator
+     * @return              the quotes in ascending key order
+     * @throws IOException  if the request fails
+     */
+    GoogleQuoteBuffer readBuffer(Consumer<Options> configurator) throws IOException {
+        return load(initOptions(new Options(), configurator), null);
+    }
+
+
+    /**
+     * Loads quotes for the request described by the options through the memory cache and then the store if there are any
+     * @param options   the request options
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending key order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer load(Options options, GoogleQuoteRequestMetrics metrics) throws IOException {
+        return memoryCache != null ? memoryCache.readIntraday(options.requestKey(), options.ticker, () -> loadStored(options, metrics)) : loadStored(options, metrics);
+    }
+
+
+    /**
+     * Loads quotes for the request described by the options from the store if it holds enough sessions, otherwise from Google Finance
+     * @param options   the request options
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending key order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer loadStored(Options options, GoogleQuoteRequestMetrics metrics) throws IOException {
+        final GoogleQuoteStore.Slice slice = readStore(options);
+        if (slice == null) {
+            return fetch(options, metrics);
+        } else {
+            final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(options.dayCount * options.barsPerSession(), false);
+            replay(slice, options, buffer);
+            return buffer;
+        }
+    }
+
+
+    /**
+     * Returns the most recent sessions held in the store for the request, if there is a store that holds enough of them
+     * @param options   the request options
+     * @return          the stored slice, null if the request cannot be served from the store
+     * @throws IOException  if the store file cannot be read
+     */
+    private GoogleQuoteStore.Slice readStore(Options options) throws IOException {
+        final GoogleQuoteStore store = this.store;
+        final GoogleQuoteStore.Slice slice = store != null ? store.readSessions(options.ticker, options.dayCount) : null;
+        if (slice == null || slice.sessionCount(86400L) < options.dayCount) {
+            return null;
+        } else {
+            return slice;
+        }
+    }
+
+
+    /**
+     * Passes the bars in a stored slice to the handler, resampling them on the way if requested
+     * @param slice     the slice of stored bars
+     * @param options   the request options
+     * @param handler   the handler to receive bars
+     */
+    private void replay(GoogleQuoteStore.Slice slice, Options options, GoogleQuoteHandler handler) {
+        if (options.resampleInterval == null) {
+            slice.forEach(handler);
+        } else {
+            final long interval = options.resampleInterval.getSeconds();
+            final GoogleQuoteResampler resampler = new GoogleQuoteResampler(handler, interval, options.sessionOpen, options.sessionClose);
+            slice.forEach(resampler);
+            resampler.flush();
+        }
+    }
+
+
+    /**
+     * Fetches quotes for the request described by the options from Google Finance
+     * @param options   the request options
+     * @param metrics   the metrics for the request, null if not enabled
+     * @return          the quotes in ascending key order
+     * @throws IOException  if the request fails
+     */
+    private GoogleQuoteBuffer fetch(Options options, GoogleQuoteRequestMetrics metrics) throws IOException {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(options.dayCount * options.barsPerSession(), false);
+        parse(options, metrics, buffer);
+        if (metrics != null) {
+            metrics.addGrowths(buffer);
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Parses the response to the request described by the options, resampling bars on the way if requested
+     * @param options   the request options
+     * @param metrics   the metrics for the request, null if not enabled
+     * @param handler   the handler to receive bars
+     * @throws IOException  if the request fails
+     */
+    private void parse(Options options, GoogleQuoteRequestMetrics metrics, GoogleQuoteHandler handler) throws IOException {
+        final GoogleQuoteIntradayParser parser = new GoogleQuoteIntradayParser(EXCHANGE_ZONE);
+        if (options.resampleInterval == null) {
+            GoogleQuoteRequestMetrics.parse(metrics, () -> openStream(options), parser, handler);
+        } else {
+            final long interval = options.resampleInterval.getSeconds();
+            final GoogleQuoteResampler resampler = new GoogleQuoteResampler(handler, interval, options.sessionOpen, options.sessionClose);
+            GoogleQuoteRequestMetrics.parse(metrics, () -> openStream(options), parser, resampler);
+            resampler.flush();
+        }
+    }
+
+
+    /**
+     * Returns a stream for the response to the request described by the options
+     * @param options   the request options
+     * @return          the response stream
+     * @throws IOException  if the request fails
+     */
+    private InputStream openStream(Options options) throws IOException {
+        final String url = urlTemplate.replace("<DAYS>", String.valueOf(options.dayCount)).replace("<TICKER>", options.ticker);
+        return transport.open(url);
     }
 
 
@@ -146,11 +326,47 @@ public class GoogleQuoteIntradaySource extends DataFrameSource<LocalDateTime,Str
 
         private String ticker;
         private int dayCount;
+        private int rollingWindow = 20;
+        private List<GoogleQuoteDerivedColumn> derivedColumns = GoogleQuoteDerivations.DEFAULT_COLUMNS;
+        private GoogleQuoteStorage storage = GoogleQuoteStorage.DOUBLE;
+        private Duration resampleInterval;
+        private LocalTime sessionOpen = LocalTime.of(9, 30);
+        private LocalTime sessionClose = LocalTime.of(16, 0);
 
         @Override
         public void validate() {
             Asserts.notNull(ticker, "The security ticker must be specified");
             Asserts.assertTrue(dayCount > 0, "The day count must be > 0");
+            Asserts.assertTrue(rollingWindow > 1, "The rolling window must be > 1");
+            Asserts.notNull(storage, "The column storage must be specified");
+            Asserts.notNull(sessionOpen, "The session open must be specified");
+            Asserts.notNull(sessionClose, "The session close must be specified");
+            Asserts.assertTrue(sessionOpen.isBefore(sessionClose), "The session open must be before the session close");
+            if (resampleInterval != null) {
+                Asserts.assertTrue(resampleInterval.getSeconds() >= 60, "The resample interval must be at least 1 minute");
+                Asserts.assertTrue(resampleInterval.getSeconds() % 60 == 0, "The resample interval must be a whole number of minutes");
+            }
+        }
+
+        /**
+         * Returns a key that identifies the bars requested by these options, ignoring derived columns
+         * @return  the request key
+         */
+        String requestKey() {
+            final long interval = resampleInterval != null ? resampleInterval.getSeconds() : 0L;
+            return ticker + ":" + dayCount + ":" + interval + ":" + sessionOpen + ":" + sessionClose;
+        }
+
+        /**
+         * Returns the number of bars expected per session, used to size buffers
+         * @return  the expected bars per session
+         */
+        int barsPerSession() {
+            if (resampleInterval == null) {
+                return 391;
+            } else {
+                return GoogleQuoteResampler.barsPerSession(resampleInterval.getSeconds(), sessionOpen, sessionClose);
+            }
         }
 
         /**
@@ -168,6 +384,115 @@ public class GoogleQuoteIntradaySource extends DataFrameSource<LocalDateTime,Str
         public void setDayCount(int dayCount) {
             this.dayCount = dayCount;
         }
+
+        /**
+         * Sets the columns to derive from the quote data, which replace the default of Change and ChangePercent
+         * @param columns   the derived columns, in the order they should appear after the quote columns
+         */
+        public void setDerivedColumns(GoogleQuoteDerivedColumn... columns) {
+            this.derivedColumns = Arrays.asList(columns);
+        }
+
+        /**
+         * Sets the window length for rolling derived columns
+         * @param rollingWindow the number of bars in the rolling window, which must be > 1
+         */
+        public void setRollingWindow(int rollingWindow) {
+            this.rollingWindow = rollingWindow;
+        }
+
+        /**
+         * Sets the column storage scheme, where COMPACT stores prices as float and volume as long
+         * To save further heap, derived columns can be dropped entirely by calling setDerivedColumns() with no arguments.
+         * @param storage   the column storage scheme
+         */
+        public void setStorage(GoogleQuoteStorage storage) {
+            this.storage = storage;
+        }
+
+        /**
+         * Sets the interval to resample bars to as they are parsed, for example 5 or 30 minutes
+         * Bars are aligned to the session open and cut at the session close, and an interval of one day or more
+         * produces a single bar per session keyed at the session close.
+         * @param resampleInterval  the target interval in whole minutes, null for the raw bars
+         */
+        public void setResampleInterval(Duration resampleInterval) {
+            this.resampleInterval = resampleInterval;
+        }
+
+        /**
+         * Sets the local session open and close times that resampled bars are aligned to
+         * @param sessionOpen   the session open in New York time, 09:30 by default
+         * @param sessionClose  the session close in New York time, 16:00 by default
+         */
+        public void setSession(LocalTime sessionOpen, LocalTime sessionClose) {
+            this.sessionOpen = sessionOpen;
+            this.sessionClose = sessionClose;
+        }
+
+        /**
+         * Returns the instrument ticker for this request
+         * @return  the instrument ticker
+         */
+        public String getTicker() {
+            return ticker;
+        }
+
+        /**
+         * Returns the day count for this request
+         * @return  the day count
+         */
+        public int getDayCount() {
+            return dayCount;
+        }
+
+        /**
+         * Returns the columns to derive from the quote data
+         * @return  the derived columns
+         */
+        public List<GoogleQuoteDerivedColumn> getDerivedColumns() {
+            return derivedColumns;
+        }
+
+        /**
+         * Returns the window length for rolling derived columns
+         * @return  the number of bars in the rolling window
+         */
+        public int getRollingWindow() {
+            return rollingWindow;
+        }
+
+        /**
+         * Returns the column storage scheme for this request
+         * @return  the column storage scheme
+         */
+        public GoogleQuoteStorage getStorage() {
+            return storage;
+        }
+
+        /**
+         * Returns the interval to resample bars to as they are parsed
+         * @return  the resample interval, null for the raw bars
+         */
+        public Duration getResampleInterval() {
+            return resampleInterval;
+        }
+
+        /**
+         * Returns the local session open time that resampled bars are aligned to
+         * @return  the session open in New York time
+         */
+        public LocalTime getSessionOpen() {
+            return sessionOpen;
+        }
+
+        /**
+         * Returns the local session close time that resampled bars are aligned to
+         * @return  the session close in New York time
+         */
+        public LocalTime getSessionClose() {
+            return sessionClose;
+        }
     }
 
 
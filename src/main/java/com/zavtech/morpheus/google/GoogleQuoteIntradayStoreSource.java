@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A GoogleQuoteIntradaySource that serves intraday quotes from a memory mapped GoogleQuoteStore.
+ *
+ * Requests accept the same options as GoogleQuoteIntradaySource, and the day count selects the most recent
+ * sessions held in the store. The store is consulted by every read path of the base source, and tickers for
+ * which the store holds fewer sessions than requested are loaded from Google Finance instead. This is
+ * equivalent to calling setStore() on a GoogleQuoteIntradaySource.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteIntradayStoreSource extends GoogleQuoteIntradaySource {
+
+    /**
+     * Constructor
+     * @param store the store to serve quotes from
+     */
+    public GoogleQuoteIntradayStoreSource(GoogleQuoteStore store) {
+        Asserts.notNull(store, "The quote store cannot be null");
+        this.setStore(store);
+    }
+
+    /**
+     * Constructor
+     * @param store         the store to serve quotes from
+     * @param urlTemplate   the url template for tickers that are not in the store
+     */
+    public GoogleQuoteIntradayStoreSource(GoogleQuoteStore store, String urlTemplate) {
+        super(urlTemplate);
+        Asserts.notNull(store, "The quote store cannot be null");
+        this.setStore(store);
+    }
+
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A memory bounded cache of parsed quotes that can be shared by history and intraday sources.
+ *
+ * Entries hold the primitive bars for a request rather than frames, so every caller receives its own frame with
+ * its own derived columns. End of day requests are served from any live entry for the ticker whose range covers the
+ * request, and intraday requests are served from an entry for identical options. Entries expire after a time to
+ * live that is long for end of day data and short for intraday data, where end of day entries whose range reaches
+ * the current session in the exchange zone count as intraday, since the bar for today is still forming. The cost of
+ * an entry is its row count, with spare capacity trimmed on insert, and the least recently used entries are evicted
+ * once the cache exceeds its size limit. Concurrent identical requests are coalesced, so only one of them
+ * fetches while the others wait for and share its result.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteMemoryCache {
+
+    private static final int BYTES_PER_ROW = (1 + GoogleQuoteBuffer.FIELD_COUNT) * 8;
+
+    private long maxBytes;
+    private long sizeBytes;
+    private long historyTtlNanos;
+    private long intradayTtlNanos;
+    private Map<String,Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private Map<String,CompletableFuture<GoogleQuoteBuffer>> inFlight = new ConcurrentHashMap<>();
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong missCount = new AtomicLong();
+    private AtomicLong coalescedCount = new AtomicLong();
+    private AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public GoogleQuoteMemoryCache() {
+        this(64L * 1024L * 1024L, Duration.ofHours(12), Duration.ofSeconds(30));
+    }
+
+    /**
+     * Constructor
+     * @param maxBytes      the max number of bytes of quote data to retain
+     * @param historyTtl    the time to live for end of day entries that end before the current session
+     * @param intradayTtl   the time to live for intraday entries, and end of day entries that include the current session
+     */
+    public GoogleQuoteMemoryCache(long maxBytes, Duration historyTtl, Duration intradayTtl) {
+        Asserts.assertTrue(maxBytes > 0, "The max bytes must be > 0");
+        Asserts.notNull(historyTtl, "The history time to live cannot be null");
+        Asserts.notNull(intradayTtl, "The intraday time to live cannot be null");
+        this.maxBytes = maxBytes;
+        this.historyTtlNanos = historyTtl.toNanos();
+        this.intradayTtlNanos = intradayTtl.toNanos();
+    }
+
+    /**
+     * Returns the max number of bytes of quote data this cache retains
+     * @return  the size limit in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of bytes of quote data currently in this cache
+     * @return  the current size in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Returns the number of entries currently in this cache
+     * @return  the entry count
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of requests served from an existing entry
+     * @return  the hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of requests that triggered a fetch
+     * @return  the miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of requests that waited on an identical request already in flight
+     * @return  the coalesced count
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the size limit
+     * @return  the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Removes all entries for the ticker specified
+     * @param ticker    the ticker reference
+     */
+    public synchronized void invalidate(String ticker) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.ticker.equals(ticker)) {
+                this.sizeBytes -= entry.bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from this cache
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.sizeBytes = 0L;
+    }
+
+
+    /**
+     * Returns end of day quotes for the range, from a covering entry if one is live, otherwise through the loader
+     * @param ticker    the ticker reference
+     * @param start     the start date, inclusive
+     * @param end       the end date, inclusive
+     * @param loader    the loader to fetch the range on a miss
+     * @return          the quotes in ascending date order
+     * @throws IOException  if the loader fails
+     */
+    GoogleQuoteBuffer readHistory(String ticker, LocalDate start, LocalDate end, Loader loader) throws IOException {
+        final String key = "H:" + ticker + ":" + start + ":" + end;
+        final long fromKey = start.toEpochDay();
+        final long toKey = end.toEpochDay();
+        return read(key, ticker, fromKey, toKey, false, loader);
+    }
+
+    /**
+     * Returns intraday quotes for a request, from an entry with the same request key if one is live
+     * @param requestKey    the key that identifies the request options
+     * @param ticker        the ticker reference
+     * @param loader        the loader to fetch the request on a miss
+     * @return              the quotes in ascending key order
+     * @throws IOException  if the loader fails
+     */
+    GoogleQuoteBuffer readIntraday(String requestKey, String ticker, Loader loader) throws IOException {
+        return read("I:" + requestKey, ticker, Long.MIN_VALUE, Long.MAX_VALUE, true, loader);
+    }
+
+
+    /**
+     * Returns quotes from the cache, or through the loader with identical concurrent requests coalesced
+     * @param key       the entry key
+     * @param ticker    the ticker reference
+     * @param fromKey   the lower bound row key, inclusive
+     * @param toKey     the upper bound row key, inclusive
+     * @param intraday  true for an intraday request, false for end of day
+     * @param loader    the loader to fetch the request on a miss
+     * @return          the quotes in ascending key order
+     * @throws IOException  if the loader fails
+     */
+    private GoogleQuoteBuffer read(String key, String ticker, long fromKey, long toKey, boolean intraday, Loader loader) throws IOException {
+        final GoogleQuoteBuffer cached = lookup(key, ticker, fromKey, toKey, intraday);
+        if (cached != null) {
+            this.hitCount.incrementAndGet();
+            return cached;
+        }
+        final CompletableFuture<GoogleQuoteBuffer> future = new CompletableFuture<>();
+        final CompletableFuture<GoogleQuoteBuffer> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            this.coalescedCount.incrementAndGet();
+            return await(existing);
+        }
+        try {
+            final GoogleQuoteBuffer raced = lookup(key, ticker, fromKey, toKey, intraday);
+            if (raced != null) {
+                this.hitCount.incrementAndGet();
+                future.complete(raced);
+                return raced;
+            }
+            this.missCount.incrementAndGet();
+            final GoogleQuoteBuffer buffer = trim(loader.load().ordered());
+            final boolean current = intraday || toKey >= LocalDate.now(GoogleQuoteIntradaySource.EXCHANGE_ZONE).toEpochDay();
+            final long ttlNanos = current ? intradayTtlNanos : historyTtlNanos;
+            this.put(key, new Entry(ticker, fromKey, toKey, intraday, buffer, System.nanoTime() + ttlNanos));
+            future.complete(buffer);
+            return buffer;
+        } catch (IOException | RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the quotes for a request from a live entry, slicing a covering end of day entry if necessary
+     * @param key       the entry key
+     * @param ticker    the ticker reference
+     * @param fromKey   the lower bound row key, inclusive
+     * @param toKey     the upper bound row key, inclusive
+     * @param intraday  true for an intraday request, false for end of day
+     * @return          the quotes, null if there is no live entry for the request
+     */
+    private GoogleQuoteBuffer lookup(String key, String ticker, long fromKey, long toKey, boolean intraday) {
+        final Entry covering;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final Entry exact = entries.get(key);
+            if (exact != null && exact.isLive(now)) {
+                return exact.buffer;
+            } else if (exact != null) {
+                this.entries.remove(key);
+                this.sizeBytes -= exact.bytes;
+            }
+            if (intraday) {
+                return null;
+            }
+            final String coveringKey = entries.entrySet().stream()
+                .filter(e -> !e.getValue().intraday && e.getValue().ticker.equals(ticker) && e.getValue().isLive(now))
+                .filter(e -> e.getValue().fromKey <= fromKey && e.getValue().toKey >= toKey)
+                .map(Map.Entry::getKey).findFirst().orElse(null);
+            covering = coveringKey != null ? entries.get(coveringKey) : null;
+        }
+        if (covering == null) {
+            return null;
+        } else {
+            final GoogleQuoteBuffer slice = new GoogleQuoteBuffer(covering.buffer.size(), false);
+            covering.buffer.forEach(fromKey, toKey, slice);
+            return slice;
+        }
+    }
+
+    /**
+     * Adds an entry to this cache, evicting the least recently used entries to stay within the size limit
+     * @param key   the entry key
+     * @param entry the entry to add
+     */
+    private synchronized void put(String key, Entry entry) {
+        if (entry.bytes <= maxBytes) {
+            final Entry previous = entries.put(key, entry);
+            this.sizeBytes += entry.bytes - (previous != null ? previous.bytes : 0L);
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (sizeBytes > maxBytes && iterator.hasNext()) {
+                final Entry eldest = iterator.next();
+                this.sizeBytes -= eldest.bytes;
+                this.evictionCount.incrementAndGet();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the buffer without spare capacity if it has any, so retained memory matches the cost of the entry
+     * @param buffer    the ordered buffer
+     * @return          the buffer, or a trimmed copy
+     */
+    private static GoogleQuoteBuffer trim(GoogleQuoteBuffer buffer) {
+        if (buffer.capacity() <= Math.max(16, buffer.size())) {
+            return buffer;
+        } else {
+            final GoogleQuoteBuffer trimmed = new GoogleQuoteBuffer(buffer.size(), false);
+            buffer.forEach(Long.MIN_VALUE, Long.MAX_VALUE, trimmed);
+            return trimmed;
+        }
+    }
+
+    /**
+     * Waits for a request in flight to complete and returns its result
+     * @param future    the future result of the request
+     * @return          the quotes loaded by the request
+     * @throws IOException  if the request failed or the wait was interrupted
+     */
+    private static GoogleQuoteBuffer await(CompletableFuture<GoogleQuoteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for quotes already in flight");
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new IOException("Failed to load quotes already in flight", cause);
+            }
+        }
+    }
+
+
+    /**
+     * An interface to a function that fetches quotes for a request on a cache miss
+     */
+    @FunctionalInterface
+    interface Loader {
+
+        /**
+         * Returns the quotes for the request
+         * @return  the quotes loaded
+         * @throws IOException  if the request fails
+         */
+        GoogleQuoteBuffer load() throws IOException;
+    }
+
+
+    /**
+     * A cache entry that holds the quotes for a request
+     */
+    private static class Entry {
+
+        private String ticker;
+        private long fromKey;
+        private long toKey;
+        private long bytes;
+        private long expiresAt;
+        private boolean intraday;
+        private GoogleQuoteBuffer buffer;
+
+        /**
+         * Constructor
+         * @param ticker    the ticker reference
+         * @param fromKey   the lower bound row key of the request, inclusive
+         * @param toKey     the upper bound row key of the request, inclusive
+         * @param intraday  true for an intraday entry
+         * @param buffer    the quotes for the request
+         * @param expiresAt the value of System.nanoTime() after which the entry is stale
+         */
+        Entry(String ticker, long fromKey, long toKey, boolean intraday, GoogleQuoteBuffer buffer, long expiresAt) {
+            this.ticker = ticker;
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.intraday = intraday;
+            this.buffer = buffer;
+            this.expiresAt = expiresAt;
+            this.bytes = (long)buffer.size() * BYTES_PER_ROW;
+        }
+
+        /**
+         * Returns true if this entry has not expired
+         * @param now   the current value of System.nanoTime()
+         * @return      true if the entry is live
+         */
+        boolean isLive(long now) {
+            return now - expiresAt < 0L;
+        }
+    }
+
+}
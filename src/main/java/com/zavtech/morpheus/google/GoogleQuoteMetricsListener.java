@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+/**
+ * An interface to a listener that receives performance metrics for each request read through a Google source
+ *
+ * The listener is called on the thread that issued the request once it has completed or failed, so
+ * implementations should be fast and thread safe. GoogleQuoteMetricsRegistry aggregates metrics across requests.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+@FunctionalInterface
+public interface GoogleQuoteMetricsListener {
+
+    /**
+     * Called when a request has completed or failed
+     * @param metrics   the metrics for the request
+     */
+    void onRequest(GoogleQuoteRequestMetrics metrics);
+}
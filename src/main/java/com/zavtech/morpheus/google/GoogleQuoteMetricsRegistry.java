@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.zavtech.morpheus.frame.DataFrameException;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A GoogleQuoteMetricsListener that aggregates request metrics into histograms and counters across requests
+ *
+ * One registry can be attached to any number of sources, and can optionally be exposed over JMX so that a nightly
+ * load can be observed while it runs. A delegate listener can be chained to forward each request to another
+ * metrics system after it has been recorded here.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteMetricsRegistry implements GoogleQuoteMetricsListener, GoogleQuoteMetricsRegistryMBean {
+
+    private GoogleQuoteMetricsListener delegate;
+    private GoogleQuoteHistogram total = new GoogleQuoteHistogram();
+    private Map<GoogleQuotePhase,GoogleQuoteHistogram> phases = new EnumMap<>(GoogleQuotePhase.class);
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong failureCount = new AtomicLong();
+    private AtomicLong bytesReceived = new AtomicLong();
+    private AtomicLong rowsProduced = new AtomicLong();
+    private AtomicLong linesRead = new AtomicLong();
+    private AtomicLong linesRejected = new AtomicLong();
+    private AtomicLong capacityGrowths = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public GoogleQuoteMetricsRegistry() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     * @param delegate  the listener to forward each request to after it is recorded, null for none
+     */
+    public GoogleQuoteMetricsRegistry(GoogleQuoteMetricsListener delegate) {
+        this.delegate = delegate;
+        for (GoogleQuotePhase phase : GoogleQuotePhase.values()) {
+            this.phases.put(phase, new GoogleQuoteHistogram());
+        }
+    }
+
+    @Override
+    public void onRequest(GoogleQuoteRequestMetrics metrics) {
+        this.requestCount.incrementAndGet();
+        if (!metrics.isSuccess()) {
+            this.failureCount.incrementAndGet();
+        }
+        this.total.record(metrics.getTotalNanos());
+        this.phases.forEach((phase, histogram) -> histogram.record(metrics.getNanos(phase)));
+        this.bytesReceived.addAndGet(metrics.getBytesReceived());
+        this.rowsProduced.addAndGet(metrics.getRowCount());
+        this.linesRead.addAndGet(metrics.getLinesRead());
+        this.linesRejected.addAndGet(metrics.getLinesRejected());
+        this.capacityGrowths.addAndGet(metrics.getCapacityGrowths());
+        if (delegate != null) {
+            delegate.onRequest(metrics);
+        }
+    }
+
+    /**
+     * Returns the histogram of the elapsed time of requests
+     * @return  the histogram of request times
+     */
+    public GoogleQuoteHistogram total() {
+        return total;
+    }
+
+    /**
+     * Returns the histogram of the time requests spent in the phase specified
+     * @param phase the request phase
+     * @return      the histogram of phase times
+     */
+    public GoogleQuoteHistogram phase(GoogleQuotePhase phase) {
+        Asserts.notNull(phase, "The phase cannot be null");
+        return phases.get(phase);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getRowsProduced() {
+        return rowsProduced.get();
+    }
+
+    /**
+     * Returns the total number of response lines read
+     * @return  the lines read
+     */
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    @Override
+    public long getLinesRejected() {
+        return linesRejected.get();
+    }
+
+    @Override
+    public long getCapacityGrowths() {
+        return capacityGrowths.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return total.getMeanNanos() / 1e6d;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return total.getPercentileNanos(0.99d) / 1e6d;
+    }
+
+    @Override
+    public Map<String,Double> getMeanPhaseMillis() {
+        final Map<String,Double> result = new LinkedHashMap<>();
+        this.phases.forEach((phase, histogram) -> result.put(phase.name(), histogram.getMeanNanos() / 1e6d));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        this.total.reset();
+        this.phases.values().forEach(GoogleQuoteHistogram::reset);
+        this.requestCount.set(0L);
+        this.failureCount.set(0L);
+        this.bytesReceived.set(0L);
+        this.rowsProduced.set(0L);
+        this.linesRead.set(0L);
+        this.linesRejected.set(0L);
+        this.capacityGrowths.set(0L);
+    }
+
+    /**
+     * Registers this registry with the platform MBean server under the name specified
+     * @param name  the object name, for example "com.zavtech.morpheus.google:type=Metrics,name=nightly"
+     * @return      the object name registered, which can be used to unregister
+     * @throws DataFrameException   if the registration fails
+     */
+    public ObjectName register(String name) {
+        try {
+            final ObjectName objectName = new ObjectName(name);
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException ex) {
+            throw new DataFrameException("Failed to register metrics registry with JMX as " + name, ex);
+        }
+    }
+
+    /**
+     * Unregisters this registry from the platform MBean server
+     * @param objectName    the object name returned from register()
+     * @throws DataFrameException   if the registry is not registered under that name
+     */
+    public void unregister(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            throw new DataFrameException("Failed to unregister metrics registry from JMX as " + objectName, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder();
+        text.append("requests=").append(getRequestCount());
+        text.append(", failures=").append(getFailureCount());
+        text.append(", bytes=").append(getBytesReceived());
+        text.append(", rows=").append(getRowsProduced());
+        text.append(", total=[").append(total).append("]");
+        phases.forEach((phase, histogram) -> text.append(", ").append(phase).append("=[").append(histogram).append("]"));
+        return text.toString();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface of GoogleQuoteMetricsRegistry, with durations reported in milliseconds
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public interface GoogleQuoteMetricsRegistryMBean {
+
+    /**
+     * Returns the number of requests recorded
+     * @return  the request count
+     */
+    long getRequestCount();
+
+    /**
+     * Returns the number of requests that failed
+     * @return  the failure count
+     */
+    long getFailureCount();
+
+    /**
+     * Returns the total number of response bytes received
+     * @return  the bytes received
+     */
+    long getBytesReceived();
+
+    /**
+     * Returns the total number of rows produced
+     * @return  the rows produced
+     */
+    long getRowsProduced();
+
+    /**
+     * Returns the total number of response lines that were not quotes
+     * @return  the lines rejected
+     */
+    long getLinesRejected();
+
+    /**
+     * Returns the total number of row buffer capacity growths
+     * @return  the capacity growths
+     */
+    long getCapacityGrowths();
+
+    /**
+     * Returns the mean elapsed time of a request
+     * @return  the mean in millis
+     */
+    double getMeanMillis();
+
+    /**
+     * Returns the 99th percentile elapsed time of a request
+     * @return  the 99th percentile in millis
+     */
+    double getP99Millis();
+
+    /**
+     * Returns the mean time per request in each phase, keyed by phase name
+     * @return  the mean phase times in millis
+     */
+    Map<String,Double> getMeanPhaseMillis();
+
+    /**
+     * Resets all the metrics in the registry
+     */
+    void reset();
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.zavtech.morpheus.array.Array;
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import com.zavtech.morpheus.index.Index;
+
+/**
+ * A set of aligned multi-ticker frames produced by GoogleQuotePanelLoader, one per field, with the same row keys
+ *
+ * Each frame has a row for every key observed across the tickers and a column per ticker, in the order the
+ * tickers were requested, with NaN where a ticker has no quote for a row. Tickers that failed to load have no
+ * column and their failures are available separately. Each frame is created over its own copy of the row index,
+ * so rows added to or removed from one frame leave the others unchanged, while the row key objects themselves
+ * are shared.
+ *
+ * @param <R>   the row key type
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuotePanel<R> {
+
+    private List<String> tickers;
+    private Map<String,DataFrame<R,String>> frames;
+    private Map<String,Throwable> failures;
+
+    /**
+     * Constructor
+     * @param index     the row index, which is used by the first frame and copied for each of the others
+     * @param tickers   the tickers that loaded, in column order
+     * @param fields    the fields in the panel
+     * @param columns   the column values indexed by field then ticker
+     * @param failures  the failures keyed by ticker
+     */
+    GoogleQuotePanel(Index<R> index, List<String> tickers, List<String> fields, double[][][] columns, Map<String,Throwable> failures) {
+        this.tickers = Collections.unmodifiableList(tickers);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.frames = new LinkedHashMap<>(fields.size());
+        for (int i = 0; i < fields.size(); ++i) {
+            final double[][] values = columns[i];
+            final Index<R> rowIndex = i == 0 ? index : index.copy();
+            this.frames.put(fields.get(i), DataFrame.of(rowIndex, String.class, frameColumns -> {
+                for (int j = 0; j < tickers.size(); ++j) {
+                    frameColumns.add(tickers.get(j), Array.of(values[j]));
+                }
+            }));
+        }
+    }
+
+    /**
+     * Returns the tickers that loaded successfully, which are the column keys of every frame
+     * @return  the tickers in column order
+     */
+    public List<String> tickers() {
+        return tickers;
+    }
+
+    /**
+     * Returns the fields in this panel
+     * @return  the field names
+     */
+    public List<String> fields() {
+        return Collections.unmodifiableList(new ArrayList<>(frames.keySet()));
+    }
+
+    /**
+     * Returns the frame for the field specified
+     * @param field the field name, for example "Close"
+     * @return      the frame with a column per ticker
+     * @throws DataFrameException   if the field was not loaded
+     */
+    public DataFrame<R,String> frame(String field) {
+        final DataFrame<R,String> frame = frames.get(field);
+        if (frame == null) {
+            throw new DataFrameException("The panel does not contain the field " + field + ", available: " + frames.keySet());
+        }
+        return frame;
+    }
+
+    /**
+     * Returns true if every ticker requested loaded successfully
+     * @return  true if there were no failures
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Returns the failure for the ticker specified
+     * @param ticker    the ticker reference
+     * @return          the failure, empty if the ticker loaded successfully or was not requested
+     */
+    public Optional<Throwable> failure(String ticker) {
+        return Optional.ofNullable(failures.get(ticker));
+    }
+
+    /**
+     * Returns an unmodifiable map of the failures, in the order the tickers were requested
+     * @return  the failures keyed by ticker
+     */
+    public Map<String,Throwable> failures() {
+        return failures;
+    }
+
+}
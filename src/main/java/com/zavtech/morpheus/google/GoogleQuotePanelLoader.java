@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import com.zavtech.morpheus.array.Array;
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import com.zavtech.morpheus.frame.DataFrameSource;
+import com.zavtech.morpheus.index.Index;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A class that loads quotes for many tickers into wide panels with aligned row keys, one frame per field.
+ *
+ * Each ticker is parsed into primitive buffers concurrently, the union of their keys becomes the row index,
+ * and every ticker is then scattered into its own pre-aligned column in parallel, with NaN where it has no quote.
+ * No per-ticker DataFrame is ever created and no join is required. The row key objects are created once per
+ * panel, and each field frame gets its own copy of the index over them so the frames can be reshaped independently.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @param <R>   the row key type of the panels
+ * @param <O>   the options type of the underlying source
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuotePanelLoader<R,O extends DataFrameSource.Options<R,String>> {
+
+    /** The field names in the order defined by GoogleQuoteParser */
+    static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList("Open", "High", "Low", "Close", "Volume"));
+
+    private int concurrency;
+    private Class<R> keyType;
+    private LongFunction<R> keyMapper;
+    private BufferReader<O> reader;
+    private List<String> fields = FIELDS;
+
+    /**
+     * Constructor
+     * @param keyType   the row key type
+     * @param keyMapper the function to map primitive keys to row keys
+     * @param reader    the function to read quotes for one ticker into a buffer
+     */
+    private GoogleQuotePanelLoader(Class<R> keyType, LongFunction<R> keyMapper, BufferReader<O> reader) {
+        this.keyType = keyType;
+        this.keyMapper = keyMapper;
+        this.reader = reader;
+        this.concurrency = Runtime.getRuntime().availableProcessors() * 4;
+    }
+
+    /**
+     * Returns a panel loader for end of day quotes, keyed by date
+     * @param source    the source to load quotes from
+     * @return          the newly created panel loader
+     */
+    public static GoogleQuotePanelLoader<LocalDate,GoogleQuoteHistorySource.Options> history(GoogleQuoteHistorySource source) {
+        Asserts.notNull(source, "The source cannot be null");
+        return new GoogleQuotePanelLoader<>(LocalDate.class, LocalDate::ofEpochDay, source::readBuffer);
+    }
+
+    /**
+     * Returns a panel loader for intraday quotes, keyed by local date time
+     * @param source    the source to load quotes from
+     * @return          the newly created panel loader
+     */
+    public static GoogleQuotePanelLoader<LocalDateTime,GoogleQuoteIntradaySource.Options> intraday(GoogleQuoteIntradaySource source) {
+        Asserts.notNull(source, "The source cannot be null");
+        return new GoogleQuotePanelLoader<>(LocalDateTime.class, key -> LocalDateTime.ofEpochSecond(key, 0, ZoneOffset.UTC), source::readBuffer);
+    }
+
+    /**
+     * Returns the max number of requests in flight for this loader
+     * @return  the concurrency limit
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the max number of requests in flight for this loader
+     * @param concurrency   the concurrency limit, must be > 0
+     */
+    public void setConcurrency(int concurrency) {
+        Asserts.assertTrue(concurrency > 0, "The concurrency must be > 0");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Returns the fields a panel is built for
+     * @return  the field names
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Sets the fields to build a panel for, which default to Open, High, Low, Close and Volume
+     * @param fields    the field names, for example "Close" and "Volume"
+     */
+    public void setFields(String... fields) {
+        Asserts.assertTrue(fields.length > 0, "At least one field must be specified");
+        for (String field : fields) {
+            Asserts.assertTrue(FIELDS.contains(field), "Unsupported panel field: " + field);
+        }
+        this.fields = Collections.unmodifiableList(Arrays.asList(fields.clone()));
+    }
+
+    /**
+     * Loads quotes for all the tickers specified into panels, blocking until every request has completed or failed
+     * @param tickers       the tickers to load, which become the panel columns in the order given, ignoring duplicates
+     * @param configurator  the configurator to apply request options for each ticker
+     * @return              the panels, together with any tickers that failed to load
+     */
+    public GoogleQuotePanel<R> read(Collection<String> tickers, BiConsumer<String,O> configurator) {
+        Asserts.notNull(tickers, "The tickers cannot be null");
+        Asserts.notNull(configurator, "The configurator cannot be null");
+        final Set<String> distinct = new LinkedHashSet<>(tickers);
+        final Map<String,GoogleQuoteBuffer> buffers = new ConcurrentHashMap<>(distinct.size());
+        final Map<String,Throwable> failures = new ConcurrentHashMap<>();
+        final Semaphore permits = new Semaphore(concurrency);
+        final ExecutorService executor = GoogleQuoteBatchLoader.createExecutor(Math.max(1, Math.min(concurrency, distinct.size())));
+        try {
+            final List<Future<?>> loads = new ArrayList<>(distinct.size());
+            for (String ticker : distinct) {
+                permits.acquire();
+                try {
+                    loads.add(executor.submit(() -> {
+                        try {
+                            buffers.put(ticker, reader.read(options -> configurator.accept(ticker, options)).ordered());
+                        } catch (Throwable t) {
+                            failures.put(ticker, t);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RuntimeException ex) {
+                    permits.release();
+                    throw ex;
+                }
+            }
+            awaitAll(loads);
+            final List<String> loaded = new ArrayList<>(buffers.size());
+            distinct.stream().filter(buffers::containsKey).forEach(loaded::add);
+            final long[] keys = union(loaded, buffers);
+            final int[] fieldIndexes = fields.stream().mapToInt(FIELDS::indexOf).toArray();
+            final double[][][] columns = new double[fieldIndexes.length][loaded.size()][];
+            final List<Future<?>> scatters = new ArrayList<>(loaded.size());
+            for (int i = 0; i < loaded.size(); ++i) {
+                final int column = i;
+                final GoogleQuoteBuffer buffer = buffers.get(loaded.get(i));
+                scatters.add(executor.submit(() -> scatter(buffer, keys, fieldIndexes, columns, column)));
+            }
+            awaitAll(scatters);
+            return new GoogleQuotePanel<>(createIndex(keys), loaded, fields, columns, failures(distinct, failures));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataFrameException("Interrupted while loading a panel for " + tickers.size() + " tickers", ex);
+        } catch (ExecutionException ex) {
+            throw new DataFrameException("Failed to load a panel for " + tickers.size() + " tickers", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns the sorted union of the keys across all the buffers
+     * @param tickers   the tickers that loaded successfully
+     * @param buffers   the buffers keyed by ticker
+     * @return          the distinct keys in ascending order
+     */
+    private static long[] union(List<String> tickers, Map<String,GoogleQuoteBuffer> buffers) {
+        final int total = tickers.stream().mapToInt(ticker -> buffers.get(ticker).size()).sum();
+        final long[] keys = new long[total];
+        int offset = 0;
+        for (String ticker : tickers) {
+            final long[] tickerKeys = buffers.get(ticker).keys();
+            System.arraycopy(tickerKeys, 0, keys, offset, tickerKeys.length);
+            offset += tickerKeys.length;
+        }
+        Arrays.sort(keys);
+        int count = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (count == 0 || keys[i] != keys[count - 1]) {
+                keys[count++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+
+    /**
+     * Copies the values of one buffer into its pre-aligned columns, leaving NaN where the ticker has no quote
+     * @param buffer        the buffer for the ticker
+     * @param keys          the shared keys in ascending order
+     * @param fieldIndexes  the fields to copy, as defined by GoogleQuoteParser
+     * @param columns       the panel columns indexed by field then ticker
+     * @param column        the column ordinal of the ticker
+     */
+    private static void scatter(GoogleQuoteBuffer buffer, long[] keys, int[] fieldIndexes, double[][][] columns, int column) {
+        final double[][] values = new double[fieldIndexes.length][];
+        for (int i = 0; i < fieldIndexes.length; ++i) {
+            values[i] = new double[keys.length];
+            Arrays.fill(values[i], Double.NaN);
+            columns[i][column] = values[i];
+        }
+        final int[] cursor = new int[1];
+        final double[] quote = new double[GoogleQuoteBuffer.FIELD_COUNT];
+        buffer.forEach(Long.MIN_VALUE, Long.MAX_VALUE, (key, open, high, low, close, volume) -> {
+            int row = cursor[0];
+            while (keys[row] < key) ++row;
+            cursor[0] = row;
+            quote[GoogleQuoteParser.OPEN] = open;
+            quote[GoogleQuoteParser.HIGH] = high;
+            quote[GoogleQuoteParser.LOW] = low;
+            quote[GoogleQuoteParser.CLOSE] = close;
+            quote[GoogleQuoteParser.VOLUME] = volume;
+            for (int i = 0; i < fieldIndexes.length; ++i) {
+                values[i][row] = quote[fieldIndexes[i]];
+            }
+            return true;
+        });
+    }
+
+
+    /**
+     * Returns the row index for the panel frames
+     * @param keys  the primitive keys in ascending order
+     * @return      the row index
+     */
+    private Index<R> createIndex(long[] keys) {
+        final Array<R> rowKeys = Array.of(keyType, keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            rowKeys.setValue(i, keyMapper.apply(keys[i]));
+        }
+        return Index.of(rowKeys);
+    }
+
+
+    /**
+     * Returns the failures in the order the tickers were requested
+     * @param tickers   the tickers requested
+     * @param failures  the failures keyed by ticker
+     * @return          the ordered failures
+     */
+    private static Map<String,Throwable> failures(Collection<String> tickers, Map<String,Throwable> failures) {
+        final Map<String,Throwable> result = new LinkedHashMap<>(failures.size());
+        tickers.forEach(ticker -> {
+            final Throwable failure = failures.get(ticker);
+            if (failure != null) result.put(ticker, failure);
+        });
+        return result;
+    }
+
+
+    /**
+     * Waits for all the futures to complete
+     * @param futures   the futures to wait on
+     * @throws InterruptedException if the calling thread is interrupted
+     * @throws ExecutionException   if any of the tasks failed
+     */
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException, ExecutionException {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+
+    /**
+     * A function that reads quotes for a single request into a buffer
+     * @param <O>   the options type
+     */
+    @FunctionalInterface
+    private interface BufferReader<O> {
+
+        /**
+         * Returns the quotes for the request in ascending key order
+         * @param configurator  the options configurator
+         * @return              the quotes for the request
+         * @throws IOException  if the request fails
+         */
+        GoogleQuoteBuffer read(Consumer<O> configurator) throws IOException;
+    }
+
+}
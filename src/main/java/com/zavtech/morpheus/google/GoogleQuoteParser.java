@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A base class for scanners that parse Google Finance responses line by line directly from bytes.
+ *
+ * The stream is read in chunks into a single growable buffer, and each line is passed to the subclass as a byte
+ * range so that no Strings are created for lines or fields. A subclass populates the key and values fields of this
+ * class for each line that represents a quote, which are then passed to the handler.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+abstract class GoogleQuoteParser {
+
+    static final int OPEN = 0;
+    static final int HIGH = 1;
+    static final int LOW = 2;
+    static final int CLOSE = 3;
+    static final int VOLUME = 4;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    protected byte[] buffer;
+    protected int lineCount;
+    protected long key;
+    protected double[] values = new double[5];
+
+    /**
+     * Constructor
+     * @param bufferSize    the initial size of the read buffer
+     */
+    GoogleQuoteParser(int bufferSize) {
+        this.buffer = new byte[Math.max(64, bufferSize)];
+    }
+
+    /**
+     * Parses all quote lines from the stream and passes them to the handler in the order they appear
+     * @param is        the input stream to parse, which is not closed by this method
+     * @param handler   the handler to receive parsed quotes
+     * @return          the number of quotes passed to the handler
+     * @throws IOException  if reading the stream fails
+     * @throws NumberFormatException    if a quote line contains a malformed number
+     */
+    int parse(InputStream is, GoogleQuoteHandler handler) throws IOException {
+        this.lineCount = 0;
+        int count = 0;
+        int start = 0;
+        int scan = 0;
+        int limit = 0;
+        boolean eof = false;
+        while (true) {
+            final int newline = indexOf(buffer, (byte)'\n', scan, limit);
+            if (newline >= 0) {
+                ++lineCount;
+                if (parseLine(start, trim(start, newline))) {
+                    ++count;
+                    if (!handler.onQuote(key, values[OPEN], values[HIGH], values[LOW], values[CLOSE], values[VOLUME])) {
+                        return count;
+                    }
+                }
+                start = newline + 1;
+                scan = start;
+            } else if (eof) {
+                if (start < limit) {
+                    ++lineCount;
+                    if (parseLine(start, trim(start, limit))) {
+                        ++count;
+                        handler.onQuote(key, values[OPEN], values[HIGH], values[LOW], values[CLOSE], values[VOLUME]);
+                    }
+                }
+                return count;
+            } else {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    limit -= start;
+                    start = 0;
+                }
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                scan = limit;
+                final int read = is.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of lines read by the last call to parse(), whether or not they were quotes
+     * @return  the number of lines read
+     */
+    int lineCount() {
+        return lineCount;
+    }
+
+
+    /**
+     * Parses a single line, populating the key and values fields if it represents a quote
+     * @param from  the offset of the first byte in the line
+     * @param to    the offset after the last byte in the line, excluding any line terminator
+     * @return      true if the line is a quote, false if it should be skipped
+     */
+    protected abstract boolean parseLine(int from, int to);
+
+
+    /**
+     * Returns the end of a line excluding any trailing carriage return
+     * @param from  the offset of the first byte in the line
+     * @param to    the offset of the line terminator
+     * @return      the offset after the last byte of content
+     */
+    private int trim(int from, int to) {
+        return to > from && buffer[to - 1] == '\r' ? to - 1 : to;
+    }
+
+
+    /**
+     * Parses a decimal number, falling back to Double.parseDouble() for anything other than plain decimal notation
+     * @param from  the offset of the first byte of the number
+     * @param to    the offset after the last byte of the number
+     * @return      the parsed value, NaN for the missing value placeholder
+     * @throws NumberFormatException    if the bytes do not represent a number
+     */
+    protected double parseNumber(int from, int to) {
+        if (to - from == 1 && buffer[from] == '-') {
+            return Double.NaN;
+        } else if (to <= from) {
+            return fallback(from, to);
+        }
+        int index = from;
+        final boolean negative = buffer[index] == '-';
+        if (negative || buffer[index] == '+') {
+            ++index;
+        }
+        long mantissa = 0L;
+        int digits = 0;
+        int scale = -1;
+        boolean empty = true;
+        for (; index < to; ++index) {
+            final byte b = buffer[index];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                empty = false;
+                if (scale >= 0) ++scale;
+                if (mantissa > 0) ++digits;
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return fallback(from, to);
+            }
+        }
+        if (empty || digits > 15 || scale >= POWERS_OF_TEN.length) {
+            return fallback(from, to);
+        } else {
+            final double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+            return negative ? -value : value;
+        }
+    }
+
+
+    /**
+     * Parses a signed integer from the byte range specified
+     * @param from  the offset of the first byte of the number
+     * @param to    the offset after the last byte of the number
+     * @return      the parsed value
+     * @throws NumberFormatException    if the bytes do not represent an integer that fits in a long
+     */
+    protected long parseLong(int from, int to) {
+        final boolean negative = to > from && buffer[from] == '-';
+        int index = negative || (to > from && buffer[from] == '+') ? from + 1 : from;
+        if (index >= to || to - index > 18) {
+            return Long.parseLong(new String(buffer, from, to - from, StandardCharsets.US_ASCII));
+        }
+        long value = 0L;
+        for (; index < to; ++index) {
+            final int digit = buffer[index] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an integer: " + new String(buffer, from, to - from, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * Returns true if the byte range begins with the ASCII prefix specified
+     * @param from      the offset of the first byte in the range
+     * @param to        the offset after the last byte in the range
+     * @param prefix    the ASCII prefix
+     * @return          true if the range starts with the prefix
+     */
+    protected boolean startsWith(int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (buffer[from + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Parses a number the slow way, for inputs the fast path does not handle exactly
+     * @param from  the offset of the first byte of the number
+     * @param to    the offset after the last byte of the number
+     * @return      the parsed value
+     * @throws NumberFormatException    if the bytes do not represent a number
+     */
+    private double fallback(int from, int to) {
+        return Double.parseDouble(new String(buffer, from, to - from, StandardCharsets.US_ASCII));
+    }
+
+
+    /**
+     * Returns the index of the byte in the range specified
+     * @param bytes the bytes to search
+     * @param value the value to search for
+     * @param from  the offset to start from
+     * @param to    the offset to stop at, exclusive
+     * @return      the index of the byte, -1 if not found
+     */
+    static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
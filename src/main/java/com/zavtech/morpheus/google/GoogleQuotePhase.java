@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+/**
+ * An enum of the phases of a quote request that are timed when a GoogleQuoteMetricsListener is attached to a source
+ *
+ * Responses are parsed as they stream in, so download and parse overlap in wall clock time. Download is the time
+ * spent blocked reading the response body, and parse is the remainder of the scan, which includes inserting rows.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public enum GoogleQuotePhase {
+
+    /** Opening the request up to the point the response body is available */
+    CONNECT,
+
+    /** Blocking reads of the response body */
+    DOWNLOAD,
+
+    /** Scanning response lines and inserting the parsed rows */
+    PARSE,
+
+    /** Computing derived columns such as Change and ChangePercent */
+    DERIVE,
+
+    /** Creating the DataFrame from the parsed columns */
+    BUILD
+}
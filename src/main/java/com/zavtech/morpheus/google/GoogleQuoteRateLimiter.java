@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.concurrent.TimeUnit;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A token bucket rate limiter that smooths requests to a steady rate while allowing short bursts.
+ *
+ * Tokens accrue continuously at the configured rate up to the burst size, and each request takes one token,
+ * waiting for the next token to accrue if the bucket is empty.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteRateLimiter {
+
+    private double permitsPerSecond;
+    private double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Constructor
+     * @param permitsPerSecond  the sustained rate of requests per second
+     * @param burst             the max number of requests that can be issued back to back
+     */
+    public GoogleQuoteRateLimiter(double permitsPerSecond, int burst) {
+        Asserts.assertTrue(permitsPerSecond > 0d, "The permits per second must be > 0");
+        Asserts.assertTrue(burst > 0, "The burst must be > 0");
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Returns the sustained rate of requests per second for this limiter
+     * @return  the permits per second
+     */
+    public synchronized double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Sets the sustained rate of requests per second for this limiter
+     * @param permitsPerSecond  the permits per second
+     */
+    public synchronized void setPermitsPerSecond(double permitsPerSecond) {
+        Asserts.assertTrue(permitsPerSecond > 0d, "The permits per second must be > 0");
+        this.refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    /**
+     * Takes a token if one is available without waiting
+     * @return  true if a token was taken
+     */
+    public synchronized boolean tryAcquire() {
+        this.refill(System.nanoTime());
+        if (tokens >= 1d) {
+            this.tokens -= 1d;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Takes a token, waiting for one to accrue if the bucket is empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            final long waitNanos;
+            synchronized (this) {
+                this.refill(System.nanoTime());
+                if (tokens >= 1d) {
+                    this.tokens -= 1d;
+                    return;
+                }
+                waitNanos = (long)Math.ceil((1d - tokens) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1000L));
+        }
+    }
+
+
+    /**
+     * Adds the tokens accrued since the last refill, up to the burst size
+     * @param now   the current value of System.nanoTime()
+     */
+    private void refill(long now) {
+        final double elapsedSeconds = (now - lastRefill) / 1e9d;
+        this.tokens = Math.min(burst, tokens + elapsedSeconds * permitsPerSecond);
+        this.lastRefill = now;
+    }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The performance metrics of a single read request, which are passed to a GoogleQuoteMetricsListener on completion
+ *
+ * Metrics are only collected when a listener is attached to the source. A request served from a cache records no
+ * network activity, and a request split into windows sums the counts and timings across the windows, so phase
+ * timings can then exceed the elapsed time of the request.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteRequestMetrics {
+
+    private static final GoogleQuotePhase[] PHASES = GoogleQuotePhase.values();
+
+    private String source;
+    private String ticker;
+    private long startNanos;
+    private long totalNanos;
+    private int rowCount;
+    private Throwable failure;
+    private AtomicLongArray phaseNanos = new AtomicLongArray(PHASES.length);
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong bytesReceived = new AtomicLong();
+    private AtomicLong linesRead = new AtomicLong();
+    private AtomicLong linesMatched = new AtomicLong();
+    private AtomicLong capacityGrowths = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param source    the name of the source, either history or intraday
+     * @param ticker    the ticker reference
+     */
+    GoogleQuoteRequestMetrics(String source, String ticker) {
+        this.source = source;
+        this.ticker = ticker;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the name of the source that served the request
+     * @return  the source name, either history or intraday
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the ticker for the request
+     * @return  the ticker reference
+     */
+    public String getTicker() {
+        return ticker;
+    }
+
+    /**
+     * Returns true if the request produced a frame
+     * @return  true if there was no failure
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * Returns the failure for the request
+     * @return  the failure, empty if the request succeeded
+     */
+    public Optional<Throwable> getFailure() {
+        return Optional.ofNullable(failure);
+    }
+
+    /**
+     * Returns the elapsed time of the request from start to finish
+     * @return  the elapsed time in nanos
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the time spent in the phase specified
+     * @param phase the request phase
+     * @return      the time in nanos
+     */
+    public long getNanos(GoogleQuotePhase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * Returns the number of requests issued through the transport, which is zero when served from a cache
+     * @return  the number of requests issued
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of response bytes read, after any decompression by the transport
+     * @return  the bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the number of response lines read, including headers
+     * @return  the lines read
+     */
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    /**
+     * Returns the number of response lines that were parsed as quotes
+     * @return  the lines matched
+     */
+    public long getLinesMatched() {
+        return linesMatched.get();
+    }
+
+    /**
+     * Returns the number of response lines that were skipped, such as headers and session markers
+     * @return  the lines rejected
+     */
+    public long getLinesRejected() {
+        return linesRead.get() - linesMatched.get();
+    }
+
+    /**
+     * Returns the number of rows in the frame produced
+     * @return  the row count
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of times a row buffer had to grow because it was under-sized for the response
+     * @return  the number of capacity growths
+     */
+    public long getCapacityGrowths() {
+        return capacityGrowths.get();
+    }
+
+    /**
+     * Adds to the time spent in the phase specified
+     * @param phase the request phase
+     * @param nanos the time in nanos
+     */
+    void addNanos(GoogleQuotePhase phase, long nanos) {
+        this.phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    /**
+     * Adds to the number of capacity growths
+     * @param buffer    the buffer the rows were parsed into
+     */
+    void addGrowths(GoogleQuoteBuffer buffer) {
+        this.capacityGrowths.addAndGet(buffer.growCount());
+    }
+
+    /**
+     * Records the outcome of the request
+     * @param rowCount  the number of rows produced
+     * @param failure   the failure, null if the request succeeded
+     */
+    void complete(int rowCount, Throwable failure) {
+        this.rowCount = rowCount;
+        this.failure = failure;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+
+    /**
+     * Opens a stream and parses it to the handler, recording phase timings and counts when metrics are enabled
+     * @param metrics   the metrics for the request, null if not enabled
+     * @param opener    the function to open the response stream
+     * @param parser    the parser for the response
+     * @param handler   the handler to receive quotes
+     * @return          the number of quotes passed to the handler
+     * @throws IOException  if the request fails
+     */
+    static int parse(GoogleQuoteRequestMetrics metrics, Opener opener, GoogleQuoteParser parser, GoogleQuoteHandler handler) throws IOException {
+        if (metrics == null) {
+            try (InputStream is = opener.open()) {
+                return parser.parse(is, handler);
+            }
+        } else {
+            final long start = System.nanoTime();
+            metrics.requestCount.incrementAndGet();
+            try (MeteredInputStream is = new MeteredInputStream(opener.open())) {
+                final long opened = System.nanoTime();
+                metrics.addNanos(GoogleQuotePhase.CONNECT, opened - start);
+                try {
+                    final int count = parser.parse(is, handler);
+                    metrics.linesMatched.addAndGet(count);
+                    return count;
+                } finally {
+                    metrics.addNanos(GoogleQuotePhase.DOWNLOAD, is.readNanos);
+                    metrics.addNanos(GoogleQuotePhase.PARSE, System.nanoTime() - opened - is.readNanos);
+                    metrics.bytesReceived.addAndGet(is.byteCount);
+                    metrics.linesRead.addAndGet(parser.lineCount());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A function that opens the response stream for a request
+     */
+    @FunctionalInterface
+    interface Opener {
+
+        /**
+         * Returns the response stream for the request
+         * @return  the response stream
+         * @throws IOException  if the request fails
+         */
+        InputStream open() throws IOException;
+    }
+
+
+    /**
+     * A stream that counts the bytes read through it and the time spent blocked reading them
+     */
+    private static class MeteredInputStream extends FilterInputStream {
+
+        private long byteCount;
+        private long readNanos;
+
+        /**
+         * Constructor
+         * @param is    the response stream
+         */
+        MeteredInputStream(InputStream is) {
+            super(is);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            final int value = super.read();
+            this.readNanos += System.nanoTime() - start;
+            if (value >= 0) ++byteCount;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            final long start = System.nanoTime();
+            final int count = super.read(bytes, offset, length);
+            this.readNanos += System.nanoTime() - start;
+            if (count > 0) byteCount += count;
+            return count;
+        }
+    }
+
+}
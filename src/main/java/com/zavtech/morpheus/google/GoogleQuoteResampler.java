@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.time.LocalTime;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A GoogleQuoteHandler that aggregates intraday bars into coarser bars as they are parsed, before they reach a buffer.
+ *
+ * Bars are keyed by local epoch second at the end of the interval they cover, and are grouped into buckets aligned
+ * to the session open, with the last bucket of the session cut at the session close. Bars outside the session are
+ * aligned to the open before it or the close after it in the same way. An interval of a day or more yields one bar
+ * per session keyed at the session close. Each output bar takes the first open, max high, min low, last close and
+ * summed volume of the bars it covers, ignoring missing values. Input bars must arrive in ascending key order, as
+ * they do from the getprices feed, and flush() must be called once the input is exhausted.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteResampler implements GoogleQuoteHandler {
+
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private long interval;
+    private long openSecond;
+    private long closeSecond;
+    private GoogleQuoteHandler handler;
+    private long bucket = Long.MIN_VALUE;
+    private double open;
+    private double high;
+    private double low;
+    private double close;
+    private double volume;
+
+    /**
+     * Constructor
+     * @param handler       the handler to receive resampled bars
+     * @param interval      the target interval in seconds, a day or more for one bar per session
+     * @param sessionOpen   the local session open time
+     * @param sessionClose  the local session close time
+     */
+    GoogleQuoteResampler(GoogleQuoteHandler handler, long interval, LocalTime sessionOpen, LocalTime sessionClose) {
+        Asserts.notNull(handler, "The handler cannot be null");
+        Asserts.assertTrue(interval > 0, "The resample interval must be > 0");
+        Asserts.assertTrue(sessionOpen.isBefore(sessionClose), "The session open must be before the session close");
+        this.handler = handler;
+        this.interval = interval;
+        this.openSecond = sessionOpen.toSecondOfDay();
+        this.closeSecond = sessionClose.toSecondOfDay();
+    }
+
+    /**
+     * Returns an estimate of the number of resampled bars per session, used to size buffers
+     * @param interval      the target interval in seconds
+     * @param sessionOpen   the local session open time
+     * @param sessionClose  the local session close time
+     * @return              the estimated bars per session
+     */
+    static int barsPerSession(long interval, LocalTime sessionOpen, LocalTime sessionClose) {
+        final long sessionLength = sessionClose.toSecondOfDay() - sessionOpen.toSecondOfDay();
+        return (int)Math.min(391L, (sessionLength + interval - 1) / interval + 1);
+    }
+
+    /**
+     * Returns the key of the bucket that a bar belongs to
+     * @param key   the bar key, as a local epoch second at the end of the bar
+     * @return      the bucket key, as a local epoch second at the end of the bucket
+     */
+    long bucketOf(long key) {
+        final long day = Math.floorDiv(key, SECONDS_PER_DAY);
+        final long second = key - day * SECONDS_PER_DAY;
+        final long start = day * SECONDS_PER_DAY;
+        if (interval >= SECONDS_PER_DAY) {
+            return start + closeSecond;
+        } else if (second <= closeSecond) {
+            final long steps = Math.floorDiv(second - openSecond + interval - 1, interval);
+            return start + Math.min(openSecond + steps * interval, closeSecond);
+        } else {
+            final long steps = (second - closeSecond + interval - 1) / interval;
+            return start + closeSecond + steps * interval;
+        }
+    }
+
+    @Override
+    public boolean onQuote(long key, double open, double high, double low, double close, double volume) {
+        final long bucket = bucketOf(key);
+        if (bucket != this.bucket) {
+            if (!flush()) {
+                return false;
+            }
+            this.bucket = bucket;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.volume = volume;
+        } else {
+            if (Double.isNaN(this.open)) this.open = open;
+            if (!Double.isNaN(high) && !(high <= this.high)) this.high = high;
+            if (!Double.isNaN(low) && !(low >= this.low)) this.low = low;
+            if (!Double.isNaN(close)) this.close = close;
+            if (!Double.isNaN(volume)) this.volume = Double.isNaN(this.volume) ? volume : this.volume + volume;
+        }
+        return true;
+    }
+
+    /**
+     * Passes the bar accumulated so far to the handler, if any
+     * @return  false if the handler requested that parsing stop
+     */
+    boolean flush() {
+        if (bucket == Long.MIN_VALUE) {
+            return true;
+        } else {
+            final long key = bucket;
+            this.bucket = Long.MIN_VALUE;
+            return handler.onQuote(key, open, high, low, close, volume);
+        }
+    }
+
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import com.zavtech.morpheus.frame.DataFrameSource;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A scheduler that fans quote requests for many tickers out to one of the Google sources without overwhelming it.
+ *
+ * Requests are dispatched in priority order through a token bucket rate limiter, and the number in flight is
+ * governed by an adaptive limit: it grows by roughly one for every window of healthy responses and halves when a
+ * request fails or responds slower than the slow threshold, so throughput settles at whatever the upstream will
+ * sustain. The limit halves at most once per congestion window, meaning that failures of requests dispatched
+ * before the last decrease are ignored, so a burst of concurrent failures halves it once rather than collapsing it. Transient failures, meaning HTTP 429 or 5xx statuses and other I/O errors, are retried with exponential
+ * backoff and jitter, while permanent failures such as a 404 are reported immediately. An optional deadline bounds
+ * the time spent on each ticker across all of its attempts, so no retry is scheduled that would start after it; each
+ * individual attempt is bounded by the connect and read timeouts of the transport. As with the batch loader, each
+ * ticker yields either a frame or the failure from its last attempt.
+ *
+ * Any use of the extracted data from this software should adhere to Google Terms and Conditions.
+ *
+ * @param <R>   the row key type of frames produced by the source
+ * @param <O>   the options type of the source
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteScheduler<R,O extends DataFrameSource.Options<R,String>> {
+
+    private DataFrameSource<R,String,O> source;
+    private GoogleQuoteRateLimiter rateLimiter = new GoogleQuoteRateLimiter(20d, 20);
+    private int minConcurrency = 1;
+    private int maxConcurrency = 64;
+    private double concurrencyLimit = 4d;
+    private long dispatchCount;
+    private long recoveryPoint;
+    private int maxRetries = 3;
+    private Duration baseBackoff = Duration.ofMillis(200);
+    private Duration maxBackoff = Duration.ofSeconds(10);
+    private Duration slowThreshold = Duration.ofSeconds(5);
+    private Duration deadline;
+    private AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param source    the source to load quotes from
+     */
+    public GoogleQuoteScheduler(DataFrameSource<R,String,O> source) {
+        Asserts.notNull(source, "The source cannot be null");
+        this.source = source;
+    }
+
+    /**
+     * Sets the rate limiter that every request passes through
+     * @param rateLimiter   the rate limiter
+     */
+    public void setRateLimiter(GoogleQuoteRateLimiter rateLimiter) {
+        Asserts.notNull(rateLimiter, "The rate limiter cannot be null");
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Sets the bounds and starting point for the adaptive concurrency limit
+     * @param min       the min number of requests in flight
+     * @param initial   the initial number of requests in flight
+     * @param max       the max number of requests in flight
+     */
+    public synchronized void setConcurrency(int min, int initial, int max) {
+        Asserts.assertTrue(min > 0, "The min concurrency must be > 0");
+        Asserts.assertTrue(min <= initial && initial <= max, "The concurrency must satisfy min <= initial <= max");
+        this.minConcurrency = min;
+        this.maxConcurrency = max;
+        this.concurrencyLimit = initial;
+    }
+
+    /**
+     * Sets the retry policy for transient failures
+     * @param maxRetries    the max number of retries per ticker
+     * @param baseBackoff   the backoff before the first retry, which doubles for each subsequent retry
+     * @param maxBackoff    the cap on the backoff between retries
+     */
+    public void setRetries(int maxRetries, Duration baseBackoff, Duration maxBackoff) {
+        Asserts.assertTrue(maxRetries >= 0, "The max retries must be >= 0");
+        Asserts.notNull(baseBackoff, "The base backoff cannot be null");
+        Asserts.notNull(maxBackoff, "The max backoff cannot be null");
+        this.maxRetries = maxRetries;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Sets the response time above which a successful request is treated as a sign of congestion
+     * @param slowThreshold the slow response threshold
+     */
+    public void setSlowThreshold(Duration slowThreshold) {
+        Asserts.notNull(slowThreshold, "The slow threshold cannot be null");
+        this.slowThreshold = slowThreshold;
+    }
+
+    /**
+     * Sets the time allowed for each ticker from its first attempt, after which transient failures are no longer retried
+     * @param deadline  the deadline per ticker, null for no limit beyond the retry policy
+     */
+    public void setDeadline(Duration deadline) {
+        Asserts.assertTrue(deadline == null || (!deadline.isNegative() && !deadline.isZero()), "The deadline must be positive");
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the current adaptive concurrency limit
+     * @return  the max number of requests currently allowed in flight
+     */
+    public synchronized int getConcurrencyLimit() {
+        return (int)concurrencyLimit;
+    }
+
+    /**
+     * Returns the total number of retries issued by this scheduler
+     * @return  the retry count
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Loads quotes for all the tickers specified in the order given, blocking until every ticker has completed or failed
+     * @param tickers       the tickers to load quotes for
+     * @param configurator  the configurator to apply request options for each ticker
+     * @return              the results for the batch
+     */
+    public GoogleQuoteBatchLoader.Result<R> read(Collection<String> tickers, BiConsumer<String,O> configurator) {
+        return read(tickers, ticker -> 0, configurator);
+    }
+
+    /**
+     * Loads quotes for all the tickers specified, dispatching higher priority tickers first, including on retry
+     * @param tickers       the tickers to load quotes for
+     * @param priority      the function that returns the priority of a ticker, where higher is more urgent
+     * @param configurator  the configurator to apply request options for each ticker
+     * @return              the results for the batch
+     */
+    public GoogleQuoteBatchLoader.Result<R> read(Collection<String> tickers, ToIntFunction<String> priority, BiConsumer<String,O> configurator) {
+        Asserts.notNull(tickers, "The tickers cannot be null");
+        Asserts.notNull(priority, "The priority function cannot be null");
+        Asserts.notNull(configurator, "The configurator cannot be null");
+        final Batch batch = new Batch(tickers, priority, configurator);
+        final ExecutorService executor = createExecutor(Math.max(1, Math.min(maxConcurrency, tickers.size())));
+        try {
+            while (true) {
+                final Task task = batch.next();
+                if (task == null) {
+                    return new GoogleQuoteBatchLoader.Result<>(tickers, batch.frames, batch.failures);
+                } else {
+                    rateLimiter.acquire();
+                    try {
+                        executor.execute(() -> batch.run(task));
+                    } catch (RejectedExecutionException ex) {
+                        batch.failures.put(task.ticker, ex);
+                        batch.complete(null);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataFrameException("Interrupted while loading quotes for " + tickers.size() + " tickers", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns the executor to run the requests of a single call to read, which is shut down when the call returns
+     * @param threads   the max number of requests that can be in flight
+     * @return          the newly created executor
+     */
+    ExecutorService createExecutor(int threads) {
+        return GoogleQuoteBatchLoader.createExecutor(threads);
+    }
+
+
+    /**
+     * Returns true if the failure is likely to be transient and worth retrying
+     * @param error the failure raised by the source
+     * @return      true if the failure is transient
+     */
+    static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof GoogleQuoteHttpException) {
+                final int statusCode = ((GoogleQuoteHttpException)cause).getStatusCode();
+                return statusCode == 429 || statusCode == 408 || statusCode >= 500;
+            } else if (cause instanceof FileNotFoundException) {
+                return false;
+            } else if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the backoff before a retry, which grows exponentially with half of it randomized
+     * @param attempt   the number of attempts made so far
+     * @return          the backoff in nanos
+     */
+    private long backoffNanos(int attempt) {
+        final long base = baseBackoff.toNanos();
+        final long cap = maxBackoff.toNanos();
+        final long delay = Math.min(cap, base << Math.min(attempt - 1, 30));
+        final long half = Math.max(1L, delay / 2);
+        return half + ThreadLocalRandom.current().nextLong(half);
+    }
+
+    /**
+     * Grows the concurrency limit additively after a healthy response
+     */
+    private synchronized void onHealthy() {
+        this.concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1d / concurrencyLimit);
+    }
+
+    /**
+     * Returns the sequence number for a request that is about to be dispatched
+     * @return  the dispatch sequence number
+     */
+    private synchronized long onDispatch() {
+        return dispatchCount++;
+    }
+
+    /**
+     * Shrinks the concurrency limit multiplicatively after a failure or slow response, once per congestion window
+     * @param sequence  the dispatch sequence number of the request that signalled congestion
+     */
+    private synchronized void onCongested(long sequence) {
+        if (sequence >= recoveryPoint) {
+            this.concurrencyLimit = Math.max(minConcurrency, concurrencyLimit / 2d);
+            this.recoveryPoint = dispatchCount;
+        }
+    }
+
+
+    /**
+     * A request for a ticker, which may be attempted several times
+     */
+    private static class Task {
+
+        private String ticker;
+        private int priority;
+        private long sequence;
+        private int attempts;
+        private long firstStarted;
+        private long readyAt;
+        private long dispatched;
+
+        /**
+         * Constructor
+         * @param ticker    the ticker reference
+         * @param priority  the ticker priority, higher is more urgent
+         * @param sequence  the submission sequence, used to break ties in priority
+         */
+        Task(String ticker, int priority, long sequence) {
+            this.ticker = ticker;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+
+    /**
+     * The state of a single call to read, which hands tasks to the dispatching thread as capacity allows
+     */
+    private class Batch {
+
+        private int remaining;
+        private int inFlight;
+        private BiConsumer<String,O> configurator;
+        private ReentrantLock lock = new ReentrantLock();
+        private Condition changed = lock.newCondition();
+        private Map<String,DataFrame<R,String>> frames = new ConcurrentHashMap<>();
+        private Map<String,Throwable> failures = new ConcurrentHashMap<>();
+        private PriorityQueue<Task> ready = new PriorityQueue<>(Comparator.<Task>comparingInt(t -> -t.priority).thenComparingLong(t -> t.sequence));
+        private PriorityQueue<Task> delayed = new PriorityQueue<>(Comparator.comparingLong(t -> t.readyAt));
+
+        /**
+         * Constructor
+         * @param tickers       the tickers to load
+         * @param priority      the function that returns the priority of a ticker
+         * @param configurator  the configurator to apply request options for each ticker
+         */
+        Batch(Collection<String> tickers, ToIntFunction<String> priority, BiConsumer<String,O> configurator) {
+            this.configurator = configurator;
+            tickers.stream().distinct().forEach(ticker -> ready.add(new Task(ticker, priority.applyAsInt(ticker), ready.size())));
+            this.remaining = ready.size();
+        }
+
+        /**
+         * Waits until a task is ready and there is capacity to run it
+         * @return  the next task to run, null once every ticker has completed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        Task next() throws InterruptedException {
+            lock.lock();
+            try {
+                while (true) {
+                    final long now = System.nanoTime();
+                    while (!delayed.isEmpty() && delayed.peek().readyAt - now <= 0L) {
+                        ready.add(delayed.poll());
+                    }
+                    if (remaining == 0) {
+                        return null;
+                    } else if (!ready.isEmpty() && inFlight < getConcurrencyLimit()) {
+                        this.inFlight++;
+                        return ready.poll();
+                    } else if (!delayed.isEmpty()) {
+                        changed.awaitNanos(Math.max(delayed.peek().readyAt - now, 1000L));
+                    } else {
+                        changed.await(100, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Runs a task, recording its outcome or scheduling a retry
+         * @param task  the task to run
+         */
+        void run(Task task) {
+            final long started = System.nanoTime();
+            task.dispatched = onDispatch();
+            if (task.attempts++ == 0) {
+                task.firstStarted = started;
+            }
+            try {
+                final DataFrame<R,String> frame = source.read(options -> configurator.accept(task.ticker, options));
+                if (System.nanoTime() - started > slowThreshold.toNanos()) {
+                    onCongested(task.dispatched);
+                } else {
+                    onHealthy();
+                }
+                this.frames.put(task.ticker, frame);
+                this.complete(null);
+            } catch (Throwable t) {
+                final boolean transientFailure = isTransient(t);
+                final long readyAt = System.nanoTime() + backoffNanos(task.attempts);
+                final Duration deadline = GoogleQuoteScheduler.this.deadline;
+                final boolean beforeDeadline = deadline == null || readyAt - task.firstStarted < deadline.toNanos();
+                if (transientFailure) {
+                    onCongested(task.dispatched);
+                }
+                if (transientFailure && task.attempts <= maxRetries && beforeDeadline) {
+                    retryCount.incrementAndGet();
+                    task.readyAt = readyAt;
+                    this.complete(task);
+                } else {
+                    this.failures.put(task.ticker, t);
+                    this.complete(null);
+                }
+            }
+        }
+
+        /**
+         * Releases the capacity held by a task and either finishes it or queues it for retry
+         * @param retry the task to retry, null if the task is finished
+         */
+        void complete(Task retry) {
+            lock.lock();
+            try {
+                this.inFlight--;
+                if (retry != null) {
+                    this.delayed.add(retry);
+                } else {
+                    this.remaining--;
+                }
+                this.changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
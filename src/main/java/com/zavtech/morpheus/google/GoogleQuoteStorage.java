@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import com.zavtech.morpheus.array.Array;
+
+/**
+ * An enum of the column storage schemes available for quote frames, which trade precision for heap footprint
+ *
+ * Missing prices are NaN in either scheme, while missing volumes are stored as zero in the compact scheme given
+ * that a long column has no representation for a missing value.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public enum GoogleQuoteStorage {
+
+    /** Every column is stored as a 64-bit double, which is the default */
+    DOUBLE,
+
+    /** Prices and derived columns are stored as 32-bit floats and volume as a 64-bit long, which halves price columns */
+    COMPACT;
+
+    /**
+     * Returns an array for a price or derived column in this storage scheme
+     * @param values    the column values
+     * @return          the array for the column
+     */
+    Array<?> prices(double[] values) {
+        switch (this) {
+            case DOUBLE:
+                return Array.of(values);
+            default:
+                final float[] result = new float[values.length];
+                for (int i = 0; i < values.length; ++i) {
+                    result[i] = (float)values[i];
+                }
+                return Array.of(result);
+        }
+    }
+
+    /**
+     * Returns an array for the volume column in this storage scheme
+     * @param values    the column values
+     * @return          the array for the column
+     */
+    Array<?> volumes(double[] values) {
+        switch (this) {
+            case DOUBLE:
+                return Array.of(values);
+            default:
+                final long[] result = new long[values.length];
+                for (int i = 0; i < values.length; ++i) {
+                    final double value = values[i];
+                    result[i] = Double.isNaN(value) ? 0L : (long)value;
+                }
+                return Array.of(result);
+        }
+    }
+
+}
@@ -0,0 +1,628 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A directory of binary columnar files holding quote frames, which are memory mapped for reading.
+ *
+ * Each file holds one ticker at one frequency. It starts with a fixed size header, which includes the range of keys
+ * the file covers so that gaps such as weekends at either end are not mistaken for missing data, followed by the row keys as
+ * contiguous longs, then the Open, High, Low, Close, Volume, Change and ChangePercent columns as contiguous doubles,
+ * all in little endian order. End of day keys are epoch days, and intraday keys are local epoch seconds. Readers map
+ * files through NIO and copy only the slice of each column that a request covers, so no text is parsed and files
+ * that are not touched cost nothing to open.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteStore {
+
+    private static final int MAGIC = 0x47515343;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int COLUMN_COUNT = 7;
+    private static final int CHANGE = 5;
+    private static final int CHANGE_PERCENT = 6;
+    private static final String[] COLUMNS = { "Open", "High", "Low", "Close", "Volume", "Change", "ChangePercent" };
+
+    private File directory;
+    private ConcurrentHashMap<File,Mapping> mappings = new ConcurrentHashMap<>();
+
+    /**
+     * The frequency of quotes in a store file, which determines how keys are encoded
+     */
+    enum Frequency {
+
+        DAILY(".gqd", 1L),
+        INTRADAY(".gqi", 86400L);
+
+        private String suffix;
+        private long sessionLength;
+
+        Frequency(String suffix, long sessionLength) {
+            this.suffix = suffix;
+            this.sessionLength = sessionLength;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param directory the directory to store files in, which is created if it does not exist
+     */
+    public GoogleQuoteStore(File directory) {
+        Asserts.notNull(directory, "The store directory cannot be null");
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create store directory: " + directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Returns the directory for this store
+     * @return  the store directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns true if this store holds end of day quotes for the ticker
+     * @param ticker    the ticker reference
+     * @return          true if end of day quotes exist
+     */
+    public boolean containsHistory(String ticker) {
+        return fileFor(ticker, Frequency.DAILY).exists();
+    }
+
+    /**
+     * Returns true if this store holds intraday quotes for the ticker
+     * @param ticker    the ticker reference
+     * @return          true if intraday quotes exist
+     */
+    public boolean containsIntraday(String ticker) {
+        return fileFor(ticker, Frequency.INTRADAY).exists();
+    }
+
+    /**
+     * Writes an end of day quote frame, as produced by GoogleQuoteHistorySource, replacing any existing data for the ticker
+     * @param ticker    the ticker reference
+     * @param frame     the quote frame
+     * @throws IOException  if the file cannot be written
+     */
+    public void writeHistory(String ticker, DataFrame<LocalDate,String> frame) throws IOException {
+        final long[] keys = new long[frame.rowCount()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = frame.rows().key(i).toEpochDay();
+        }
+        write(ticker, Frequency.DAILY, keys, columns(frame));
+    }
+
+    /**
+     * Writes an end of day quote frame for the date range it was requested for, replacing any existing data for the ticker
+     * Reads that fall within the range are then served entirely from the store, even where the frame has no rows at either end.
+     * @param ticker    the ticker reference
+     * @param start     the start date the frame was requested for, inclusive
+     * @param end       the end date the frame was requested for, inclusive
+     * @param frame     the quote frame
+     * @throws IOException  if the file cannot be written
+     */
+    public void writeHistory(String ticker, LocalDate start, LocalDate end, DataFrame<LocalDate,String> frame) throws IOException {
+        Asserts.assertTrue(!start.isAfter(end), "The start date must not be after the end date");
+        final long[] keys = new long[frame.rowCount()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = frame.rows().key(i).toEpochDay();
+        }
+        write(ticker, Frequency.DAILY, keys, columns(frame), start.toEpochDay(), end.toEpochDay());
+    }
+
+    /**
+     * Writes an intraday quote frame, as produced by GoogleQuoteIntradaySource, replacing any existing data for the ticker
+     * @param ticker    the ticker reference
+     * @param frame     the quote frame
+     * @throws IOException  if the file cannot be written
+     */
+    public void writeIntraday(String ticker, DataFrame<LocalDateTime,String> frame) throws IOException {
+        final long[] keys = new long[frame.rowCount()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = frame.rows().key(i).toEpochSecond(ZoneOffset.UTC);
+        }
+        write(ticker, Frequency.INTRADAY, keys, columns(frame));
+    }
+
+    /**
+     * Returns end of day quotes for the ticker and date range
+     * @param ticker    the ticker reference
+     * @param start     the start date, inclusive
+     * @param end       the end date, inclusive
+     * @return          the quote frame, empty if the store has no data for the ticker
+     * @throws IOException  if the file cannot be read
+     */
+    public Optional<DataFrame<LocalDate,String>> readHistory(String ticker, LocalDate start, LocalDate end) throws IOException {
+        final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(GoogleQuoteDerivations.DEFAULT_COLUMNS, 20, 1L);
+        return Optional.ofNullable(read(ticker, Frequency.DAILY, start.toEpochDay(), end.toEpochDay()))
+            .map(slice -> slice.toFrame(LocalDate.class, LocalDate::ofEpochDay, derivations, GoogleQuoteStorage.DOUBLE));
+    }
+
+    /**
+     * Returns intraday quotes for the most recent sessions held for the ticker
+     * @param ticker    the ticker reference
+     * @param dayCount  the number of sessions to return
+     * @return          the quote frame, empty if the store has no data for the ticker
+     * @throws IOException  if the file cannot be read
+     */
+    public Optional<DataFrame<LocalDateTime,String>> readIntraday(String ticker, int dayCount) throws IOException {
+        final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(GoogleQuoteDerivations.DEFAULT_COLUMNS, 20, 86400L);
+        return Optional.ofNullable(readSessions(ticker, dayCount))
+            .map(slice -> slice.toFrame(LocalDateTime.class, key -> LocalDateTime.ofEpochSecond(key, 0, ZoneOffset.UTC), derivations, GoogleQuoteStorage.DOUBLE));
+    }
+
+
+    /**
+     * Returns a slice of the file for the ticker covering the key range specified
+     * @param ticker        the ticker reference
+     * @param frequency     the quote frequency
+     * @param fromKey       the lower bound key, inclusive
+     * @param toKey         the upper bound key, inclusive
+     * @return              the slice, null if the store has no file for the ticker
+     * @throws IOException  if the file cannot be read
+     */
+    Slice read(String ticker, Frequency frequency, long fromKey, long toKey) throws IOException {
+        final ByteBuffer buffer = map(fileFor(ticker, frequency));
+        if (buffer == null) {
+            return null;
+        } else {
+            final int rowCount = buffer.getInt(12);
+            final LongBuffer keys = keys(buffer, rowCount);
+            final int from = search(keys, rowCount, fromKey);
+            final int to = search(keys, rowCount, toKey == Long.MAX_VALUE ? toKey : toKey + 1);
+            return new Slice(buffer, rowCount, from, to);
+        }
+    }
+
+
+    /**
+     * Returns a slice of the intraday file for the ticker covering the most recent sessions
+     * @param ticker        the ticker reference
+     * @param dayCount      the number of sessions
+     * @return              the slice, null if the store has no file for the ticker
+     * @throws IOException  if the file cannot be read
+     */
+    Slice readSessions(String ticker, int dayCount) throws IOException {
+        final ByteBuffer buffer = map(fileFor(ticker, Frequency.INTRADAY));
+        if (buffer == null) {
+            return null;
+        } else {
+            int sessions = 0;
+            int from = buffer.getInt(12);
+            final LongBuffer keys = keys(buffer, from);
+            long session = Long.MIN_VALUE;
+            while (from > 0) {
+                final long candidate = Math.floorDiv(keys.get(from - 1), Frequency.INTRADAY.sessionLength);
+                if (candidate != session) {
+                    if (sessions == dayCount) break;
+                    session = candidate;
+                    ++sessions;
+                }
+                --from;
+            }
+            final int rowCount = buffer.getInt(12);
+            return new Slice(buffer, rowCount, from, rowCount);
+        }
+    }
+
+
+    /**
+     * Returns the store file for the ticker and frequency specified
+     * @param ticker    the ticker reference
+     * @param frequency the quote frequency
+     * @return          the store file
+     */
+    private File fileFor(String ticker, Frequency frequency) {
+        return GoogleQuoteFiles.fileFor(directory, ticker, frequency.suffix);
+    }
+
+
+    /**
+     * Returns a little endian view of the memory mapped file, mapping it on first access or whenever it has changed
+     *
+     * A cached mapping is reused only while the file key, last modified time and size of the file are unchanged, so
+     * files replaced by this or any other store instance, or by another process, are re-mapped on the next read.
+     *
+     * @param file  the store file
+     * @return      the mapped buffer, or null if the file does not exist
+     * @throws IOException  if the file cannot be mapped or is not a valid store file
+     */
+    private ByteBuffer map(File file) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            mappings.remove(file);
+            return null;
+        }
+        Mapping mapping = mappings.get(file);
+        if (mapping == null || !mapping.matches(attributes)) {
+            final MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException ex) {
+                mappings.remove(file);
+                return null;
+            }
+            final ByteBuffer header = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (header.limit() < HEADER_BYTES || header.getInt(0) != MAGIC || header.getInt(4) < 1 || header.getInt(4) > VERSION) {
+                throw new IOException("Not a valid quote store file: " + file.getAbsolutePath());
+            }
+            mapping = new Mapping(mapped, attributes);
+            mappings.put(file, mapping);
+        }
+        return mapping.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Writes quotes for a ticker, replacing any existing file atomically, with the file covering the keys written
+     * @param ticker    the ticker reference
+     * @param frequency the quote frequency
+     * @param keys      the primitive row keys in ascending order
+     * @param columns   the Open, High, Low, Close, Volume, Change and ChangePercent columns
+     * @throws IOException  if the file cannot be written
+     */
+    void write(String ticker, Frequency frequency, long[] keys, double[][] columns) throws IOException {
+        final long fromKey = keys.length > 0 ? keys[0] : 0L;
+        final long toKey = keys.length > 0 ? keys[keys.length - 1] : 0L;
+        write(ticker, frequency, keys, columns, fromKey, toKey);
+    }
+
+
+    /**
+     * Writes quotes for a ticker, replacing any existing file atomically
+     * @param ticker    the ticker reference
+     * @param frequency the quote frequency
+     * @param keys      the primitive row keys in ascending order
+     * @param columns   the Open, High, Low, Close, Volume, Change and ChangePercent columns
+     * @param fromKey   the first key covered by the file, which is widened to include the first row if necessary
+     * @param toKey     the last key covered by the file, which is widened to include the last row if necessary
+     * @throws IOException  if the file cannot be written
+     */
+    void write(String ticker, Frequency frequency, long[] keys, double[][] columns, long fromKey, long toKey) throws IOException {
+        final int rowCount = keys.length;
+        final File file = fileFor(ticker, frequency);
+        final File temp = new File(directory, file.getName() + ".tmp");
+        final long size = HEADER_BYTES + (long)rowCount * 8L * (1 + COLUMN_COUNT);
+        Asserts.assertTrue(columns.length == COLUMN_COUNT, "Expected " + COLUMN_COUNT + " columns");
+        Asserts.assertTrue(size <= Integer.MAX_VALUE, "Too many rows for a single store file: " + rowCount);
+        final long coveredFrom = rowCount > 0 ? Math.min(fromKey, keys[0]) : fromKey;
+        final long coveredTo = rowCount > 0 ? Math.max(toKey, keys[rowCount - 1]) : toKey;
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(COLUMN_COUNT).putInt(rowCount);
+            buffer.putLong(coveredFrom).putLong(coveredTo);
+            buffer.position(HEADER_BYTES);
+            buffer.asLongBuffer().put(keys);
+            buffer.position(HEADER_BYTES + rowCount * 8);
+            final DoubleBuffer values = buffer.asDoubleBuffer();
+            for (double[] column : columns) {
+                values.put(column, 0, rowCount);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mappings.remove(file);
+    }
+
+
+    /**
+     * Returns the stored columns of a quote frame as primitive arrays, with NaN for any column the frame lacks
+     * @param frame the quote frame
+     * @return      the Open, High, Low, Close, Volume, Change and ChangePercent columns
+     */
+    static double[][] columns(DataFrame<?,String> frame) {
+        final int rowCount = frame.rowCount();
+        final double[][] columns = new double[COLUMN_COUNT][rowCount];
+        for (int j = 0; j < COLUMN_COUNT; ++j) {
+            if (!frame.cols().contains(COLUMNS[j])) {
+                Arrays.fill(columns[j], Double.NaN);
+            } else {
+                final int ordinal = frame.cols().ordinalOf(COLUMNS[j]);
+                for (int i = 0; i < rowCount; ++i) {
+                    columns[j][i] = frame.data().getDouble(i, ordinal);
+                }
+            }
+        }
+        return columns;
+    }
+
+
+    /**
+     * Returns a view of the keys in a mapped file
+     * @param buffer    the mapped buffer
+     * @param rowCount  the row count
+     * @return          the view of keys
+     */
+    private static LongBuffer keys(ByteBuffer buffer, int rowCount) {
+        return ((ByteBuffer)buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(HEADER_BYTES).limit(HEADER_BYTES + rowCount * 8)).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+
+    /**
+     * Returns the index of the first key that is >= the key specified
+     * @param keys      the ascending keys
+     * @param rowCount  the number of keys
+     * @param key       the key to search for
+     * @return          the insertion point of the key
+     */
+    private static int search(LongBuffer keys, int rowCount, long key) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keys.get(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * A memory mapped store file along with the attributes of the file at the time it was mapped
+     */
+    private static class Mapping {
+
+        private Object fileKey;
+        private long size;
+        private FileTime lastModified;
+        private MappedByteBuffer buffer;
+
+        /**
+         * Constructor
+         * @param buffer        the mapped buffer
+         * @param attributes    the file attributes read before the file was mapped
+         */
+        Mapping(MappedByteBuffer buffer, BasicFileAttributes attributes) {
+            this.buffer = buffer;
+            this.size = attributes.size();
+            this.fileKey = attributes.fileKey();
+            this.lastModified = attributes.lastModifiedTime();
+        }
+
+        /**
+         * Returns true if this mapping is still current for a file with the attributes specified
+         * @param attributes    the current file attributes
+         * @return              true if the mapping can be reused
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && Objects.equals(fileKey, attributes.fileKey()) && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+
+
+    /**
+     * A range of rows in a mapped store file, which is copied into a frame on demand
+     */
+    static class Slice {
+
+        private int from;
+        private int to;
+        private int rowCount;
+        private ByteBuffer buffer;
+
+        /**
+         * Constructor
+         * @param buffer        the mapped buffer
+         * @param rowCount      the total row count in the file
+         * @param from          the first row in the slice, inclusive
+         * @param to            the last row in the slice, exclusive
+         */
+        Slice(ByteBuffer buffer, int rowCount, int from, int to) {
+            this.buffer = buffer;
+            this.rowCount = rowCount;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Returns the number of rows in this slice
+         * @return  the row count
+         */
+        int size() {
+            return to - from;
+        }
+
+        /**
+         * Returns true if the range of keys covered by the file this slice was taken from is known
+         * @return  true if the file records its covered range, or holds at least one row
+         */
+        boolean hasCoverage() {
+            return buffer.getInt(4) > 1 || rowCount > 0;
+        }
+
+        /**
+         * Returns the first key covered by the file this slice was taken from, which may precede the slice and the first row
+         * @return  the first covered key
+         */
+        long firstCoveredKey() {
+            return buffer.getInt(4) > 1 ? buffer.getLong(16) : GoogleQuoteStore.keys(buffer, rowCount).get(0);
+        }
+
+        /**
+         * Returns the last key covered by the file this slice was taken from, which may follow the slice and the last row
+         * @return  the last covered key
+         */
+        long lastCoveredKey() {
+            return buffer.getInt(4) > 1 ? buffer.getLong(24) : GoogleQuoteStore.keys(buffer, rowCount).get(rowCount - 1);
+        }
+
+        /**
+         * Returns the number of distinct sessions covered by this slice
+         * @param sessionLength the number of key units in a session
+         * @return              the session count
+         */
+        int sessionCount(long sessionLength) {
+            int count = 0;
+            long session = Long.MIN_VALUE;
+            final LongBuffer view = GoogleQuoteStore.keys(buffer, rowCount);
+            for (int i = from; i < to; ++i) {
+                final long candidate = Math.floorDiv(view.get(i), sessionLength);
+                if (candidate != session) {
+                    session = candidate;
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns the keys in this slice
+         * @return  the primitive keys
+         */
+        long[] keys() {
+            final long[] keys = new long[size()];
+            final LongBuffer view = GoogleQuoteStore.keys(buffer, rowCount);
+            view.position(from);
+            view.get(keys);
+            return keys;
+        }
+
+        /**
+         * Returns the values for a stored column in this slice
+         * @param column    the column index in the store layout
+         * @return          the column values
+         */
+        double[] column(int column) {
+            final double[] values = new double[size()];
+            final int offset = HEADER_BYTES + rowCount * 8 + column * rowCount * 8;
+            final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            view.position(offset + from * 8);
+            view.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+            return values;
+        }
+
+        /**
+         * Passes the quotes in this slice to the handler in ascending key order
+         * @param handler   the handler to receive quotes, which can return false to stop early
+         * @return          the number of quotes passed to the handler
+         */
+        int forEach(GoogleQuoteHandler handler) {
+            final long[] keys = keys();
+            final double[][] fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+            for (int i = 0; i < fields.length; ++i) {
+                fields[i] = column(i);
+            }
+            for (int i = 0; i < keys.length; ++i) {
+                final double open = fields[GoogleQuoteParser.OPEN][i];
+                final double high = fields[GoogleQuoteParser.HIGH][i];
+                final double low = fields[GoogleQuoteParser.LOW][i];
+                final double close = fields[GoogleQuoteParser.CLOSE][i];
+                final double volume = fields[GoogleQuoteParser.VOLUME][i];
+                if (!handler.onQuote(keys[i], open, high, low, close, volume)) {
+                    return i + 1;
+                }
+            }
+            return keys.length;
+        }
+
+        /**
+         * Returns a frame for this slice, using stored change columns where they hold values
+         *
+         * Change and ChangePercent are taken from the store when the stored column has any values, since those were
+         * computed against the bar before the slice. Otherwise they are computed here along with the other columns.
+         *
+         * @param keyType       the row key type
+         * @param keyMapper     the function to map primitive keys to row keys
+         * @param derivations   the derived columns to include
+         * @param storage       the column storage scheme
+         * @param <R>           the row key type
+         * @return              the newly created frame
+         */
+        <R> DataFrame<R,String> toFrame(Class<R> keyType, LongFunction<R> keyMapper, GoogleQuoteDerivations derivations, GoogleQuoteStorage storage) {
+            final long[] keys = keys();
+            final double[][] fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+            for (int i = 0; i < fields.length; ++i) {
+                fields[i] = column(i);
+            }
+            final GoogleQuoteDerivedColumn[] derived = derivations.columns();
+            final double[][] derivedValues = new double[derived.length][];
+            final List<GoogleQuoteDerivedColumn> computed = new ArrayList<>(derived.length);
+            for (int i = 0; i < derived.length; ++i) {
+                if (derived[i] == GoogleQuoteDerivedColumn.CHANGE) {
+                    derivedValues[i] = stored(CHANGE);
+                } else if (derived[i] == GoogleQuoteDerivedColumn.CHANGE_PERCENT) {
+                    derivedValues[i] = stored(CHANGE_PERCENT);
+                }
+                if (derivedValues[i] == null) {
+                    computed.add(derived[i]);
+                }
+            }
+            if (!computed.isEmpty()) {
+                final double[][] computedValues = derivations.select(computed).compute(keys, fields);
+                for (int i = 0, j = 0; i < derived.length; ++i) {
+                    if (derivedValues[i] == null) {
+                        derivedValues[i] = computedValues[j++];
+                    }
+                }
+            }
+            return GoogleQuoteBuffer.createFrame(keyType, keyMapper, keys, fields, derived, derivedValues, storage);
+        }
+
+        /**
+         * Returns the values of a stored change column in this slice, or null if the column holds no values
+         * @param column    the column index in the store layout
+         * @return          the column values, null if every value is NaN
+         */
+        private double[] stored(int column) {
+            final double[] values = column(column);
+            for (double value : values) {
+                if (!Double.isNaN(value)) {
+                    return values;
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * An interface to a transport that retrieves the raw response for a Google Finance request url.
+ *
+ * The sources expand their url templates and pass the resulting url to the transport, so swapping the transport
+ * changes how bytes are fetched without affecting how they are parsed. The default transport is an instance of
+ * GoogleQuoteHttpTransport, and tests substitute one that serves canned payloads in-process.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public interface GoogleQuoteTransport {
+
+    /**
+     * Returns a stream of the decoded response body for the url, which the caller must close
+     * @param url   the request url
+     * @return      the response body stream
+     * @throws IOException  if the request fails, or a GoogleQuoteHttpException for an error status
+     */
+    InputStream open(String url) throws IOException;
+
+    /**
+     * Returns the executor used to run asynchronous reads through this transport
+     * @return  the executor for asynchronous requests
+     */
+    default Executor executor() {
+        return GoogleQuoteHttpTransport.defaultExecutor();
+    }
+
+}
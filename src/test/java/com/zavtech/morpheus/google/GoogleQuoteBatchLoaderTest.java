@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the batch loader against a local stand-in for the Google Finance endpoints
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteBatchLoaderTest {
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+        this.server.setLatencyMillis(20);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testHistoryBatch() {
+        final LocalDate start = LocalDate.of(2012, 1, 1);
+        final LocalDate end = LocalDate.of(2014, 1, 1);
+        final List<String> tickers = tickers(40);
+        tickers.add(10, "FAIL1");
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuoteBatchLoader<LocalDate,GoogleQuoteHistorySource.Options> loader = new GoogleQuoteBatchLoader<>(source, 4);
+        final GoogleQuoteBatchLoader.Result<LocalDate> result = loader.read(tickers, (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        Assert.assertFalse(result.isSuccess(), "The batch contains a failed ticker");
+        Assert.assertEquals(result.frames().size(), 40, "There is a frame for every valid ticker");
+        Assert.assertEquals(result.failures().size(), 1, "There is one failure");
+        Assert.assertTrue(result.failure("FAIL1").isPresent(), "The failing ticker is reported");
+        Assert.assertTrue(server.getMaxInFlight() <= 4, "Concurrency limit was respected: " + server.getMaxInFlight());
+        result.frames().forEach((ticker, frame) -> {
+            Assert.assertTrue(frame.rowCount() > 500, "There are rows for " + ticker);
+            Assert.assertTrue(frame.rows().firstKey().get().compareTo(start) >= 0);
+            Assert.assertTrue(frame.rows().lastKey().get().compareTo(end) <= 0);
+        });
+    }
+
+
+    @Test()
+    public void testIntradayBatch() {
+        final List<String> tickers = tickers(20);
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+        final GoogleQuoteBatchLoader<LocalDateTime,GoogleQuoteIntradaySource.Options> loader = new GoogleQuoteBatchLoader<>(source, 8);
+        final GoogleQuoteBatchLoader.Result<LocalDateTime> result = loader.read(tickers, (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(2);
+        });
+        Assert.assertTrue(result.isSuccess(), "All tickers loaded");
+        Assert.assertEquals(result.frames().keySet(), tickers.stream().collect(Collectors.toSet()));
+        result.frames().values().forEach(frame -> Assert.assertEquals(frame.rowCount(), 780));
+    }
+
+
+    /**
+     * Returns a list of synthetic tickers
+     * @param count the number of tickers
+     * @return      the list of tickers
+     */
+    private List<String> tickers(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "TICK" + i).collect(Collectors.toList());
+    }
+}
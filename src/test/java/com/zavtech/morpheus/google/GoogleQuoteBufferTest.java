@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the primitive column buffer that quote frames are built from
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteBufferTest {
+
+    private GoogleQuoteDerivations changes = new GoogleQuoteDerivations(Arrays.asList(
+        GoogleQuoteDerivedColumn.CHANGE,
+        GoogleQuoteDerivedColumn.CHANGE_PERCENT
+    ), 20, 1L);
+
+    @DataProvider(name="directions")
+    public Object[][] directions() {
+        return new Object[][] { { true }, { false } };
+    }
+
+
+    @Test(dataProvider = "directions")
+    public void testOrderedFillAndGrowth(boolean reverse) {
+        final int count = 1000;
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(10, reverse);
+        IntStream.range(0, count).forEach(i -> {
+            final long key = reverse ? count - i : i + 1;
+            buffer.onQuote(key, key, key + 1, key - 1, key + 0.5d, key * 100);
+        });
+        Assert.assertEquals(buffer.size(), count);
+        Assert.assertTrue(buffer.capacity() >= count, "Buffer has grown");
+        IntStream.range(0, count).forEach(i -> {
+            Assert.assertEquals(buffer.key(i), i + 1L, "Keys are ascending");
+            Assert.assertEquals(buffer.value(i, GoogleQuoteParser.OPEN), i + 1d, 0d);
+            Assert.assertEquals(buffer.value(i, GoogleQuoteParser.CLOSE), i + 1.5d, 0d);
+            Assert.assertEquals(buffer.value(i, GoogleQuoteParser.VOLUME), (i + 1d) * 100, 0d);
+        });
+    }
+
+
+    @Test(dataProvider = "directions")
+    public void testUnorderedInput(boolean reverse) {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(4, reverse);
+        final long[] keys = { 5, 3, 9, 3, 1, 7 };
+        for (int i = 0; i < keys.length; ++i) {
+            buffer.onQuote(keys[i], i, i, i, i, i);
+        }
+        final DataFrame<LocalDate,String> frame = buffer.toDataFrame(LocalDate.class, LocalDate::ofEpochDay, changes, GoogleQuoteStorage.DOUBLE);
+        Assert.assertEquals(frame.rowCount(), 5, "Duplicate key is removed");
+        final long[] expected = { 1, 3, 5, 7, 9 };
+        IntStream.range(0, expected.length).forEach(i -> {
+            Assert.assertEquals(frame.rows().key(i), LocalDate.ofEpochDay(expected[i]));
+        });
+        Assert.assertEquals(frame.data().getDouble(LocalDate.ofEpochDay(3), "Open"), 1d, 0d, "First arrival is kept");
+    }
+
+
+    @Test()
+    public void testChanges() {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(16, true);
+        buffer.onQuote(3, 1, 1, 1, 12d, 1);
+        buffer.onQuote(2, 1, 1, 1, 11d, 1);
+        buffer.onQuote(1, 1, 1, 1, 10d, 1);
+        final DataFrame<LocalDate,String> frame = buffer.toDataFrame(LocalDate.class, LocalDate::ofEpochDay, changes, GoogleQuoteStorage.DOUBLE);
+        Assert.assertEquals(frame.rowCount(), 3);
+        Assert.assertTrue(Double.isNaN(frame.data().getDouble(0, "Change")), "No change for first row");
+        Assert.assertEquals(frame.data().getDouble(1, "Change"), 1d, 1e-12);
+        Assert.assertEquals(frame.data().getDouble(2, "ChangePercent"), 12d / 11d - 1d, 1e-12);
+    }
+
+
+    @Test()
+    public void testCompactStorage() {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(16, true);
+        buffer.onQuote(2, 1.25d, 1.5d, 1d, 11.1d, Double.NaN);
+        buffer.onQuote(1, 1.25d, 1.5d, 1d, 10d, 1200d);
+        final DataFrame<LocalDate,String> frame = buffer.toDataFrame(LocalDate.class, LocalDate::ofEpochDay, changes, GoogleQuoteStorage.COMPACT);
+        Assert.assertEquals(frame.rowCount(), 2);
+        Assert.assertEquals(frame.cols().type("Close"), Float.class, "Prices are stored as float");
+        Assert.assertEquals(frame.cols().type("Change"), Float.class, "Derived columns are stored as float");
+        Assert.assertEquals(frame.cols().type("Volume"), Long.class, "Volume is stored as long");
+        Assert.assertEquals(frame.data().getDouble(1, "Close"), 11.1d, 1e-6);
+        Assert.assertEquals(frame.data().getDouble(1, "Change"), 1.1d, 1e-6);
+        Assert.assertEquals(frame.data().getDouble(0, "Volume"), 1200d, 0d);
+        Assert.assertEquals(frame.data().getDouble(1, "Volume"), 0d, 0d, "Missing volume is stored as zero");
+    }
+}
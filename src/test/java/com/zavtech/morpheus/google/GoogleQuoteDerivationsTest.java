@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the single pass derived column engine, which is checked against naive implementations
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteDerivationsTest {
+
+    private static final int WINDOW = 10;
+
+    @DataProvider(name="sizes")
+    public Object[][] sizes() {
+        return new Object[][] { { 1 }, { 25 }, { 5000 }, { GoogleQuoteDerivations.PARALLEL_THRESHOLD + 10 } };
+    }
+
+
+    @Test(dataProvider = "sizes")
+    public void testAgainstNaiveImplementation(int size) {
+        final Random random = new Random(size);
+        final long[] keys = new long[size];
+        final double[][] fields = new double[5][size];
+        for (int i = 0; i < size; ++i) {
+            final double close = 100d + random.nextGaussian();
+            keys[i] = 1500000000L + i * 3600L;
+            fields[GoogleQuoteParser.OPEN][i] = close + random.nextGaussian() * 0.1d;
+            fields[GoogleQuoteParser.HIGH][i] = close + 1d;
+            fields[GoogleQuoteParser.LOW][i] = close - 1d;
+            fields[GoogleQuoteParser.CLOSE][i] = close;
+            fields[GoogleQuoteParser.VOLUME][i] = 1000 + random.nextInt(1000);
+        }
+        final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(Arrays.asList(GoogleQuoteDerivedColumn.values()), WINDOW, 86400L);
+        final double[][] results = derivations.compute(keys, fields);
+        Assert.assertEquals(results.length, GoogleQuoteDerivedColumn.values().length);
+        final double[] close = fields[GoogleQuoteParser.CLOSE];
+        final double[] high = fields[GoogleQuoteParser.HIGH];
+        final double[] low = fields[GoogleQuoteParser.LOW];
+        final double[] volume = fields[GoogleQuoteParser.VOLUME];
+        for (int i = 0; i < size; ++i) {
+            final double previous = i > 0 ? close[i - 1] : Double.NaN;
+            final double typical = (high[i] + low[i] + close[i]) / 3d;
+            final double trueRange = i == 0 ? high[i] - low[i] : Math.max(high[i] - low[i], Math.max(Math.abs(high[i] - previous), Math.abs(low[i] - previous)));
+            assertValue(results[0][i], close[i] - previous, "Change", i);
+            assertValue(results[1][i], close[i] / previous - 1d, "ChangePercent", i);
+            assertValue(results[2][i], Math.log(close[i] / previous), "LogReturn", i);
+            assertValue(results[3][i], trueRange, "TrueRange", i);
+            assertValue(results[4][i], typical, "TypicalPrice", i);
+            assertValue(results[5][i], vwap(keys, high, low, close, volume, i), "VWAP", i);
+            assertValue(results[6][i], i < WINDOW - 1 ? Double.NaN : mean(close, i - WINDOW + 1, i), "RollingMean", i);
+            assertValue(results[7][i], i < WINDOW ? Double.NaN : volatility(close, i), "RollingVolatility", i);
+        }
+    }
+
+
+    @Test()
+    public void testMissingValuesDoNotPoisonRollingWindow() {
+        final int size = 50;
+        final long[] keys = new long[size];
+        final double[][] fields = new double[5][size];
+        for (int i = 0; i < size; ++i) {
+            keys[i] = i;
+            fields[GoogleQuoteParser.CLOSE][i] = i == 5 ? Double.NaN : 10d + i;
+        }
+        final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(Arrays.asList(GoogleQuoteDerivedColumn.ROLLING_MEAN), WINDOW, 1L);
+        final double[] mean = derivations.compute(keys, fields)[0];
+        Assert.assertTrue(Double.isNaN(mean[5 + WINDOW - 1]), "Window containing NaN is NaN");
+        Assert.assertEquals(mean[5 + WINDOW], mean(fields[GoogleQuoteParser.CLOSE], 6, 5 + WINDOW), 1e-9, "Window after NaN recovers");
+    }
+
+
+    private void assertValue(double actual, double expected, String column, int row) {
+        if (Double.isNaN(expected)) {
+            Assert.assertTrue(Double.isNaN(actual), column + " is NaN at " + row);
+        } else {
+            Assert.assertEquals(actual, expected, 1e-7, column + " matches at " + row);
+        }
+    }
+
+    private double mean(double[] values, int from, int to) {
+        double sum = 0d;
+        for (int i = from; i <= to; ++i) sum += values[i];
+        return sum / (to - from + 1);
+    }
+
+    private double volatility(double[] close, int row) {
+        final double[] returns = new double[WINDOW];
+        for (int i = 0; i < WINDOW; ++i) {
+            final int index = row - WINDOW + 1 + i;
+            returns[i] = Math.log(close[index] / close[index - 1]);
+        }
+        final double mean = mean(returns, 0, WINDOW - 1);
+        double sum = 0d;
+        for (double value : returns) sum += (value - mean) * (value - mean);
+        return Math.sqrt(sum / (WINDOW - 1));
+    }
+
+    private double vwap(long[] keys, double[] high, double[] low, double[] close, double[] volume, int row) {
+        double sumPriceVolume = 0d;
+        double sumVolume = 0d;
+        for (int i = row; i >= 0 && Math.floorDiv(keys[i], 86400L) == Math.floorDiv(keys[row], 86400L); --i) {
+            sumPriceVolume += (high[i] + low[i] + close[i]) / 3d * volume[i];
+            sumVolume += volume[i];
+        }
+        return sumPriceVolume / sumVolume;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A class that generates synthetic payloads in the same format as the Google Finance history and intraday services
+ *
+ * Prices are a deterministic function of the ticker and date, so overlapping requests always agree with each other.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteFixtures {
+
+    static final LocalDate INTRADAY_LAST_DATE = LocalDate.of(2017, 8, 18);
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("d-MMM-yy", Locale.US);
+
+    /**
+     * Returns a CSV payload of end of day quotes for each weekday in the range, newest first like Google
+     * @param ticker    the ticker reference
+     * @param start     the start date, inclusive
+     * @param end       the end date, inclusive
+     * @return          the CSV payload
+     */
+    static String history(String ticker, LocalDate start, LocalDate end) {
+        final StringBuilder text = new StringBuilder(64 * 260);
+        text.append("\uFEFFDate,Open,High,Low,Close,Volume\n");
+        for (LocalDate date = end; !date.isBefore(start); date = date.minusDays(1)) {
+            if (isWeekday(date)) {
+                final Random random = new Random(ticker.hashCode() * 31L + date.toEpochDay());
+                final double close = price(ticker, date.toEpochDay() * 390L, random);
+                final double open = close * (1d + (random.nextDouble() - 0.5d) * 0.02d);
+                final double high = Math.max(open, close) * (1d + random.nextDouble() * 0.01d);
+                final double low = Math.min(open, close) * (1d - random.nextDouble() * 0.01d);
+                final long volume = 1000000L + random.nextInt(20000000);
+                text.append(DATE_FORMAT.format(date));
+                text.append(String.format(Locale.US, ",%.2f,%.2f,%.2f,%.2f,%d\n", open, high, low, close, volume));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a getprices payload of 60 second bars for the number of sessions ending on INTRADAY_LAST_DATE
+     * @param ticker    the ticker reference
+     * @param dayCount  the number of trading sessions
+     * @return          the getprices payload
+     */
+    static String intraday(String ticker, int dayCount) {
+        final StringBuilder text = new StringBuilder(dayCount * 390 * 40 + 256);
+        text.append("EXCHANGE%3DNYSE\n");
+        text.append("MARKET_OPEN_MINUTE=570\n");
+        text.append("MARKET_CLOSE_MINUTE=960\n");
+        text.append("INTERVAL=60\n");
+        text.append("COLUMNS=DATE,CLOSE,HIGH,LOW,OPEN,VOLUME\n");
+        text.append("DATA=\n");
+        text.append("TIMEZONE_OFFSET=-240\n");
+        for (LocalDate date : sessions(dayCount)) {
+            final long anchor = date.atTime(LocalTime.of(9, 31)).atZone(NEW_YORK).toEpochSecond();
+            for (int i = 0; i < 390; ++i) {
+                final long minute = date.toEpochDay() * 390L + i;
+                final Random random = new Random(ticker.hashCode() * 31L + minute);
+                final double close = price(ticker, minute, random);
+                final double open = close * (1d + (random.nextDouble() - 0.5d) * 0.002d);
+                final double high = Math.max(open, close) * (1d + random.nextDouble() * 0.001d);
+                final double low = Math.min(open, close) * (1d - random.nextDouble() * 0.001d);
+                final long volume = 1000L + random.nextInt(200000);
+                text.append(i == 0 ? "a" + anchor : String.valueOf(i));
+                text.append(String.format(Locale.US, ",%.3f,%.3f,%.3f,%.3f,%d\n", close, high, low, open, volume));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the trading sessions in ascending order that make up an intraday payload
+     * @param dayCount  the number of trading sessions
+     * @return          the session dates
+     */
+    static List<LocalDate> sessions(int dayCount) {
+        final List<LocalDate> dates = new ArrayList<>(dayCount);
+        for (LocalDate date = INTRADAY_LAST_DATE; dates.size() < dayCount; date = date.minusDays(1)) {
+            if (isWeekday(date)) {
+                dates.add(0, date);
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Returns true if the date is a weekday
+     * @param date  the date to check
+     * @return      true if not a Saturday or Sunday
+     */
+    static boolean isWeekday(LocalDate date) {
+        final DayOfWeek day = date.getDayOfWeek();
+        return day != DayOfWeek.SATURDAY && day != DayOfWeek.SUNDAY;
+    }
+
+    /**
+     * Returns a smoothly varying positive price for the ticker at the step specified
+     * @param ticker    the ticker reference
+     * @param step      the step, in units of minutes since epoch
+     * @param random    the random generator seeded for this step
+     * @return          the price
+     */
+    private static double price(String ticker, long step, Random random) {
+        final double base = 20d + Math.abs(ticker.hashCode() % 200);
+        final double trend = Math.sin(step / 50000d) * base * 0.3d;
+        return base + trend + (random.nextDouble() - 0.5d) * base * 0.01d;
+    }
+}
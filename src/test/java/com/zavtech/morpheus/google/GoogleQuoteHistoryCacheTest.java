@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the persistent end of day quote cache
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteHistoryCacheTest {
+
+    private File directory;
+    private List<LocalDate[]> requests = new ArrayList<>();
+
+    @BeforeMethod()
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("google-quote-cache").toFile();
+        this.requests.clear();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+
+    @Test()
+    public void testIncrementalFill() throws IOException {
+        final GoogleQuoteHistoryCache cache = new GoogleQuoteHistoryCache(directory);
+        final GoogleQuoteBuffer first = cache.read("AAPL", LocalDate.of(2010, 1, 1), LocalDate.of(2012, 1, 1), this::load);
+        Assert.assertEquals(requests.size(), 1);
+        assertEquals(first, load("AAPL", LocalDate.of(2010, 1, 1), LocalDate.of(2012, 1, 1)));
+
+        requests.clear();
+        final GoogleQuoteBuffer second = cache.read("AAPL", LocalDate.of(2009, 1, 1), LocalDate.of(2013, 1, 1), this::load);
+        Assert.assertEquals(requests.size(), 2, "Only the missing ranges are loaded");
+        Assert.assertEquals(requests.get(0)[0], LocalDate.of(2009, 1, 1));
+        Assert.assertEquals(requests.get(0)[1], LocalDate.of(2009, 12, 31));
+        Assert.assertEquals(requests.get(1)[0], LocalDate.of(2012, 1, 2));
+        Assert.assertEquals(requests.get(1)[1], LocalDate.of(2013, 1, 1));
+        requests.clear();
+        assertEquals(second, load("AAPL", LocalDate.of(2009, 1, 1), LocalDate.of(2013, 1, 1)));
+
+        requests.clear();
+        final GoogleQuoteBuffer third = cache.read("AAPL", LocalDate.of(2010, 6, 1), LocalDate.of(2011, 6, 1), this::load);
+        Assert.assertEquals(requests.size(), 0, "Covered range is served from disk");
+        assertEquals(third, load("AAPL", LocalDate.of(2010, 6, 1), LocalDate.of(2011, 6, 1)));
+    }
+
+
+    @Test()
+    public void testCurrentSessionIsNotPersisted() throws IOException {
+        final LocalDate today = LocalDate.now();
+        final GoogleQuoteHistoryCache cache = new GoogleQuoteHistoryCache(directory);
+        cache.read("IBM", today.minusDays(30), today, this::load);
+        requests.clear();
+        cache.read("IBM", today.minusDays(30), today, this::load);
+        Assert.assertEquals(requests.size(), 1, "Today is requested again");
+        Assert.assertEquals(requests.get(0)[0], today);
+    }
+
+
+    @Test()
+    public void testEviction() throws IOException, InterruptedException {
+        final GoogleQuoteHistoryCache unbounded = new GoogleQuoteHistoryCache(directory);
+        unbounded.read("T1", LocalDate.of(2000, 1, 1), LocalDate.of(2010, 1, 1), this::load);
+        final long fileSize = unbounded.getSizeBytes();
+        final GoogleQuoteHistoryCache cache = new GoogleQuoteHistoryCache(directory, fileSize * 2 + fileSize / 2);
+        Thread.sleep(1100);
+        cache.read("T2", LocalDate.of(2000, 1, 1), LocalDate.of(2010, 1, 1), this::load);
+        Assert.assertEquals(directory.listFiles().length, 2);
+        Thread.sleep(1100);
+        cache.read("T3", LocalDate.of(2000, 1, 1), LocalDate.of(2010, 1, 1), this::load);
+        Assert.assertEquals(directory.listFiles().length, 2, "Least recently used file is evicted");
+        Assert.assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+        requests.clear();
+        cache.read("T1", LocalDate.of(2000, 1, 1), LocalDate.of(2010, 1, 1), this::load);
+        Assert.assertEquals(requests.size(), 1, "Evicted ticker is loaded again");
+    }
+
+
+    /**
+     * Loads quotes from the synthetic fixture generator, recording the range requested
+     */
+    private GoogleQuoteBuffer load(String ticker, LocalDate start, LocalDate end) throws IOException {
+        requests.add(new LocalDate[] {start, end});
+        final byte[] bytes = GoogleQuoteFixtures.history(ticker, start, end).getBytes(StandardCharsets.UTF_8);
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(1000, true);
+        new GoogleQuoteHistoryParser().parse(new ByteArrayInputStream(bytes), buffer);
+        return buffer;
+    }
+
+
+    /**
+     * Asserts that two buffers contain the same quotes
+     */
+    private void assertEquals(GoogleQuoteBuffer actual, GoogleQuoteBuffer expected) {
+        Assert.assertEquals(actual.size(), expected.size(), "Row counts match");
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertEquals(actual.key(i), expected.key(i), "Keys match at " + i);
+            for (int j = 0; j < GoogleQuoteBuffer.FIELD_COUNT; ++j) {
+                Assert.assertEquals(actual.value(i, j), expected.value(i, j), 0d, "Values match at " + i);
+            }
+        }
+    }
+}
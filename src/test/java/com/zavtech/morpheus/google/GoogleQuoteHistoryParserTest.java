@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the byte level parser of the Google Finance historical CSV format
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteHistoryParserTest {
+
+    @DataProvider(name="payloads")
+    public Object[][] payloads() throws IOException {
+        return new Object[][] {
+            { resource("history-sample.csv") },
+            { GoogleQuoteFixtures.history("AAPL", LocalDate.of(1994, 1, 1), LocalDate.of(2014, 1, 1)).getBytes(StandardCharsets.UTF_8) },
+            { GoogleQuoteFixtures.history("GE", LocalDate.of(2008, 2, 1), LocalDate.of(2008, 3, 31)).getBytes(StandardCharsets.UTF_8) },
+        };
+    }
+
+
+    @Test(dataProvider = "payloads")
+    public void testMatchesRegexParser(byte[] payload) throws IOException {
+        final List<double[]> expected = parseWithRegex(payload);
+        final List<double[]> actual = parse(new ByteArrayInputStream(payload), Integer.MAX_VALUE);
+        Assert.assertTrue(expected.size() > 0, "There are quotes in the payload");
+        assertEquals(actual, expected);
+    }
+
+
+    @Test(dataProvider = "payloads")
+    public void testSmallReads(byte[] payload) throws IOException {
+        final List<double[]> expected = parseWithRegex(payload);
+        final List<double[]> actual = parse(new TrickleInputStream(payload), Integer.MAX_VALUE);
+        assertEquals(actual, expected);
+    }
+
+
+    @Test()
+    public void testMissingValues() throws IOException {
+        final String text = "Date,Open,High,Low,Close,Volume\n2-Jan-14,-,-,-,79.02,-\n31-Dec-13,78.90,80.18,78.89,80.15,55771100";
+        final List<double[]> quotes = parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)), Integer.MAX_VALUE);
+        Assert.assertEquals(quotes.size(), 2);
+        Assert.assertEquals((long)quotes.get(0)[0], LocalDate.of(2014, 1, 2).toEpochDay());
+        Assert.assertTrue(Double.isNaN(quotes.get(0)[1]), "Open is NaN");
+        Assert.assertTrue(Double.isNaN(quotes.get(0)[5]), "Volume is NaN");
+        Assert.assertEquals(quotes.get(0)[4], 79.02d, 0d);
+        Assert.assertEquals((long)quotes.get(1)[0], LocalDate.of(2013, 12, 31).toEpochDay());
+        Assert.assertEquals(quotes.get(1)[5], 55771100d, 0d);
+    }
+
+
+    @Test()
+    public void testInvalidLinesAreSkipped() throws IOException {
+        final String text = "30-Feb-13,1,2,3,4,5\n1-Foo-13,1,2,3,4,5\n1-Jan-13,1,2,3,4\n\n1-Jan-13,1,2,3,4,5\n";
+        final List<double[]> quotes = parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)), Integer.MAX_VALUE);
+        Assert.assertEquals(quotes.size(), 1);
+        Assert.assertEquals((long)quotes.get(0)[0], LocalDate.of(2013, 1, 1).toEpochDay());
+    }
+
+
+    @Test()
+    public void testEarlyTermination() throws IOException {
+        final byte[] payload = resource("history-sample.csv");
+        final List<double[]> quotes = parse(new ByteArrayInputStream(payload), 5);
+        Assert.assertEquals(quotes.size(), 5);
+    }
+
+
+    @Test()
+    public void testEpochDay() {
+        for (LocalDate date = LocalDate.of(1999, 1, 1); date.getYear() < 2101; date = date.plusDays(1)) {
+            final long epochDay = GoogleQuoteHistoryParser.toEpochDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+            Assert.assertEquals(epochDay, date.toEpochDay(), "Epoch day matches for " + date);
+        }
+    }
+
+
+    /**
+     * Parses the stream and returns each quote as an array of key and values
+     * @param is        the input stream
+     * @param maxCount  the max number of quotes to accept before terminating
+     * @return          the list of quotes
+     */
+    private List<double[]> parse(InputStream is, int maxCount) throws IOException {
+        final List<double[]> result = new ArrayList<>();
+        new GoogleQuoteHistoryParser(64).parse(is, (key, open, high, low, close, volume) -> {
+            result.add(new double[] {key, open, high, low, close, volume});
+            return result.size() < maxCount;
+        });
+        return result;
+    }
+
+
+    /**
+     * Parses the payload using the original regular expression based implementation
+     * @param payload   the payload bytes
+     * @return          the list of quotes
+     */
+    private List<double[]> parseWithRegex(byte[] payload) {
+        final List<double[]> result = new ArrayList<>();
+        final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("d-MMM-yy");
+        final Matcher lineMatcher = Pattern.compile("(\\d{1,2}?-\\p{Alpha}{3}-\\d{2}),(.+),(.+),(.+),(.+),(.+)").matcher("");
+        for (String line : new String(payload, StandardCharsets.UTF_8).split("\\r?\\n")) {
+            if (lineMatcher.reset(line).matches()) {
+                final LocalDate localDate = LocalDate.parse(lineMatcher.group(1), formatter);
+                result.add(new double[] {
+                    localDate.toEpochDay(),
+                    Double.parseDouble(lineMatcher.group(2)),
+                    Double.parseDouble(lineMatcher.group(3)),
+                    Double.parseDouble(lineMatcher.group(4)),
+                    Double.parseDouble(lineMatcher.group(5)),
+                    Double.parseDouble(lineMatcher.group(6))
+                });
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Asserts that two lists of quotes are identical
+     * @param actual    the actual quotes
+     * @param expected  the expected quotes
+     */
+    private void assertEquals(List<double[]> actual, List<double[]> expected) {
+        Assert.assertEquals(actual.size(), expected.size(), "Quote counts match");
+        for (int i = 0; i < expected.size(); ++i) {
+            for (int j = 0; j < 6; ++j) {
+                Assert.assertEquals(actual.get(i)[j], expected.get(i)[j], 0d, "Value matches at row " + i + ", column " + j);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the bytes of a test resource
+     * @param name  the resource name
+     * @return      the resource bytes
+     */
+    static byte[] resource(String name) throws IOException {
+        try (InputStream is = GoogleQuoteHistoryParserTest.class.getResourceAsStream(name)) {
+            final byte[] buffer = new byte[4096];
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int read = is.read(buffer); read >= 0; read = is.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+
+    /**
+     * An input stream that returns only a few bytes per read to exercise lines that straddle buffer boundaries
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+
+        private int count;
+
+        TrickleInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + (count++ % 7)));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the delta encoded intraday archive and its session codec
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteIntradayArchiveTest {
+
+    private File directory;
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("google-quote-archive").toFile();
+        this.server = new GoogleQuoteTestServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        this.server.close();
+        delete(directory);
+    }
+
+
+    @Test()
+    public void testCodecRoundTrip() {
+        final long[] keys = { 86400L * 100 + 34260, 86400L * 100 + 34320, 86400L * 100 + 34500, 86400L * 100 + 34560 };
+        final double[][] fields = {
+            { 10.25d, 10.3d, Double.NaN, 10.1d },
+            { 10.5d, 10.45d, 10.6d, 10.2d },
+            { 10.01d, 10.2d, 10.15d, 9.95d },
+            { 10.3d, 10.4d, 10.5d, 10d },
+            { 1200d, 0d, 35000d, Double.NaN }
+        };
+        assertRoundTrip(keys, fields, "Fixed point with missing values");
+        fields[GoogleQuoteParser.CLOSE][1] = Math.PI;
+        fields[GoogleQuoteParser.VOLUME][2] = 12.5d;
+        assertRoundTrip(keys, fields, "Raw fallback for inexact prices and fractional volume");
+    }
+
+
+    @Test()
+    public void testAppendAndRead() throws IOException {
+        final GoogleQuoteIntradayArchive archive = new GoogleQuoteIntradayArchive(directory);
+        final GoogleQuoteBuffer buffer = fetch("AAPL", 5);
+        final double[][] fields = columns(buffer);
+        final long[] keys = buffer.keys();
+        Assert.assertEquals(archive.append("AAPL", keys, fields), 5);
+        Assert.assertEquals(archive.sessions("AAPL"), GoogleQuoteFixtures.sessions(5));
+        final double bytesPerBar = (double)archive.size("AAPL") / keys.length;
+        Assert.assertTrue(bytesPerBar < 16d, "Compact encoding, bytes per bar: " + bytesPerBar);
+        final List<LocalDate> sessions = GoogleQuoteFixtures.sessions(5);
+        final GoogleQuoteBuffer decoded = new GoogleQuoteBuffer(1024, false);
+        final int count = archive.stream("AAPL", sessions.get(1), sessions.get(2), decoded);
+        Assert.assertEquals(count, 780, "Only two sessions are decoded");
+        final int offset = 390;
+        for (int i = 0; i < count; ++i) {
+            Assert.assertEquals(decoded.key(i), keys[offset + i]);
+            for (int field = 0; field < GoogleQuoteBuffer.FIELD_COUNT; ++field) {
+                Assert.assertEquals(decoded.value(i, field), fields[field][offset + i], 0d);
+            }
+        }
+        final GoogleQuoteIntradayArchive reopened = new GoogleQuoteIntradayArchive(directory);
+        Assert.assertEquals(reopened.sessions("AAPL"), sessions, "Index is rebuilt from block prefixes");
+        Assert.assertEquals(reopened.stream("AAPL", sessions.get(4), sessions.get(4), (key, open, high, low, close, volume) -> true), 390);
+    }
+
+
+    @Test()
+    public void testIncrementalAppend() throws IOException {
+        final GoogleQuoteIntradayArchive archive = new GoogleQuoteIntradayArchive(directory);
+        final GoogleQuoteBuffer buffer = fetch("MSFT", 3);
+        final long[] keys = buffer.keys();
+        final double[][] fields = columns(buffer);
+        final int partial = 390 * 2 + 100;
+        Assert.assertEquals(archive.append("MSFT", Arrays.copyOf(keys, partial), truncate(fields, partial)), 3);
+        final long partialSize = archive.size("MSFT");
+        Assert.assertEquals(archive.append("MSFT", keys, fields), 1, "Only the latest session is rewritten");
+        Assert.assertTrue(archive.size("MSFT") > partialSize);
+        Assert.assertEquals(archive.sessions("MSFT").size(), 3);
+        final List<Long> decoded = new ArrayList<>();
+        final List<LocalDate> sessions = archive.sessions("MSFT");
+        archive.stream("MSFT", sessions.get(0), sessions.get(2), (key, open, high, low, close, volume) -> decoded.add(key));
+        Assert.assertEquals(decoded.size(), keys.length, "Latest session is complete");
+        Assert.assertEquals((long)decoded.get(keys.length - 1), keys[keys.length - 1]);
+        final int updated = archive.update("MSFT", new GoogleQuoteIntradaySource(server.intradayUrlTemplate()), 2);
+        Assert.assertEquals(updated, 1, "Older sessions from the update are skipped");
+        Assert.assertEquals(archive.sessions("MSFT"), sessions);
+    }
+
+
+    @Test()
+    public void testSupersededSessionsAndTornWrite() throws IOException {
+        final GoogleQuoteIntradayArchive archive = new GoogleQuoteIntradayArchive(directory);
+        final GoogleQuoteBuffer buffer = fetch("IBM", 2);
+        final long[] keys = buffer.keys();
+        final double[][] fields = columns(buffer);
+        for (int length = 390 + 10; length <= keys.length; length += 10) {
+            Assert.assertEquals(archive.append("IBM", Arrays.copyOf(keys, length), truncate(fields, length)), length == 400 ? 2 : 1);
+        }
+        final List<LocalDate> sessions = archive.sessions("IBM");
+        Assert.assertEquals(sessions.size(), 2);
+        final long size = archive.size("IBM");
+        final GoogleQuoteIntradayArchive compacted = new GoogleQuoteIntradayArchive(new File(directory, "compacted"));
+        compacted.append("IBM", keys, fields);
+        Assert.assertTrue(size <= compacted.size("IBM") * 2, "Superseded blocks are compacted away: " + size);
+        final File file = new File(directory, "IBM-" + Integer.toHexString("IBM".hashCode()) + ".gqa");
+        try (FileOutputStream os = new FileOutputStream(file, true)) {
+            os.write(new byte[] { 0, 1, 0, 0, 7, 7, 7, 7, 1, 2, 3 });
+        }
+        final GoogleQuoteIntradayArchive reopened = new GoogleQuoteIntradayArchive(directory);
+        Assert.assertEquals(reopened.sessions("IBM"), sessions, "Torn tail is ignored");
+        final List<Long> decoded = new ArrayList<>();
+        reopened.stream("IBM", sessions.get(0), sessions.get(1), (key, open, high, low, close, volume) -> decoded.add(key));
+        Assert.assertEquals(decoded.size(), keys.length, "Latest version of each session is read");
+        Assert.assertEquals(reopened.append("IBM", keys, fields), 1);
+        Assert.assertEquals(new GoogleQuoteIntradayArchive(directory).sessions("IBM"), sessions, "Torn tail is overwritten by the next append");
+    }
+
+
+    @Test()
+    public void testOpenSessionRefreshesBoundFileGrowth() throws IOException {
+        final GoogleQuoteIntradayArchive archive = new GoogleQuoteIntradayArchive(directory);
+        final GoogleQuoteBuffer buffer = fetch("ORCL", 3);
+        final long[] keys = buffer.keys();
+        final double[][] fields = columns(buffer);
+        final long lastDay = Math.floorDiv(keys[keys.length - 1], 86400L);
+        int open = keys.length;
+        while (open > 0 && Math.floorDiv(keys[open - 1], 86400L) == lastDay) --open;
+        Assert.assertTrue(open > 0 && keys.length - open > 100, "There are closed sessions and a long open session");
+        final GoogleQuoteIntradayArchive closed = new GoogleQuoteIntradayArchive(new File(directory, "closed"));
+        closed.append("ORCL", Arrays.copyOf(keys, open), truncate(fields, open));
+        for (int length = open + 1; length <= keys.length; ++length) {
+            final long[] prefix = Arrays.copyOf(keys, length);
+            final double[][] values = truncate(fields, length);
+            archive.append("ORCL", prefix, values);
+            final long live = closed.size("ORCL") + 8L + GoogleQuoteArchiveCodec.encode(prefix, values, open, length).length;
+            Assert.assertTrue(archive.size("ORCL") <= live * 2, "File stays within twice its live size after " + length + " bars");
+        }
+        final List<LocalDate> sessions = archive.sessions("ORCL");
+        Assert.assertEquals(sessions.size(), 3);
+        final List<Long> decoded = new ArrayList<>();
+        new GoogleQuoteIntradayArchive(directory).stream("ORCL", sessions.get(0), sessions.get(2), (key, o, h, l, c, v) -> decoded.add(key));
+        Assert.assertEquals(decoded.size(), keys.length, "Every refresh of the open session is readable after reopening");
+    }
+
+
+    @Test()
+    public void testMissingTicker() throws IOException {
+        final GoogleQuoteIntradayArchive archive = new GoogleQuoteIntradayArchive(directory);
+        Assert.assertFalse(archive.contains("UNKNOWN"));
+        Assert.assertFalse(archive.read("UNKNOWN", 5).isPresent());
+        Assert.assertTrue(archive.sessions("UNKNOWN").isEmpty());
+    }
+
+
+    /**
+     * Encodes and decodes the bars specified and asserts that the result is bit for bit identical
+     * @param keys      the bar keys
+     * @param fields    the bar fields
+     * @param message   the assertion message
+     */
+    private void assertRoundTrip(long[] keys, double[][] fields, String message) {
+        final byte[] block = GoogleQuoteArchiveCodec.encode(keys, fields, 0, keys.length);
+        final GoogleQuoteBuffer decoded = new GoogleQuoteBuffer(keys.length, false);
+        Assert.assertEquals(GoogleQuoteArchiveCodec.decode(ByteBuffer.wrap(block), decoded), keys.length, message);
+        for (int i = 0; i < keys.length; ++i) {
+            Assert.assertEquals(decoded.key(i), keys[i], message);
+            for (int field = 0; field < GoogleQuoteBuffer.FIELD_COUNT; ++field) {
+                final long expected = Double.doubleToLongBits(fields[field][i]);
+                Assert.assertEquals(Double.doubleToLongBits(decoded.value(i, field)), expected, message);
+            }
+        }
+    }
+
+
+    /**
+     * Returns intraday bars for the ticker from the test server
+     * @param ticker    the ticker reference
+     * @param dayCount  the number of sessions
+     * @return          the parsed bars
+     */
+    private GoogleQuoteBuffer fetch(String ticker, int dayCount) throws IOException {
+        return new GoogleQuoteIntradaySource(server.intradayUrlTemplate()).readBuffer(options -> {
+            options.setTicker(ticker);
+            options.setDayCount(dayCount);
+        });
+    }
+
+
+    /**
+     * Returns the quote columns of a buffer
+     * @param buffer    the buffer
+     * @return          the open, high, low, close and volume columns
+     */
+    private static double[][] columns(GoogleQuoteBuffer buffer) {
+        final double[][] fields = new double[GoogleQuoteBuffer.FIELD_COUNT][];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = buffer.column(i);
+        }
+        return fields;
+    }
+
+
+    /**
+     * Returns the columns truncated to the length specified
+     * @param fields    the columns
+     * @param length    the length
+     * @return          the truncated columns
+     */
+    private static double[][] truncate(double[][] fields, int length) {
+        final double[][] result = new double[fields.length][];
+        for (int i = 0; i < fields.length; ++i) {
+            result[i] = Arrays.copyOf(fields[i], length);
+        }
+        return result;
+    }
+
+
+    /**
+     * Deletes a file, or a directory and everything in it
+     * @param file  the file or directory to delete
+     */
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the byte level decoder of the Google Finance getprices format
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteIntradayParserTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+
+    @Test()
+    public void testMatchesZonedConversion() throws IOException {
+        final String payload = GoogleQuoteFixtures.intraday("AAPL", 5);
+        final List<double[]> expected = parseWithRegex(payload, true);
+        final List<double[]> actual = parse(payload);
+        Assert.assertEquals(actual.size(), 5 * 390);
+        assertEquals(actual, expected);
+    }
+
+
+    @Test()
+    public void testColumnsHeaderIsHonoured() throws IOException {
+        final String payload = "COLUMNS=DATE,CLOSE,HIGH,LOW,OPEN,VOLUME\nTIMEZONE_OFFSET=-240\na1503063060,10.5,11,9.5,10,1000\n";
+        final List<double[]> quotes = parse(payload);
+        Assert.assertEquals(quotes.size(), 1);
+        Assert.assertEquals(quotes.get(0)[1], 10d, 0d, "Open");
+        Assert.assertEquals(quotes.get(0)[2], 11d, 0d, "High");
+        Assert.assertEquals(quotes.get(0)[3], 9.5d, 0d, "Low");
+        Assert.assertEquals(quotes.get(0)[4], 10.5d, 0d, "Close");
+        Assert.assertEquals(quotes.get(0)[5], 1000d, 0d, "Volume");
+    }
+
+
+    @Test()
+    public void testTimezoneOffsetHeaderIsHonoured() throws IOException {
+        final long anchor = LocalDateTime.of(2017, 1, 16, 8, 1).toEpochSecond(ZoneOffset.UTC);
+        final String payload = "INTERVAL=300\nTIMEZONE_OFFSET=0\na" + anchor + ",1,2,3,4,5\n1,1,2,3,4,5\n2,1,2,3,4,5\n";
+        final List<double[]> quotes = parse(payload);
+        Assert.assertEquals(quotes.size(), 3);
+        Assert.assertEquals(toLocalDateTime(quotes.get(0)[0]), LocalDateTime.of(2017, 1, 16, 8, 1));
+        Assert.assertEquals(toLocalDateTime(quotes.get(1)[0]), LocalDateTime.of(2017, 1, 16, 8, 6));
+        Assert.assertEquals(toLocalDateTime(quotes.get(2)[0]), LocalDateTime.of(2017, 1, 16, 8, 11));
+    }
+
+
+    @Test()
+    public void testZoneRulesAcrossDaylightSavings() throws IOException {
+        final StringBuilder payload = new StringBuilder("INTERVAL=3600\n");
+        final LocalDate[] dates = { LocalDate.of(2017, 3, 10), LocalDate.of(2017, 3, 13), LocalDate.of(2017, 11, 3), LocalDate.of(2017, 11, 6) };
+        for (LocalDate date : dates) {
+            final long anchor = ZonedDateTime.of(date, LocalTime.of(9, 31), NEW_YORK).toEpochSecond();
+            payload.append("a").append(anchor).append(",1,2,3,4,5\n");
+            for (int i = 1; i < 100; ++i) {
+                payload.append(i).append(",1,2,3,4,5\n");
+            }
+        }
+        final List<double[]> expected = parseWithRegex(payload.toString(), false);
+        final List<double[]> actual = parse(payload.toString());
+        Assert.assertEquals(actual.size(), 400);
+        assertEquals(actual, expected);
+    }
+
+
+    @Test()
+    public void testLinesBeforeAnchorAreSkipped() throws IOException {
+        final String payload = "EXCHANGE%3DNYSE\nDATA=\n1,1,2,3,4,5\na1503063060,1,2,3,4,5\n1,1,2,3,4,5\n";
+        Assert.assertEquals(parse(payload).size(), 2);
+    }
+
+
+    /**
+     * Parses the payload and returns each quote as an array of key and values in open, high, low, close, volume order
+     * @param payload   the payload text
+     * @return          the list of quotes
+     */
+    private List<double[]> parse(String payload) throws IOException {
+        final List<double[]> result = new ArrayList<>();
+        final GoogleQuoteIntradayParser parser = new GoogleQuoteIntradayParser(NEW_YORK, 64);
+        parser.parse(new ByteArrayInputStream(payload.getBytes(StandardCharsets.US_ASCII)), (key, open, high, low, close, volume) -> {
+            result.add(new double[] {key, open, high, low, close, volume});
+            return true;
+        });
+        return result;
+    }
+
+
+    /**
+     * Parses the payload using the original regular expression and ZonedDateTime based implementation
+     * @param payload       the payload text
+     * @param googleOrder   true if values are in the Google CLOSE,HIGH,LOW,OPEN,VOLUME order
+     * @return              the list of quotes
+     */
+    private List<double[]> parseWithRegex(String payload, boolean googleOrder) {
+        long interval = 0L;
+        long startTime = 0L;
+        final List<double[]> result = new ArrayList<>();
+        final Matcher intervalMatcher = Pattern.compile("INTERVAL=(\\d+)").matcher("");
+        final Matcher firstPriceLineMatcher = Pattern.compile("a(\\d+),(.*),(.*),(.*),(.*),(.*)").matcher("");
+        final Matcher standardPriceLineMatcher = Pattern.compile("(\\d+),(.*),(.*),(.*),(.*),(.*)").matcher("");
+        for (String line : payload.split("\n")) {
+            Matcher matcher = null;
+            long seconds = 0L;
+            if (intervalMatcher.reset(line).matches()) {
+                interval = Long.parseLong(intervalMatcher.group(1));
+            } else if (firstPriceLineMatcher.reset(line).matches()) {
+                startTime = Long.parseLong(firstPriceLineMatcher.group(1));
+                matcher = firstPriceLineMatcher;
+            } else if (standardPriceLineMatcher.reset(line).matches()) {
+                seconds = Long.parseLong(standardPriceLineMatcher.group(1)) * interval;
+                matcher = standardPriceLineMatcher;
+            }
+            if (matcher != null) {
+                final Instant instant = Instant.ofEpochSecond(startTime + seconds);
+                final LocalDateTime timestamp = ZonedDateTime.ofInstant(instant, NEW_YORK).toLocalDateTime();
+                final double[] values = new double[5];
+                for (int i = 0; i < 5; ++i) {
+                    values[i] = Double.parseDouble(matcher.group(i + 2));
+                }
+                result.add(googleOrder ? new double[] {
+                    timestamp.toEpochSecond(ZoneOffset.UTC), values[3], values[1], values[2], values[0], values[4]
+                } : new double[] {
+                    timestamp.toEpochSecond(ZoneOffset.UTC), values[0], values[1], values[2], values[3], values[4]
+                });
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Asserts that two lists of quotes are identical
+     * @param actual    the actual quotes
+     * @param expected  the expected quotes
+     */
+    private void assertEquals(List<double[]> actual, List<double[]> expected) {
+        Assert.assertEquals(actual.size(), expected.size(), "Quote counts match");
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertEquals(toLocalDateTime(actual.get(i)[0]), toLocalDateTime(expected.get(i)[0]), "Timestamp matches at row " + i);
+            for (int j = 1; j < 6; ++j) {
+                Assert.assertEquals(actual.get(i)[j], expected.get(i)[j], 0d, "Value matches at row " + i + ", column " + j);
+            }
+        }
+    }
+
+    /**
+     * Returns the local date time for a quote key
+     * @param key   the key in local epoch seconds
+     * @return      the local date time
+     */
+    private LocalDateTime toLocalDateTime(double key) {
+        return LocalDateTime.ofEpochSecond((long)key, 0, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the intraday poller using a stub transport that serves a growing session
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteIntradayPollerTest {
+
+
+    @Test()
+    public void testAppendsOnlyNewBars() {
+        final String session = GoogleQuoteFixtures.intraday("AAPL", 1);
+        final AtomicReference<String> payload = new AtomicReference<>(truncate(session, 100));
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> payload.get().getBytes(StandardCharsets.UTF_8));
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<TICKER>/<DAYS>", transport);
+        final AtomicInteger notified = new AtomicInteger();
+        try (GoogleQuoteIntradayPoller poller = new GoogleQuoteIntradayPoller(source)) {
+            poller.add("AAPL");
+            poller.addListener((ticker, frame, count) -> {
+                Assert.assertTrue(Thread.holdsLock(frame), "Listeners are notified while the frame is locked");
+                notified.addAndGet(count);
+            });
+            Assert.assertEquals(poller.poll(), 100);
+            final DataFrame<LocalDateTime,String> frame = poller.frame("AAPL").orElseThrow(() -> new AssertionError("No frame"));
+            Assert.assertEquals(frame.rowCount(), 100);
+            Assert.assertEquals(poller.poll(), 0, "No new bars");
+            payload.set(truncate(session, 250));
+            Assert.assertEquals(poller.poll(), 150);
+            Assert.assertSame(poller.frame("AAPL").get(), frame, "Frame is appended rather than rebuilt");
+            Assert.assertEquals(frame.rowCount(), 250);
+            Assert.assertEquals(notified.get(), 250);
+            Assert.assertTrue(Double.isNaN(frame.data().getDouble(0, "Change")));
+            for (int i = 1; i < frame.rowCount(); ++i) {
+                final double close = frame.data().getDouble(i, "Close");
+                final double previous = frame.data().getDouble(i - 1, "Close");
+                Assert.assertTrue(frame.rows().key(i).isAfter(frame.rows().key(i - 1)), "Keys are ascending");
+                Assert.assertEquals(frame.data().getDouble(i, "Change"), close - previous, 0.0000001d);
+                Assert.assertEquals(frame.data().getDouble(i, "ChangePercent"), (close / previous) - 1d, 0.0000001d);
+            }
+        }
+    }
+
+
+    @Test()
+    public void testRevisesResentLastBar() {
+        final String session = GoogleQuoteFixtures.intraday("AAPL", 1);
+        final String initial = truncate(session, 100);
+        final int lineStart = initial.lastIndexOf('\n', initial.length() - 2) + 1;
+        final String[] bar = initial.substring(lineStart, initial.length() - 1).split(",");
+        bar[1] = bar[2];
+        final String revised = initial.substring(0, lineStart) + String.join(",", bar) + "\n";
+        final AtomicReference<String> payload = new AtomicReference<>(initial);
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> payload.get().getBytes(StandardCharsets.UTF_8));
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<TICKER>/<DAYS>", transport);
+        try (GoogleQuoteIntradayPoller poller = new GoogleQuoteIntradayPoller(source)) {
+            poller.add("AAPL");
+            Assert.assertEquals(poller.poll(), 100);
+            final DataFrame<LocalDateTime,String> frame = poller.frame("AAPL").orElseThrow(() -> new AssertionError("No frame"));
+            payload.set(revised);
+            Assert.assertEquals(poller.poll(), 1, "Re-sent last bar with new values is revised");
+            Assert.assertEquals(frame.rowCount(), 100, "Revised in place");
+            Assert.assertEquals(frame.data().getDouble(99, "Close"), frame.data().getDouble(99, "High"), 0d);
+            Assert.assertEquals(frame.data().getDouble(99, "Change"), frame.data().getDouble(99, "Close") - frame.data().getDouble(98, "Close"), 0.0000001d);
+            Assert.assertEquals(poller.poll(), 0, "Unchanged last bar is not revised again");
+            payload.set(truncate(session, 101));
+            Assert.assertEquals(poller.poll(), 2, "Last bar revised back and one bar appended");
+            Assert.assertEquals(frame.rowCount(), 101);
+            Assert.assertEquals(frame.data().getDouble(100, "Change"), frame.data().getDouble(100, "Close") - frame.data().getDouble(99, "Close"), 0.0000001d);
+        }
+    }
+
+
+    @Test()
+    public void testFailureIsReported() {
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> null);
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<TICKER>/<DAYS>", transport);
+        final AtomicReference<String> failed = new AtomicReference<>();
+        try (GoogleQuoteIntradayPoller poller = new GoogleQuoteIntradayPoller(source)) {
+            poller.add("AAPL");
+            poller.addListener(new GoogleQuoteIntradayPoller.Listener() {
+                @Override
+                public void onBars(String ticker, DataFrame<LocalDateTime,String> frame, int count) {
+                    Assert.fail("No bars expected");
+                }
+                @Override
+                public void onFailure(String ticker, Throwable error) {
+                    failed.set(ticker);
+                }
+            });
+            Assert.assertEquals(poller.poll(), 0);
+            Assert.assertEquals(failed.get(), "AAPL");
+            Assert.assertFalse(poller.frame("AAPL").isPresent());
+        }
+    }
+
+
+    @Test()
+    public void testCatchesUpMissedSessions() {
+        final AtomicInteger requestedDays = new AtomicInteger();
+        final AtomicReference<String> payload = new AtomicReference<>(truncate(GoogleQuoteFixtures.intraday("AAPL", 3), 390));
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> {
+            requestedDays.set(Integer.parseInt(url.substring(url.lastIndexOf('/') + 1)));
+            return payload.get().getBytes(StandardCharsets.UTF_8);
+        });
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<TICKER>/<DAYS>", transport);
+        try (GoogleQuoteIntradayPoller poller = new GoogleQuoteIntradayPoller(source)) {
+            poller.add("AAPL");
+            Assert.assertEquals(poller.poll(), 390);
+            Assert.assertEquals(requestedDays.get(), 1, "Initial day count");
+            payload.set(GoogleQuoteFixtures.intraday("AAPL", GoogleQuoteIntradayPoller.MAX_CATCH_UP_DAYS));
+            Assert.assertEquals(poller.poll(), 780, "Both missed sessions appended");
+            Assert.assertEquals(requestedDays.get(), GoogleQuoteIntradayPoller.MAX_CATCH_UP_DAYS, "Sessions since the last key, capped");
+            final DataFrame<LocalDateTime,String> frame = poller.frame("AAPL").orElseThrow(() -> new AssertionError("No frame"));
+            Assert.assertEquals(frame.rowCount(), 1170);
+            for (int i = 1; i < frame.rowCount(); ++i) {
+                Assert.assertTrue(frame.rows().key(i).isAfter(frame.rows().key(i - 1)), "Keys are ascending");
+            }
+        }
+    }
+
+
+    @Test()
+    public void testSessionsSince() {
+        final long friday = LocalDateTime.of(2017, 6, 2, 15, 59).toEpochSecond(ZoneOffset.UTC);
+        Assert.assertEquals(GoogleQuoteIntradayPoller.sessionsSince(friday, LocalDate.of(2017, 6, 2), 15), 1, "Same session");
+        Assert.assertEquals(GoogleQuoteIntradayPoller.sessionsSince(friday, LocalDate.of(2017, 6, 4), 15), 1, "Weekend adds no sessions");
+        Assert.assertEquals(GoogleQuoteIntradayPoller.sessionsSince(friday, LocalDate.of(2017, 6, 5), 15), 2, "Friday and Monday");
+        Assert.assertEquals(GoogleQuoteIntradayPoller.sessionsSince(friday, LocalDate.of(2017, 6, 16), 15), 11, "Two weeks later");
+        Assert.assertEquals(GoogleQuoteIntradayPoller.sessionsSince(friday, LocalDate.of(2017, 12, 1), 15), 15, "Capped");
+    }
+
+
+    /**
+     * Returns the payload truncated to the header and the first count bars
+     * @param payload   the full session payload
+     * @param count     the number of bars to keep
+     * @return          the truncated payload
+     */
+    private static String truncate(String payload, int count) {
+        final int start = payload.indexOf("\na") + 1;
+        int end = start;
+        for (int i = 0; i < count; ++i) {
+            end = payload.indexOf('\n', end) + 1;
+        }
+        return payload.substring(0, end);
+    }
+}
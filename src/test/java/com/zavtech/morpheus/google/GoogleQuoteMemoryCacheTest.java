@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the in-memory quote cache and its request coalescing
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteMemoryCacheTest {
+
+    private static final LocalDate START = LocalDate.of(2016, 1, 1);
+    private static final LocalDate END = LocalDate.of(2016, 12, 31);
+
+
+    @Test()
+    public void testHitAndCoveringRange() throws IOException {
+        final GoogleQuoteMemoryCache cache = new GoogleQuoteMemoryCache();
+        final AtomicInteger loads = new AtomicInteger();
+        final GoogleQuoteBuffer first = cache.readHistory("AAPL", START, END, () -> {
+            loads.incrementAndGet();
+            return days(START, END);
+        });
+        final GoogleQuoteBuffer second = cache.readHistory("AAPL", START, END, () -> {
+            throw new IOException("Should be served from cache");
+        });
+        Assert.assertSame(second, first, "Identical request is served from the entry");
+        final LocalDate from = LocalDate.of(2016, 3, 1);
+        final LocalDate to = LocalDate.of(2016, 3, 31);
+        final GoogleQuoteBuffer slice = cache.readHistory("AAPL", from, to, () -> {
+            throw new IOException("Should be served from covering entry");
+        });
+        Assert.assertEquals(slice.size(), 31);
+        Assert.assertEquals(slice.key(0), from.toEpochDay());
+        Assert.assertEquals(slice.key(30), to.toEpochDay());
+        cache.readHistory("MSFT", from, to, () -> {
+            loads.incrementAndGet();
+            return days(from, to);
+        });
+        Assert.assertEquals(loads.get(), 2);
+        Assert.assertEquals(cache.getHitCount(), 2L);
+        Assert.assertEquals(cache.getMissCount(), 2L);
+        Assert.assertEquals(cache.getEntryCount(), 2);
+        cache.invalidate("AAPL");
+        Assert.assertEquals(cache.getEntryCount(), 1);
+    }
+
+
+    @Test()
+    public void testCoalescing() throws Exception {
+        final GoogleQuoteMemoryCache cache = new GoogleQuoteMemoryCache();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<GoogleQuoteBuffer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                futures.add(executor.submit(() -> cache.readIntraday("AAPL:1", "AAPL", () -> {
+                    loads.incrementAndGet();
+                    awaitQuietly(release);
+                    return days(START, END);
+                })));
+            }
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (cache.getCoalescedCount() < 7 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            final GoogleQuoteBuffer expected = futures.get(0).get();
+            for (Future<GoogleQuoteBuffer> future : futures) {
+                Assert.assertSame(future.get(), expected, "Every waiter receives the same result");
+            }
+            Assert.assertEquals(loads.get(), 1, "Only one fetch ran");
+            Assert.assertEquals(cache.getMissCount(), 1L);
+            Assert.assertEquals(cache.getCoalescedCount(), 7L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test()
+    public void testFailureIsSharedAndNotCached() throws Exception {
+        final GoogleQuoteMemoryCache cache = new GoogleQuoteMemoryCache();
+        try {
+            cache.readIntraday("AAPL:1", "AAPL", () -> {
+                throw new GoogleQuoteHttpException("stub://AAPL", 500);
+            });
+            Assert.fail("An exception should have been raised");
+        } catch (GoogleQuoteHttpException ex) {
+            Assert.assertEquals(ex.getStatusCode(), 500);
+        }
+        Assert.assertEquals(cache.getEntryCount(), 0, "Failures are not cached");
+        final GoogleQuoteBuffer buffer = cache.readIntraday("AAPL:1", "AAPL", () -> days(START, END));
+        Assert.assertEquals(buffer.size(), 366);
+    }
+
+
+    @Test()
+    public void testExpiryAndEviction() throws Exception {
+        final long entryBytes = 400L * 6L * 8L;
+        final GoogleQuoteMemoryCache cache = new GoogleQuoteMemoryCache(entryBytes * 2, Duration.ofHours(1), Duration.ofMillis(50));
+        final AtomicInteger loads = new AtomicInteger();
+        final GoogleQuoteMemoryCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            return days(START, END);
+        };
+        cache.readIntraday("AAPL:1", "AAPL", loader);
+        cache.readIntraday("AAPL:1", "AAPL", loader);
+        Assert.assertEquals(loads.get(), 1);
+        Thread.sleep(100);
+        cache.readIntraday("AAPL:1", "AAPL", loader);
+        Assert.assertEquals(loads.get(), 2, "Expired entry is re-fetched");
+        cache.readHistory("A", START, END, loader);
+        cache.readHistory("B", START, END, loader);
+        Assert.assertEquals(cache.getEntryCount(), 2, "Least recently used entry is evicted");
+        Assert.assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+        Assert.assertEquals(cache.getEvictionCount(), 1L);
+        cache.readHistory("B", START, END, () -> {
+            throw new IOException("B should still be cached");
+        });
+    }
+
+
+    @Test()
+    public void testCostByRowsAndCurrentSessionExpiry() throws Exception {
+        final GoogleQuoteMemoryCache cache = new GoogleQuoteMemoryCache(1024L * 1024L, Duration.ofHours(1), Duration.ofMillis(50));
+        final AtomicInteger loads = new AtomicInteger();
+        final LocalDate today = LocalDate.now(GoogleQuoteIntradaySource.EXCHANGE_ZONE);
+        final GoogleQuoteMemoryCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(10000, false);
+            for (LocalDate date = today.minusDays(9); !date.isAfter(today); date = date.plusDays(1)) {
+                buffer.onQuote(date.toEpochDay(), 1d, 1d, 1d, 1d, 1d);
+            }
+            return buffer;
+        };
+        cache.readHistory("PAST", today.minusDays(9), today.minusDays(1), loader);
+        Assert.assertEquals(cache.getSizeBytes(), 10L * 6L * 8L, "Cost is by row count rather than capacity");
+        cache.readHistory("TODAY", today.minusDays(9), today, loader);
+        Assert.assertEquals(loads.get(), 2);
+        Thread.sleep(100);
+        cache.readHistory("PAST", today.minusDays(9), today.minusDays(1), loader);
+        Assert.assertEquals(loads.get(), 2, "Range before the current session uses the history time to live");
+        cache.readHistory("TODAY", today.minusDays(9), today, loader);
+        Assert.assertEquals(loads.get(), 3, "Range including the current session uses the intraday time to live");
+    }
+
+
+    /**
+     * Waits for the latch to be released, restoring the interrupt flag if interrupted
+     * @param latch the latch to wait on
+     */
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS), "Latch was released");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a buffer with one bar for every day in the range
+     * @param start the start date, inclusive
+     * @param end   the end date, inclusive
+     * @return      the buffer of daily bars
+     */
+    private static GoogleQuoteBuffer days(LocalDate start, LocalDate end) {
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(400, false);
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+            final double price = date.getDayOfYear();
+            buffer.onQuote(date.toEpochDay(), price, price + 1d, price - 1d, price, 1000d);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ObjectName;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the per request metrics reported by the Google sources and their aggregation in a registry
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteMetricsTest {
+
+    private static final LocalDate START = LocalDate.of(2014, 1, 1);
+    private static final LocalDate END = LocalDate.of(2014, 12, 31);
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testHistoryMetrics() {
+        final List<GoogleQuoteRequestMetrics> captured = new ArrayList<>();
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        source.setMetricsListener(captured::add);
+        final DataFrame<LocalDate,String> frame = source.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(START);
+            options.setEnd(END);
+        });
+        Assert.assertEquals(captured.size(), 1);
+        final GoogleQuoteRequestMetrics metrics = captured.get(0);
+        Assert.assertTrue(metrics.isSuccess());
+        Assert.assertEquals(metrics.getSource(), "history");
+        Assert.assertEquals(metrics.getTicker(), "AAPL");
+        Assert.assertEquals(metrics.getRequestCount(), 1L);
+        Assert.assertEquals(metrics.getRowCount(), frame.rowCount());
+        Assert.assertEquals(metrics.getLinesMatched(), frame.rowCount());
+        Assert.assertEquals(metrics.getLinesRejected(), 1L, "Header line is rejected");
+        Assert.assertTrue(metrics.getBytesReceived() > frame.rowCount() * 20L, "Bytes received: " + metrics.getBytesReceived());
+        Assert.assertTrue(metrics.getNanos(GoogleQuotePhase.CONNECT) > 0L);
+        Assert.assertTrue(metrics.getNanos(GoogleQuotePhase.PARSE) > 0L);
+        Assert.assertTrue(metrics.getNanos(GoogleQuotePhase.BUILD) > 0L);
+        final long phaseNanos = metrics.getNanos(GoogleQuotePhase.CONNECT) + metrics.getNanos(GoogleQuotePhase.DOWNLOAD) + metrics.getNanos(GoogleQuotePhase.PARSE);
+        Assert.assertTrue(phaseNanos <= metrics.getTotalNanos(), "Phases fit within the request");
+    }
+
+
+    @Test()
+    public void testCapacityGrowth() {
+        final List<GoogleQuoteRequestMetrics> captured = new ArrayList<>();
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+        source.setMetricsListener(captured::add);
+        source.read(options -> {
+            options.setTicker("AAPL");
+            options.setDayCount(1);
+        });
+        Assert.assertEquals(captured.get(0).getSource(), "intraday");
+        Assert.assertEquals(captured.get(0).getCapacityGrowths(), 0L, "Buffer is sized from the request");
+        Assert.assertTrue(captured.get(0).getLinesRejected() > 0L, "Header lines are rejected");
+    }
+
+
+    @Test()
+    public void testRegistryAggregates() throws Exception {
+        final List<GoogleQuoteRequestMetrics> forwarded = new ArrayList<>();
+        final GoogleQuoteMetricsRegistry registry = new GoogleQuoteMetricsRegistry(forwarded::add);
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        source.setMemoryCache(new GoogleQuoteMemoryCache());
+        source.setMetricsListener(registry);
+        for (int i = 0; i < 3; ++i) {
+            source.read(options -> {
+                options.setTicker("MSFT");
+                options.setStart(START);
+                options.setEnd(END);
+            });
+        }
+        try {
+            source.read(options -> {
+                options.setTicker("FAIL1");
+                options.setStart(START);
+                options.setEnd(END);
+            });
+            Assert.fail("Request should have failed");
+        } catch (DataFrameException ex) {
+            Assert.assertEquals(forwarded.get(3).getFailure().orElse(null), ex.getCause());
+        }
+        Assert.assertEquals(forwarded.size(), 4);
+        Assert.assertEquals(forwarded.get(1).getRequestCount(), 0L, "Cache hit issues no request");
+        Assert.assertEquals(forwarded.get(1).getBytesReceived(), 0L);
+        Assert.assertEquals(registry.getRequestCount(), 4L);
+        Assert.assertEquals(registry.getFailureCount(), 1L);
+        Assert.assertEquals(registry.getBytesReceived(), forwarded.get(0).getBytesReceived());
+        Assert.assertEquals(registry.getRowsProduced(), forwarded.get(0).getRowCount() * 3L);
+        Assert.assertEquals(registry.total().getCount(), 4L);
+        Assert.assertEquals(registry.phase(GoogleQuotePhase.PARSE).getCount(), 4L);
+        Assert.assertTrue(registry.getMeanPhaseMillis().containsKey("DOWNLOAD"));
+        final ObjectName name = registry.register("com.zavtech.morpheus.google:type=Metrics,name=test");
+        try {
+            final Object requestCount = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RequestCount");
+            Assert.assertEquals(requestCount, 4L);
+        } finally {
+            registry.unregister(name);
+        }
+        registry.reset();
+        Assert.assertEquals(registry.getRequestCount(), 0L);
+        Assert.assertEquals(registry.total().getCount(), 0L);
+    }
+
+
+    @Test()
+    public void testHistogramPercentiles() {
+        final GoogleQuoteHistogram histogram = new GoogleQuoteHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(histogram.getCount(), 100L);
+        Assert.assertEquals(histogram.getMaxNanos(), 100000L);
+        Assert.assertEquals(histogram.getMeanNanos(), 50500d, 1e-9);
+        final long p50 = histogram.getPercentileNanos(0.5d);
+        Assert.assertTrue(p50 >= 50000L && p50 < 100000L, "Median within a factor of two: " + p50);
+        Assert.assertEquals(histogram.getPercentileNanos(1d), 100000L);
+    }
+}
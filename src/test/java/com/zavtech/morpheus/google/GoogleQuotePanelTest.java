@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for loading many tickers into aligned panels that share a single row index
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuotePanelTest {
+
+    private static final LocalDate START = LocalDate.of(2014, 1, 1);
+    private static final LocalDate LATE_START = LocalDate.of(2014, 6, 2);
+    private static final LocalDate END = LocalDate.of(2014, 12, 31);
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testHistoryPanelIsAligned() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuotePanelLoader<LocalDate,GoogleQuoteHistorySource.Options> loader = GoogleQuotePanelLoader.history(source);
+        loader.setFields("Close", "Volume");
+        final GoogleQuotePanel<LocalDate> panel = loader.read(Arrays.asList("AAPL", "MISSING1", "MSFT"), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setStart(ticker.equals("MSFT") ? LATE_START : START);
+            options.setEnd(END);
+        });
+        Assert.assertFalse(panel.isSuccess());
+        Assert.assertTrue(panel.failure("MISSING1").isPresent(), "Missing ticker is reported");
+        Assert.assertEquals(panel.tickers(), Arrays.asList("AAPL", "MSFT"));
+        Assert.assertEquals(panel.fields(), Arrays.asList("Close", "Volume"));
+        final DataFrame<LocalDate,String> aapl = source.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(START);
+            options.setEnd(END);
+        });
+        final DataFrame<LocalDate,String> msft = source.read(options -> {
+            options.setTicker("MSFT");
+            options.setStart(LATE_START);
+            options.setEnd(END);
+        });
+        final DataFrame<LocalDate,String> close = panel.frame("Close");
+        final DataFrame<LocalDate,String> volume = panel.frame("Volume");
+        Assert.assertEquals(close.rowCount(), aapl.rowCount(), "Rows are the union of all dates");
+        Assert.assertEquals(close.colCount(), 2);
+        int msftRow = 0;
+        for (int i = 0; i < close.rowCount(); ++i) {
+            final LocalDate date = close.rows().key(i);
+            Assert.assertEquals(date, aapl.rows().key(i));
+            Assert.assertEquals(volume.rows().key(i), date, "Frames share the same row keys");
+            Assert.assertEquals(close.data().getDouble(i, "AAPL"), aapl.data().getDouble(i, "Close"), 0d);
+            if (date.isBefore(LATE_START)) {
+                Assert.assertTrue(Double.isNaN(close.data().getDouble(i, "MSFT")), "No quote before " + LATE_START);
+            } else {
+                Assert.assertEquals(msft.rows().key(msftRow), date);
+                Assert.assertEquals(close.data().getDouble(i, "MSFT"), msft.data().getDouble(msftRow, "Close"), 0d);
+                Assert.assertEquals(volume.data().getDouble(i, "MSFT"), msft.data().getDouble(msftRow, "Volume"), 0d);
+                ++msftRow;
+            }
+        }
+        Assert.assertEquals(msftRow, msft.rowCount(), "Every MSFT quote is in the panel");
+    }
+
+
+    @Test()
+    public void testFramesReshapeIndependently() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuotePanelLoader<LocalDate,GoogleQuoteHistorySource.Options> loader = GoogleQuotePanelLoader.history(source);
+        loader.setFields("Open", "Close", "Volume");
+        final GoogleQuotePanel<LocalDate> panel = loader.read(Arrays.asList("AAPL", "MSFT"), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setStart(START);
+            options.setEnd(END);
+        });
+        final DataFrame<LocalDate,String> open = panel.frame("Open");
+        final DataFrame<LocalDate,String> close = panel.frame("Close");
+        final DataFrame<LocalDate,String> volume = panel.frame("Volume");
+        final int rowCount = close.rowCount();
+        final LocalDate lastKey = close.rows().lastKey().orElseThrow(() -> new AssertionError("No rows"));
+        close.rows().add(END.plusDays(1));
+        Assert.assertEquals(close.rowCount(), rowCount + 1, "Row added to one frame");
+        Assert.assertEquals(volume.rowCount(), rowCount, "Other frames are unchanged");
+        Assert.assertEquals(volume.rows().lastKey().get(), lastKey);
+        volume.rows().add(END.plusDays(2));
+        Assert.assertEquals(open.rowCount(), rowCount, "First frame is unchanged");
+        Assert.assertEquals(close.rowCount(), rowCount + 1);
+    }
+
+
+    @Test()
+    public void testIntradayPanel() {
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+        final GoogleQuotePanelLoader<LocalDateTime,GoogleQuoteIntradaySource.Options> loader = GoogleQuotePanelLoader.intraday(source);
+        final GoogleQuotePanel<LocalDateTime> panel = loader.read(Arrays.asList("AAPL", "MSFT"), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(ticker.equals("AAPL") ? 2 : 1);
+        });
+        Assert.assertTrue(panel.isSuccess());
+        final DataFrame<LocalDateTime,String> expected = source.read(options -> {
+            options.setTicker("AAPL");
+            options.setDayCount(2);
+        });
+        final DataFrame<LocalDateTime,String> open = panel.frame("Open");
+        Assert.assertEquals(open.rowCount(), expected.rowCount());
+        Assert.assertEquals(open.rows().key(0), expected.rows().key(0));
+        Assert.assertEquals(open.data().getDouble(0, "AAPL"), expected.data().getDouble(0, "Open"), 0d);
+        Assert.assertTrue(Double.isNaN(open.data().getDouble(0, "MSFT")), "MSFT only covers the last session");
+        Assert.assertFalse(Double.isNaN(open.data().getDouble(open.rowCount() - 1, "MSFT")));
+    }
+
+
+    @Test()
+    public void testDuplicatesAndConcurrencyLimit() throws IOException {
+        try (GoogleQuoteTestServer slow = new GoogleQuoteTestServer()) {
+            slow.setLatencyMillis(50);
+            final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(slow.historyUrlTemplate());
+            final GoogleQuotePanelLoader<LocalDate,GoogleQuoteHistorySource.Options> loader = GoogleQuotePanelLoader.history(source);
+            loader.setConcurrency(2);
+            final GoogleQuotePanel<LocalDate> panel = loader.read(Arrays.asList("AAPL", "MSFT", "AAPL", "IBM", "ORCL", "MSFT", "GOOG"), (ticker, options) -> {
+                options.setTicker(ticker);
+                options.setStart(START);
+                options.setEnd(END);
+            });
+            Assert.assertTrue(panel.isSuccess());
+            Assert.assertEquals(panel.tickers(), Arrays.asList("AAPL", "MSFT", "IBM", "ORCL", "GOOG"), "Duplicates are loaded once");
+            Assert.assertEquals(slow.getRequestCount(), 5);
+            Assert.assertTrue(slow.getMaxInFlight() <= 2, "Requests in flight are bounded: " + slow.getMaxInFlight());
+            Assert.assertEquals(panel.frame("Close").colCount(), 5);
+        }
+    }
+
+
+    @Test(expectedExceptions = DataFrameException.class)
+    public void testUnknownField() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuotePanelLoader<LocalDate,GoogleQuoteHistorySource.Options> loader = GoogleQuotePanelLoader.history(source);
+        loader.setFields("Close");
+        loader.read(Arrays.asList("AAPL"), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setStart(START);
+            options.setEnd(END);
+        }).frame("Volume");
+    }
+}
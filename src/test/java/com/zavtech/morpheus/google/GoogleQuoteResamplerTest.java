@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for resampling intraday bars as they are parsed
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteResamplerTest {
+
+    private static final LocalTime OPEN = LocalTime.of(9, 30);
+    private static final LocalTime CLOSE = LocalTime.of(16, 0);
+
+    @DataProvider(name="intervals")
+    public Object[][] intervals() {
+        return new Object[][] { { 300L, 78 }, { 1800L, 13 }, { 3600L, 7 }, { 86400L, 1 } };
+    }
+
+
+    @Test(dataProvider = "intervals")
+    public void testAggregation(long interval, int barsPerSession) throws IOException {
+        final int dayCount = 3;
+        final GoogleQuoteBuffer raw = parse(dayCount, null);
+        final GoogleQuoteBuffer resampled = parse(dayCount, interval);
+        Assert.assertEquals(resampled.size(), barsPerSession * dayCount);
+        Assert.assertTrue(GoogleQuoteResampler.barsPerSession(interval, OPEN, CLOSE) >= barsPerSession, "Capacity estimate is sufficient");
+        final GoogleQuoteResampler resampler = new GoogleQuoteResampler((k, o, h, l, c, v) -> true, interval, OPEN, CLOSE);
+        int row = 0;
+        for (int i = 0; i < resampled.size(); ++i) {
+            final long bucket = resampled.key(i);
+            final LocalTime time = LocalDateTime.ofEpochSecond(bucket, 0, ZoneOffset.UTC).toLocalTime();
+            Assert.assertTrue(!time.isBefore(OPEN) && !time.isAfter(CLOSE), "Bucket within session: " + time);
+            Assert.assertTrue(interval >= 86400L || (time.toSecondOfDay() - OPEN.toSecondOfDay()) % interval == 0 || time.equals(CLOSE));
+            final int first = row;
+            double high = Double.NEGATIVE_INFINITY, low = Double.POSITIVE_INFINITY, volume = 0d;
+            while (row < raw.size() && resampler.bucketOf(raw.key(row)) == bucket) {
+                Assert.assertTrue(raw.key(row) <= bucket, "Bars are keyed at the end of their bucket");
+                high = Math.max(high, raw.value(row, GoogleQuoteParser.HIGH));
+                low = Math.min(low, raw.value(row, GoogleQuoteParser.LOW));
+                volume += raw.value(row, GoogleQuoteParser.VOLUME);
+                row++;
+            }
+            Assert.assertTrue(row > first, "Bucket covers at least one bar");
+            Assert.assertEquals(resampled.value(i, GoogleQuoteParser.OPEN), raw.value(first, GoogleQuoteParser.OPEN), 0d);
+            Assert.assertEquals(resampled.value(i, GoogleQuoteParser.HIGH), high, 0d);
+            Assert.assertEquals(resampled.value(i, GoogleQuoteParser.LOW), low, 0d);
+            Assert.assertEquals(resampled.value(i, GoogleQuoteParser.CLOSE), raw.value(row - 1, GoogleQuoteParser.CLOSE), 0d);
+            Assert.assertEquals(resampled.value(i, GoogleQuoteParser.VOLUME), volume, 0.001d);
+        }
+        Assert.assertEquals(row, raw.size(), "Every raw bar is covered");
+    }
+
+
+    @Test()
+    public void testBucketAlignment() {
+        final GoogleQuoteResampler resampler = new GoogleQuoteResampler((k, o, h, l, c, v) -> true, 1800L, OPEN, CLOSE);
+        Assert.assertEquals(bucket(resampler, "2017-08-18T09:31"), "2017-08-18T10:00");
+        Assert.assertEquals(bucket(resampler, "2017-08-18T10:00"), "2017-08-18T10:00");
+        Assert.assertEquals(bucket(resampler, "2017-08-18T10:01"), "2017-08-18T10:30");
+        Assert.assertEquals(bucket(resampler, "2017-08-18T15:59"), "2017-08-18T16:00");
+        Assert.assertEquals(bucket(resampler, "2017-08-18T09:00"), "2017-08-18T09:00", "Pre-market aligned to open");
+        Assert.assertEquals(bucket(resampler, "2017-08-18T16:05"), "2017-08-18T16:30", "Post-market aligned to close");
+        final GoogleQuoteResampler hourly = new GoogleQuoteResampler((k, o, h, l, c, v) -> true, 3600L, OPEN, CLOSE);
+        Assert.assertEquals(bucket(hourly, "2017-08-18T15:45"), "2017-08-18T16:00", "Last bucket cut at close");
+    }
+
+
+    @Test()
+    public void testMissingValuesAndEarlyStop() {
+        final List<double[]> bars = new ArrayList<>();
+        final GoogleQuoteResampler resampler = new GoogleQuoteResampler((k, o, h, l, c, v) -> {
+            bars.add(new double[] {k, o, h, l, c, v});
+            return bars.size() < 2;
+        }, 300L, OPEN, CLOSE);
+        final long base = LocalDateTime.parse("2017-08-18T09:30").toEpochSecond(ZoneOffset.UTC);
+        Assert.assertTrue(resampler.onQuote(base + 60, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN));
+        Assert.assertTrue(resampler.onQuote(base + 120, 10d, 12d, 9d, 11d, 100d));
+        Assert.assertTrue(resampler.onQuote(base + 180, 11d, 13d, 10d, Double.NaN, 50d));
+        Assert.assertTrue(resampler.onQuote(base + 360, 1d, 1d, 1d, 1d, 1d));
+        Assert.assertTrue(Arrays.equals(bars.get(0), new double[] {base + 300, 10d, 13d, 9d, 11d, 150d}), "Missing values are ignored");
+        Assert.assertFalse(resampler.onQuote(base + 660, 2d, 2d, 2d, 2d, 2d), "Handler stopped the parse");
+        Assert.assertTrue(resampler.flush(), "Nothing left to flush");
+        Assert.assertEquals(bars.size(), 2);
+    }
+
+
+    @Test()
+    public void testStreamResampled() {
+        final byte[] payload = GoogleQuoteFixtures.intraday("AAPL", 2).getBytes(StandardCharsets.UTF_8);
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<TICKER>", GoogleQuoteStubTransport.of(payload));
+        final List<Long> keys = new ArrayList<>();
+        final int count = source.stream(options -> {
+            options.setTicker("AAPL");
+            options.setDayCount(2);
+            options.setResampleInterval(Duration.ofMinutes(30));
+        }, (key, open, high, low, close, volume) -> keys.add(key));
+        Assert.assertEquals(count, 26);
+        Assert.assertEquals(keys.size(), 26);
+    }
+
+
+    /**
+     * Returns the bucket for a bar time as a formatted local date time
+     * @param resampler the resampler
+     * @param time      the bar time
+     * @return          the bucket time
+     */
+    private static String bucket(GoogleQuoteResampler resampler, String time) {
+        final long key = LocalDateTime.parse(time).toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(resampler.bucketOf(key), 0, ZoneOffset.UTC).toString();
+    }
+
+    /**
+     * Parses a fixture payload into a buffer, optionally resampling on the way
+     * @param dayCount  the number of sessions
+     * @param interval  the resample interval in seconds, null for raw bars
+     * @return          the parsed bars
+     */
+    private static GoogleQuoteBuffer parse(int dayCount, Long interval) throws IOException {
+        final byte[] payload = GoogleQuoteFixtures.intraday("AAPL", dayCount).getBytes(StandardCharsets.UTF_8);
+        final GoogleQuoteBuffer buffer = new GoogleQuoteBuffer(16, false);
+        final GoogleQuoteIntradayParser parser = new GoogleQuoteIntradayParser(ZoneId.of("America/New_York"));
+        if (interval == null) {
+            parser.parse(new ByteArrayInputStream(payload), buffer);
+        } else {
+            final GoogleQuoteResampler resampler = new GoogleQuoteResampler(buffer, interval, OPEN, CLOSE);
+            parser.parse(new ByteArrayInputStream(payload), resampler);
+            resampler.flush();
+        }
+        return buffer;
+    }
+}
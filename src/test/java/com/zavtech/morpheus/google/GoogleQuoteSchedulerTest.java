@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.zavtech.morpheus.frame.DataFrameException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the adaptive request scheduler against a local stand-in that injects latency and errors
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteSchedulerTest {
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+        this.server.setLatencyMillis(10);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testRetriesAndFailures() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuoteScheduler<LocalDate,GoogleQuoteHistorySource.Options> scheduler = new GoogleQuoteScheduler<>(source);
+        scheduler.setRateLimiter(new GoogleQuoteRateLimiter(500d, 10));
+        scheduler.setConcurrency(1, 2, 8);
+        scheduler.setRetries(3, Duration.ofMillis(10), Duration.ofMillis(50));
+        final List<String> tickers = Arrays.asList("AAPL", "FLAKY1", "MSFT", "FAIL1", "MISSING1", "FLAKY2");
+        final GoogleQuoteBatchLoader.Result<LocalDate> result = scheduler.read(tickers, (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setStart(LocalDate.of(2016, 1, 1));
+            options.setEnd(LocalDate.of(2016, 6, 30));
+        });
+        Assert.assertEquals(result.frames().keySet(), Arrays.asList("AAPL", "FLAKY1", "MSFT", "FLAKY2").stream().collect(Collectors.toSet()));
+        Assert.assertEquals(result.failures().size(), 2);
+        Assert.assertTrue(result.failure("FAIL1").isPresent(), "Transient failure gives up after retries");
+        Assert.assertTrue(result.failure("MISSING1").isPresent(), "Permanent failure is not retried");
+        Assert.assertEquals(scheduler.getRetryCount(), 2L + 2L + 3L, "Two retries per flaky ticker and three for the failing one");
+    }
+
+
+    @Test()
+    public void testPriorityOrder() {
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> {
+            order.add(url.substring(url.lastIndexOf('/') + 1));
+            return GoogleQuoteFixtures.intraday("AAPL", 1).getBytes(StandardCharsets.UTF_8);
+        });
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<DAYS>/<TICKER>", transport);
+        final GoogleQuoteScheduler<LocalDateTime,GoogleQuoteIntradaySource.Options> scheduler = new GoogleQuoteScheduler<>(source);
+        scheduler.setConcurrency(1, 1, 1);
+        final List<String> tickers = Arrays.asList("LOW1", "HIGH1", "LOW2", "HIGH2", "MID1");
+        final GoogleQuoteBatchLoader.Result<LocalDateTime> result = scheduler.read(tickers, ticker -> priority(ticker), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(1);
+        });
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(order, Arrays.asList("HIGH1", "HIGH2", "MID1", "LOW1", "LOW2"));
+    }
+
+
+    @Test()
+    public void testAdaptiveConcurrency() {
+        final GoogleQuoteStubTransport transport = new GoogleQuoteStubTransport(url -> {
+            if (url.contains("FLAKY")) {
+                throw new GoogleQuoteHttpException(url, 429);
+            }
+            return GoogleQuoteFixtures.intraday("AAPL", 1).getBytes(StandardCharsets.UTF_8);
+        });
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<DAYS>/<TICKER>", transport);
+        final GoogleQuoteScheduler<LocalDateTime,GoogleQuoteIntradaySource.Options> scheduler = new GoogleQuoteScheduler<>(source);
+        scheduler.setRateLimiter(new GoogleQuoteRateLimiter(1000d, 100));
+        scheduler.setConcurrency(1, 2, 16);
+        scheduler.setRetries(0, Duration.ofMillis(1), Duration.ofMillis(1));
+        final List<String> healthy = new ArrayList<>();
+        for (int i = 0; i < 60; ++i) healthy.add("TICK" + i);
+        scheduler.read(healthy, (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(1);
+        });
+        final int grown = scheduler.getConcurrencyLimit();
+        Assert.assertTrue(grown > 2, "Limit grows while healthy: " + grown);
+        scheduler.read(Arrays.asList("FLAKY1", "FLAKY2", "FLAKY3"), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(1);
+        });
+        Assert.assertTrue(scheduler.getConcurrencyLimit() < grown, "Limit shrinks on throttling");
+    }
+
+
+    @Test()
+    public void testConcurrentFailuresHalveLimitOnce() {
+        final CountDownLatch latch = new CountDownLatch(16);
+        final GoogleQuoteStubTransport transport = new GoogleQuoteStubTransport(url -> {
+            latch.countDown();
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            throw new GoogleQuoteHttpException(url, 503);
+        });
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<DAYS>/<TICKER>", transport);
+        final GoogleQuoteScheduler<LocalDateTime,GoogleQuoteIntradaySource.Options> scheduler = new GoogleQuoteScheduler<>(source);
+        scheduler.setRateLimiter(new GoogleQuoteRateLimiter(1000d, 100));
+        scheduler.setConcurrency(1, 16, 16);
+        scheduler.setRetries(0, Duration.ofMillis(1), Duration.ofMillis(1));
+        final List<String> tickers = new ArrayList<>();
+        for (int i = 0; i < 16; ++i) tickers.add("BUSY" + i);
+        final GoogleQuoteBatchLoader.Result<LocalDateTime> result = scheduler.read(tickers, (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(1);
+        });
+        Assert.assertEquals(result.failures().size(), 16);
+        Assert.assertEquals(scheduler.getConcurrencyLimit(), 8, "A burst of concurrent failures halves the limit once");
+    }
+
+
+    @Test()
+    public void testRejectedRequestsFailWithoutLeakingCapacity() {
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> GoogleQuoteFixtures.intraday("AAPL", 1).getBytes(StandardCharsets.UTF_8));
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<DAYS>/<TICKER>", transport);
+        final GoogleQuoteScheduler<LocalDateTime,GoogleQuoteIntradaySource.Options> scheduler = new GoogleQuoteScheduler<LocalDateTime,GoogleQuoteIntradaySource.Options>(source) {
+            @Override
+            ExecutorService createExecutor(int threads) {
+                final ExecutorService executor = Executors.newSingleThreadExecutor();
+                executor.shutdown();
+                return executor;
+            }
+        };
+        scheduler.setRateLimiter(new GoogleQuoteRateLimiter(1000d, 100));
+        scheduler.setConcurrency(1, 1, 1);
+        final List<String> tickers = Arrays.asList("AAPL", "MSFT", "IBM");
+        final GoogleQuoteBatchLoader.Result<LocalDateTime> result = scheduler.read(tickers, (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(1);
+        });
+        Assert.assertEquals(result.failures().size(), 3, "Every rejected request is reported as a failure");
+        Assert.assertTrue(result.failure("IBM").get() instanceof RejectedExecutionException);
+        Assert.assertEquals(transport.getRequestCount(), 0);
+    }
+
+
+    @Test()
+    public void testDeadlineStopsRetries() {
+        final GoogleQuoteStubTransport transport = new GoogleQuoteStubTransport(url -> {
+            throw new GoogleQuoteHttpException(url, 503);
+        });
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<DAYS>/<TICKER>", transport);
+        final GoogleQuoteScheduler<LocalDateTime,GoogleQuoteIntradaySource.Options> scheduler = new GoogleQuoteScheduler<>(source);
+        scheduler.setRateLimiter(new GoogleQuoteRateLimiter(1000d, 100));
+        scheduler.setRetries(100, Duration.ofMillis(40), Duration.ofMillis(40));
+        scheduler.setDeadline(Duration.ofMillis(200));
+        final long started = System.nanoTime();
+        final GoogleQuoteBatchLoader.Result<LocalDateTime> result = scheduler.read(Collections.singletonList("SLOW"), (ticker, options) -> {
+            options.setTicker(ticker);
+            options.setDayCount(1);
+        });
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        Assert.assertTrue(result.failure("SLOW").isPresent());
+        Assert.assertTrue(elapsedMillis < 1000L, "Gave up at the deadline: " + elapsedMillis);
+        Assert.assertTrue(transport.getRequestCount() > 1 && transport.getRequestCount() < 100, "Retried until the deadline: " + transport.getRequestCount());
+    }
+
+
+    @Test()
+    public void testTransientClassification() {
+        Assert.assertTrue(GoogleQuoteScheduler.isTransient(new DataFrameException("x", new GoogleQuoteHttpException("u", 503))));
+        Assert.assertTrue(GoogleQuoteScheduler.isTransient(new DataFrameException("x", new GoogleQuoteHttpException("u", 429))));
+        Assert.assertTrue(GoogleQuoteScheduler.isTransient(new UncheckedIOException(new SocketTimeoutException())));
+        Assert.assertFalse(GoogleQuoteScheduler.isTransient(new DataFrameException("x", new GoogleQuoteHttpException("u", 404))));
+        Assert.assertFalse(GoogleQuoteScheduler.isTransient(new DataFrameException("Bad options")));
+    }
+
+
+    @Test()
+    public void testRateLimiter() throws InterruptedException {
+        final GoogleQuoteRateLimiter limiter = new GoogleQuoteRateLimiter(100d, 5);
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertTrue(limiter.tryAcquire(), "Burst is available immediately");
+        }
+        Assert.assertFalse(limiter.tryAcquire(), "Bucket is empty");
+        final long started = System.nanoTime();
+        for (int i = 0; i < 20; ++i) {
+            limiter.acquire();
+        }
+        final long elapsedMillis = (System.nanoTime() - started) / 1000000L;
+        Assert.assertTrue(elapsedMillis >= 150, "Requests are paced at the sustained rate: " + elapsedMillis);
+    }
+
+
+    /**
+     * Returns the priority for a synthetic ticker, based on its prefix
+     * @param ticker    the ticker reference
+     * @return          the priority, higher is more urgent
+     */
+    private static int priority(String ticker) {
+        return ticker.startsWith("HIGH") ? 10 : ticker.startsWith("MID") ? 5 : 0;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for splitting long history requests into concurrent date range windows
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteShardingTest {
+
+    private static final LocalDate START = LocalDate.of(2000, 1, 1);
+    private static final LocalDate END = LocalDate.of(2014, 1, 1);
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+        this.server.setLatencyMillis(50);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testShardedMatchesSingleRequest() {
+        final GoogleQuoteHistorySource single = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuoteHistorySource sharded = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        sharded.setShardPeriod(Period.ofYears(1));
+        final DataFrame<LocalDate,String> expected = single.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(START);
+            options.setEnd(END);
+        });
+        final int requestCount = server.getRequestCount();
+        final DataFrame<LocalDate,String> actual = sharded.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(START);
+            options.setEnd(END);
+        });
+        Assert.assertEquals(server.getRequestCount() - requestCount, 15, "One request per yearly window");
+        Assert.assertTrue(server.getMaxInFlight() > 1, "Windows were fetched concurrently");
+        Assert.assertEquals(actual.rowCount(), expected.rowCount(), "No missing or duplicate dates");
+        for (int i = 0; i < expected.rowCount(); ++i) {
+            Assert.assertEquals(actual.rows().key(i), expected.rows().key(i));
+            Assert.assertEquals(actual.data().getDouble(i, "Close"), expected.data().getDouble(i, "Close"), 0d);
+            Assert.assertEquals(actual.data().getDouble(i, "Change"), expected.data().getDouble(i, "Change"), 0d);
+            Assert.assertEquals(actual.data().getDouble(i, "ChangePercent"), expected.data().getDouble(i, "ChangePercent"), 0d);
+        }
+    }
+
+
+    @Test()
+    public void testShortRangeIsNotSharded() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        source.setShardPeriod(Period.ofYears(1));
+        final int requestCount = server.getRequestCount();
+        source.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(LocalDate.of(2013, 1, 1));
+            options.setEnd(LocalDate.of(2013, 12, 31));
+        });
+        Assert.assertEquals(server.getRequestCount() - requestCount, 1);
+    }
+
+
+    @Test()
+    public void testShardedReadsOnSaturatedExecutor() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final GoogleQuoteHttpTransport transport = new GoogleQuoteHttpTransport();
+            transport.setExecutor(executor);
+            final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate(), transport);
+            source.setShardPeriod(Period.ofYears(1));
+            final List<CompletableFuture<DataFrame<LocalDate,String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                futures.add(source.readAsync(options -> {
+                    options.setTicker("AAPL");
+                    options.setStart(START);
+                    options.setEnd(END);
+                }));
+            }
+            for (CompletableFuture<DataFrame<LocalDate,String>> future : futures) {
+                Assert.assertTrue(future.get(30, TimeUnit.SECONDS).rowCount() > 0, "Sharded read completes when every worker is busy");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test(expectedExceptions = DataFrameException.class)
+    public void testWindowFailureFailsRequest() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        source.setShardPeriod(Period.ofYears(1));
+        source.read(options -> {
+            options.setTicker("FAIL1");
+            options.setStart(START);
+            options.setEnd(END);
+        });
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.stream.IntStream;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameSource;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the memory mapped columnar quote store
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteStoreTest {
+
+    private File directory;
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("google-quote-store").toFile();
+        this.server = new GoogleQuoteTestServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        this.server.close();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+
+    @Test()
+    public void testSliceRoundTrip() throws IOException {
+        final int rowCount = 5000;
+        final long[] keys = new long[rowCount];
+        final double[][] columns = new double[7][rowCount];
+        for (int i = 0; i < rowCount; ++i) {
+            keys[i] = 10000L + i * 2L;
+            for (int j = 0; j < 7; ++j) {
+                columns[j][i] = i * 10d + j;
+            }
+        }
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        store.write("TEST", GoogleQuoteStore.Frequency.DAILY, keys, columns);
+        final GoogleQuoteStore.Slice slice = store.read("TEST", GoogleQuoteStore.Frequency.DAILY, 10101L, 10200L);
+        Assert.assertEquals(slice.size(), 50, "Slice covers keys within range inclusive");
+        final long[] sliceKeys = slice.keys();
+        final double[] close = slice.column(GoogleQuoteParser.CLOSE);
+        Assert.assertEquals(sliceKeys[0], 10102L);
+        Assert.assertEquals(sliceKeys[49], 10200L);
+        IntStream.range(0, 50).forEach(i -> Assert.assertEquals(close[i], (51 + i) * 10d + 3, 0d));
+        Assert.assertNull(store.read("MISSING", GoogleQuoteStore.Frequency.DAILY, 0L, Long.MAX_VALUE));
+    }
+
+
+    @Test()
+    public void testRecentSessions() throws IOException {
+        final int perSession = 10;
+        final long[] keys = new long[perSession * 5];
+        final double[][] columns = new double[7][keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = (17000L + i / perSession) * 86400L + 34200L + (i % perSession) * 60L;
+        }
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        store.write("TEST", GoogleQuoteStore.Frequency.INTRADAY, keys, columns);
+        final GoogleQuoteStore.Slice slice = store.readSessions("TEST", 2);
+        Assert.assertEquals(slice.size(), perSession * 2, "Two most recent sessions");
+        Assert.assertEquals(slice.keys()[0], keys[perSession * 3]);
+        Assert.assertEquals(store.readSessions("TEST", 10).size(), keys.length, "All sessions when fewer than requested");
+    }
+
+
+    @Test()
+    public void testMappingRefreshedAfterExternalWrite() throws IOException {
+        final long[] keys = { 100L, 101L, 102L };
+        final double[][] columns = new double[7][keys.length];
+        final GoogleQuoteStore writer = new GoogleQuoteStore(directory);
+        final GoogleQuoteStore reader = new GoogleQuoteStore(directory);
+        writer.write("SHARED", GoogleQuoteStore.Frequency.DAILY, keys, columns);
+        Assert.assertEquals(reader.read("SHARED", GoogleQuoteStore.Frequency.DAILY, 0L, Long.MAX_VALUE).column(GoogleQuoteParser.CLOSE)[2], 0d, 0d);
+        columns[GoogleQuoteParser.CLOSE][2] = 42d;
+        writer.write("SHARED", GoogleQuoteStore.Frequency.DAILY, keys, columns);
+        Assert.assertEquals(reader.read("SHARED", GoogleQuoteStore.Frequency.DAILY, 0L, Long.MAX_VALUE).column(GoogleQuoteParser.CLOSE)[2], 42d, 0d, "Same size rewrite is seen");
+        writer.write("SHARED", GoogleQuoteStore.Frequency.DAILY, new long[] { 100L, 101L, 102L, 103L }, new double[7][4]);
+        Assert.assertEquals(reader.read("SHARED", GoogleQuoteStore.Frequency.DAILY, 0L, Long.MAX_VALUE).size(), 4, "Larger rewrite is seen");
+    }
+
+
+    @Test()
+    public void testHistoryStoreSource() throws IOException {
+        final LocalDate start = LocalDate.of(2010, 1, 1);
+        final LocalDate end = LocalDate.of(2014, 1, 1);
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final DataFrame<LocalDate,String> expected = source.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        store.writeHistory("AAPL", start, end, expected);
+        final GoogleQuoteHistorySource storeSource = new GoogleQuoteHistoryStoreSource(store, server.historyUrlTemplate());
+        final int requestCount = server.getRequestCount();
+        final DataFrame<LocalDate,String> actual = storeSource.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        Assert.assertEquals(server.getRequestCount(), requestCount, "No request made for stored ticker");
+        Assert.assertEquals(actual.rowCount(), expected.rowCount());
+        IntStream.range(0, expected.rowCount()).forEach(i -> {
+            Assert.assertEquals(actual.rows().key(i), expected.rows().key(i));
+            for (String column : new String[] {"Open", "High", "Low", "Close", "Volume"}) {
+                Assert.assertEquals(actual.data().getDouble(i, column), expected.data().getDouble(i, column), 0d);
+            }
+        });
+    }
+
+
+    @Test()
+    public void testIntradayStoreSource() throws IOException {
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+        final DataFrame<LocalDateTime,String> expected = source.read(options -> {
+            options.setTicker("MSFT");
+            options.setDayCount(5);
+        });
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        store.writeIntraday("MSFT", expected);
+        final DataFrame<LocalDateTime,String> actual = new GoogleQuoteIntradayStoreSource(store).read(options -> {
+            options.setTicker("MSFT");
+            options.setDayCount(2);
+        });
+        Assert.assertEquals(actual.rowCount(), 780);
+        Assert.assertEquals(actual.rows().lastKey().get(), expected.rows().lastKey().get());
+        Assert.assertEquals(actual.rows().firstKey().get(), expected.rows().key(expected.rowCount() - 780));
+    }
+
+
+    @Test()
+    public void testChangeColumnsComputedWhenNotStored() throws IOException {
+        final long[] keys = { 100L, 101L, 102L, 103L };
+        final double[][] columns = new double[7][keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            columns[GoogleQuoteParser.CLOSE][i] = 10d + i * i;
+            columns[5][i] = Double.NaN;
+            columns[6][i] = Double.NaN;
+        }
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        final GoogleQuoteDerivations derivations = new GoogleQuoteDerivations(GoogleQuoteDerivations.DEFAULT_COLUMNS, 20, 1L);
+        store.write("NOCHANGE", GoogleQuoteStore.Frequency.DAILY, keys, columns);
+        final DataFrame<LocalDate,String> computed = store.read("NOCHANGE", GoogleQuoteStore.Frequency.DAILY, 101L, 103L).toFrame(LocalDate.class, LocalDate::ofEpochDay, derivations, GoogleQuoteStorage.DOUBLE);
+        Assert.assertTrue(Double.isNaN(computed.data().getDouble(0, "Change")), "First row has no prior bar within the slice");
+        Assert.assertEquals(computed.data().getDouble(1, "Change"), 3d, 0d, "Change computed when not stored");
+        Assert.assertEquals(computed.data().getDouble(2, "ChangePercent"), 19d / 14d - 1d, 1e-12, "Change percent computed when not stored");
+        for (int i = 0; i < keys.length; ++i) {
+            columns[5][i] = 1000d + i;
+            columns[6][i] = 2000d + i;
+        }
+        store.write("CHANGE", GoogleQuoteStore.Frequency.DAILY, keys, columns);
+        final DataFrame<LocalDate,String> stored = store.read("CHANGE", GoogleQuoteStore.Frequency.DAILY, 101L, 103L).toFrame(LocalDate.class, LocalDate::ofEpochDay, derivations, GoogleQuoteStorage.DOUBLE);
+        Assert.assertEquals(stored.data().getDouble(0, "Change"), 1001d, 0d, "Stored change used for first row");
+        Assert.assertEquals(stored.data().getDouble(2, "ChangePercent"), 2003d, 0d, "Stored change percent used");
+    }
+
+
+    @Test()
+    public void testHistoryStoreFetchesMissingEdges() throws IOException {
+        final LocalDate start = LocalDate.of(2011, 7, 1);
+        final LocalDate end = LocalDate.of(2013, 6, 30);
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final DataFrame<LocalDate,String> expected = source.read(options -> {
+            options.setTicker("EDGE");
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        final LocalDate storedStart = LocalDate.of(2012, 1, 1);
+        final LocalDate storedEnd = LocalDate.of(2012, 12, 31);
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        store.writeHistory("EDGE", storedStart, storedEnd, source.read(options -> {
+            options.setTicker("EDGE");
+            options.setStart(storedStart);
+            options.setEnd(storedEnd);
+        }));
+        final int requestCount = server.getRequestCount();
+        final DataFrame<LocalDate,String> actual = new GoogleQuoteHistoryStoreSource(store, server.historyUrlTemplate()).read(options -> {
+            options.setTicker("EDGE");
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        Assert.assertEquals(server.getRequestCount(), requestCount + 2, "Only the dates either side of the stored range are requested");
+        Assert.assertEquals(actual.rowCount(), expected.rowCount(), "Stored range is stitched with both edges");
+        IntStream.range(0, expected.rowCount()).forEach(i -> {
+            Assert.assertEquals(actual.rows().key(i), expected.rows().key(i));
+            Assert.assertEquals(actual.data().getDouble(i, "Close"), expected.data().getDouble(i, "Close"), 0d);
+        });
+    }
+
+
+    @Test()
+    public void testStoreServesEveryReadPathOfLookedUpSource() throws IOException {
+        final LocalDate start = LocalDate.of(2015, 1, 1);
+        final LocalDate end = LocalDate.of(2015, 12, 31);
+        final GoogleQuoteStore store = new GoogleQuoteStore(directory);
+        store.writeHistory("LOOKUP", start, end, new GoogleQuoteHistorySource(server.historyUrlTemplate()).read(options -> {
+            options.setTicker("LOOKUP");
+            options.setStart(start);
+            options.setEnd(end);
+        }));
+        DataFrameSource.register(new GoogleQuoteHistorySource(server.historyUrlTemplate()));
+        DataFrameSource.register(new GoogleQuoteHistoryStoreSource(store, server.historyUrlTemplate()));
+        final GoogleQuoteHistorySource configured = DataFrameSource.lookup(GoogleQuoteHistorySource.class);
+        final GoogleQuoteHistorySource substituted = DataFrameSource.lookup(GoogleQuoteHistoryStoreSource.class);
+        configured.setStore(store);
+        final int requestCount = server.getRequestCount();
+        for (GoogleQuoteHistorySource source : new GoogleQuoteHistorySource[] { configured, substituted }) {
+            final int rowCount = source.read(options -> {
+                options.setTicker("LOOKUP");
+                options.setStart(start);
+                options.setEnd(end);
+            }).rowCount();
+            final int streamCount = source.stream(options -> {
+                options.setTicker("LOOKUP");
+                options.setStart(start);
+                options.setEnd(end);
+            }, (key, open, high, low, close, volume) -> true);
+            final GoogleQuoteBuffer buffer = source.readBuffer(options -> {
+                options.setTicker("LOOKUP");
+                options.setStart(start);
+                options.setEnd(end);
+            });
+            Assert.assertTrue(rowCount > 0, "Stored rows are read");
+            Assert.assertEquals(streamCount, rowCount, "Stream served from store");
+            Assert.assertEquals(buffer.size(), rowCount, "Buffer served from store");
+        }
+        Assert.assertEquals(server.getRequestCount(), requestCount, "No request made by any read path");
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the streaming mode of the Google sources against a local stand-in for the Google Finance endpoints
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteStreamTest {
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testHistoryStreamMatchesFrame() {
+        final LocalDate start = LocalDate.of(2014, 1, 1);
+        final LocalDate end = LocalDate.of(2015, 1, 1);
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final DataFrame<LocalDate,String> frame = source.read(options -> {
+            options.setTicker("AAPL");
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        final AtomicLong previous = new AtomicLong(Long.MAX_VALUE);
+        final int count = source.stream(options -> {
+            options.setTicker("AAPL");
+            options.setStart(start);
+            options.setEnd(end);
+        }, (key, open, high, low, close, volume) -> {
+            final LocalDate date = LocalDate.ofEpochDay(key);
+            Assert.assertTrue(key < previous.getAndSet(key), "History is streamed newest first");
+            Assert.assertEquals(close, frame.data().getDouble(date, "Close"), 0d);
+            Assert.assertEquals(volume, frame.data().getDouble(date, "Volume"), 0d);
+            return true;
+        });
+        Assert.assertEquals(count, frame.rowCount(), "Every row was streamed");
+    }
+
+
+    @Test()
+    public void testIntradayStreamStopsEarly() {
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+        final AtomicInteger seen = new AtomicInteger();
+        final AtomicLong first = new AtomicLong();
+        final int count = source.stream(options -> {
+            options.setTicker("AAPL");
+            options.setDayCount(5);
+        }, (key, open, high, low, close, volume) -> {
+            if (seen.getAndIncrement() == 0) first.set(key);
+            return seen.get() < 100;
+        });
+        Assert.assertEquals(count, 100, "Stream stopped once the handler returned false");
+        Assert.assertEquals(seen.get(), 100);
+        final LocalDateTime firstTime = LocalDateTime.ofEpochSecond(first.get(), 0, ZoneOffset.UTC);
+        Assert.assertEquals(firstTime.toLocalTime().getHour(), 9, "Keys are local exchange time");
+        Assert.assertEquals(firstTime.toLocalTime().getMinute(), 31, "Keys are local exchange time");
+    }
+
+
+    @Test(expectedExceptions = DataFrameException.class)
+    public void testStreamFailure() {
+        final GoogleQuoteHistorySource source = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        source.stream(options -> {
+            options.setTicker("FAIL1");
+            options.setStart(LocalDate.of(2014, 1, 1));
+            options.setEnd(LocalDate.of(2015, 1, 1));
+        }, (key, open, high, low, close, volume) -> true);
+    }
+}
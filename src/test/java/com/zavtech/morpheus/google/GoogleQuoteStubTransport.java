@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.zavtech.morpheus.util.Asserts;
+
+/**
+ * A GoogleQuoteTransport for tests that serves payloads from memory, so sources can be exercised offline.
+ *
+ * The responder maps each request url to the raw payload bytes; a null payload is reported as a 404 through a
+ * GoogleQuoteHttpException, and any IOException thrown by the responder is passed back to the caller as is.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteStubTransport implements GoogleQuoteTransport {
+
+    private Responder responder;
+    private Executor executor;
+    private AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param responder the responder that returns the payload for a url
+     */
+    GoogleQuoteStubTransport(Responder responder) {
+        this(responder, GoogleQuoteHttpTransport.defaultExecutor());
+    }
+
+    /**
+     * Constructor
+     * @param responder the responder that returns the payload for a url
+     * @param executor  the executor to run asynchronous reads
+     */
+    GoogleQuoteStubTransport(Responder responder, Executor executor) {
+        Asserts.notNull(responder, "The responder cannot be null");
+        Asserts.notNull(executor, "The executor cannot be null");
+        this.responder = responder;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a stub transport that serves the same payload for every url
+     * @param payload   the payload to serve
+     * @return          the newly created transport
+     */
+    static GoogleQuoteStubTransport of(byte[] payload) {
+        return new GoogleQuoteStubTransport(url -> payload);
+    }
+
+    /**
+     * Returns a stub transport that serves payloads by url from a function
+     * @param responder the function that returns the payload for a url, null if not found
+     * @return          the newly created transport
+     */
+    static GoogleQuoteStubTransport of(Function<String,byte[]> responder) {
+        return new GoogleQuoteStubTransport(responder::apply);
+    }
+
+    /**
+     * Returns the number of requests this transport has served
+     * @return  the request count
+     */
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public InputStream open(String url) throws IOException {
+        this.requestCount.incrementAndGet();
+        final byte[] payload = responder.respond(url);
+        if (payload == null) {
+            throw new GoogleQuoteHttpException(url, 404);
+        } else {
+            return new ByteArrayInputStream(payload);
+        }
+    }
+
+
+    /**
+     * An interface to a function that returns the payload for a request url
+     */
+    @FunctionalInterface
+    interface Responder {
+
+        /**
+         * Returns the payload for the url specified
+         * @param url   the request url
+         * @return      the payload bytes, null if there is no payload for the url
+         * @throws IOException  to simulate a transport failure
+         */
+        byte[] respond(String url) throws IOException;
+    }
+
+}
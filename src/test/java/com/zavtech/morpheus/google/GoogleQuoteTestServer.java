@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the Google Finance endpoints that serves synthetic payloads so tests can run offline
+ *
+ * Any ticker that starts with FAIL results in an HTTP 500 response, and any that starts with MISSING in a 404.
+ * Tickers that start with FLAKY fail with an HTTP 503 on their first two requests and succeed after that.
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+class GoogleQuoteTestServer implements AutoCloseable {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM dd, yyyy", Locale.US);
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile long latencyMillis;
+    private AtomicInteger inFlight = new AtomicInteger();
+    private AtomicInteger maxInFlight = new AtomicInteger();
+    private AtomicInteger requestCount = new AtomicInteger();
+    private AtomicInteger gzipCount = new AtomicInteger();
+    private Map<String,AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @throws IOException  if the server fails to start
+     */
+    GoogleQuoteTestServer() throws IOException {
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/finance/historical", exchange -> respond(exchange, true));
+        this.server.createContext("/finance/getprices", exchange -> respond(exchange, false));
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Returns the url template to use with GoogleQuoteHistorySource
+     * @return  the url template
+     */
+    String historyUrlTemplate() {
+        return "http://localhost:" + server.getAddress().getPort() + "/finance/historical?output=csv&q=<TICKER>&startdate=<START>&enddate=<END>";
+    }
+
+    /**
+     * Returns the url template to use with GoogleQuoteIntradaySource
+     * @return  the url template
+     */
+    String intradayUrlTemplate() {
+        return "http://localhost:" + server.getAddress().getPort() + "/finance/getprices?i=60&p=<DAYS>d&f=d,o,h,l,c,v&df=cpct&q=<TICKER>";
+    }
+
+    /**
+     * Sets the latency to apply to each response
+     * @param latencyMillis the latency in millis
+     */
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Returns the total number of requests received
+     * @return  the request count
+     */
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of responses that were gzip compressed
+     * @return  the gzip response count
+     */
+    int getGzipCount() {
+        return gzipCount.get();
+    }
+
+    /**
+     * Returns the max number of requests that were in flight at the same time
+     * @return  the max number of concurrent requests
+     */
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Responds to an exchange with a history or intraday payload
+     * @param exchange  the exchange
+     * @param history   true for an end of day request, false for intraday
+     * @throws IOException  if the response fails
+     */
+    private void respond(HttpExchange exchange, boolean history) throws IOException {
+        final int count = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(count, Math::max);
+        requestCount.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            final Map<String,String> query = query(exchange.getRequestURI().getRawQuery());
+            final String ticker = query.get("q");
+            if (ticker == null || ticker.startsWith("FAIL")) {
+                exchange.sendResponseHeaders(500, -1);
+            } else if (ticker.startsWith("MISSING")) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (ticker.startsWith("FLAKY") && attempts.computeIfAbsent(ticker, t -> new AtomicInteger()).incrementAndGet() <= 2) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                final String payload = history ? GoogleQuoteFixtures.history(
+                    ticker,
+                    LocalDate.parse(query.get("startdate"), DATE_FORMAT),
+                    LocalDate.parse(query.get("enddate"), DATE_FORMAT)
+                ) : GoogleQuoteFixtures.intraday(ticker, Integer.parseInt(query.get("p").replace("d", "")));
+                final byte[] bytes = encode(exchange, payload.getBytes(StandardCharsets.UTF_8));
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the response body, gzip compressed if the client accepts it
+     * @param exchange  the exchange
+     * @param bytes     the uncompressed response body
+     * @return          the encoded response body
+     * @throws IOException  if compression fails
+     */
+    private byte[] encode(HttpExchange exchange, byte[] bytes) throws IOException {
+        final String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null || !accept.contains("gzip")) {
+            return bytes;
+        } else {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream os = new GZIPOutputStream(compressed)) {
+                os.write(bytes);
+            }
+            gzipCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            return compressed.toByteArray();
+        }
+    }
+
+    /**
+     * Returns the decoded query parameters from a raw query string
+     * @param rawQuery  the raw query string
+     * @return          the decoded parameters
+     */
+    private static Map<String,String> query(String rawQuery) throws UnsupportedEncodingException {
+        final Map<String,String> result = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                final int index = pair.indexOf('=');
+                if (index > 0) {
+                    result.put(pair.substring(0, index), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2014-2017 Xavier Witdouck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zavtech.morpheus.google;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zavtech.morpheus.frame.DataFrame;
+import com.zavtech.morpheus.frame.DataFrameException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * A unit test for the http and stub transports used by the Google sources
+ *
+ * @author Xavier Witdouck
+ *
+ * <p><strong>This is open source software released under the <a href="http://www.apache.org/licenses/LICENSE-2.0">Apache 2.0 License</a></strong></p>
+ */
+public class GoogleQuoteTransportTest {
+
+    private GoogleQuoteTestServer server;
+
+    @BeforeClass()
+    public void start() throws IOException {
+        this.server = new GoogleQuoteTestServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stop() {
+        this.server.close();
+    }
+
+
+    @Test()
+    public void testHttpTransportDecodesGzip() throws IOException {
+        final GoogleQuoteHttpTransport transport = new GoogleQuoteHttpTransport(5000, 5000);
+        final String url = server.intradayUrlTemplate().replace("<DAYS>", "2").replace("<TICKER>", "AAPL");
+        final int gzipCount = server.getGzipCount();
+        final String expected = GoogleQuoteFixtures.intraday("AAPL", 2);
+        try (InputStream is = transport.open(url)) {
+            Assert.assertEquals(read(is), expected);
+        }
+        Assert.assertEquals(server.getGzipCount(), gzipCount + 1, "Response was compressed");
+        transport.setCompression(false);
+        try (InputStream is = transport.open(url)) {
+            Assert.assertEquals(read(is), expected);
+        }
+        Assert.assertEquals(server.getGzipCount(), gzipCount + 1, "Response was not compressed");
+    }
+
+
+    @Test()
+    public void testHttpTransportErrorStatus() throws IOException {
+        final GoogleQuoteHttpTransport transport = new GoogleQuoteHttpTransport();
+        final String url = server.intradayUrlTemplate().replace("<DAYS>", "2").replace("<TICKER>", "FAIL1");
+        try {
+            transport.open(url).close();
+            Assert.fail("An exception should have been raised");
+        } catch (GoogleQuoteHttpException ex) {
+            Assert.assertEquals(ex.getStatusCode(), 500);
+            Assert.assertEquals(ex.getUrl(), url);
+        }
+    }
+
+
+    @Test()
+    public void testEarlyCloseDoesNotDownloadRemainder() throws Exception {
+        final long length = 256L * 1024L * 1024L;
+        final AtomicLong written = new AtomicLong();
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final Thread writer = new Thread(() -> {
+                try (Socket client = socket.accept(); OutputStream os = client.getOutputStream()) {
+                    final InputStream is = client.getInputStream();
+                    for (int last = 0, next = is.read(); next >= 0; next = is.read()) {
+                        if (next == '\n' && last == '\n') break;
+                        last = next == '\r' ? last : next;
+                    }
+                    os.write(("HTTP/1.1 200 OK\r\nContent-Length: " + length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    final byte[] chunk = new byte[65536];
+                    while (written.get() < length) {
+                        os.write(chunk);
+                        written.addAndGet(chunk.length);
+                    }
+                } catch (IOException ex) {
+                    // expected once the client disconnects
+                }
+            });
+            writer.start();
+            final GoogleQuoteHttpTransport transport = new GoogleQuoteHttpTransport(5000, 5000);
+            transport.setCompression(false);
+            try (InputStream is = transport.open("http://localhost:" + socket.getLocalPort() + "/finance/getprices")) {
+                Assert.assertTrue(is.read(new byte[1024]) > 0);
+            }
+            writer.join(10000);
+            Assert.assertFalse(writer.isAlive(), "Server write ended");
+            Assert.assertTrue(written.get() < length, "Connection was closed before the remainder was sent");
+        }
+    }
+
+
+    @Test()
+    public void testStubTransport() {
+        final byte[] payload = GoogleQuoteFixtures.intraday("AAPL", 3).getBytes(StandardCharsets.UTF_8);
+        final GoogleQuoteStubTransport transport = GoogleQuoteStubTransport.of(url -> url.contains("AAPL") ? payload : null);
+        final GoogleQuoteIntradaySource source = new GoogleQuoteIntradaySource("stub://<TICKER>/<DAYS>", transport);
+        final AtomicInteger count = new AtomicInteger();
+        source.stream(options -> {
+            options.setTicker("AAPL");
+            options.setDayCount(3);
+        }, (key, open, high, low, close, volume) -> count.incrementAndGet() > 0);
+        Assert.assertEquals(count.get(), 3 * 390);
+        Assert.assertEquals(transport.getRequestCount(), 1);
+        try {
+            source.stream(options -> {
+                options.setTicker("MSFT");
+                options.setDayCount(3);
+            }, (key, open, high, low, close, volume) -> true);
+            Assert.fail("An exception should have been raised");
+        } catch (DataFrameException ex) {
+            Assert.assertTrue(ex.getCause() instanceof GoogleQuoteHttpException);
+            Assert.assertEquals(((GoogleQuoteHttpException)ex.getCause()).getStatusCode(), 404);
+        }
+    }
+
+
+    @Test()
+    public void testReadAsync() throws Exception {
+        final LocalDate start = LocalDate.of(2015, 1, 1);
+        final LocalDate end = LocalDate.of(2016, 1, 1);
+        final GoogleQuoteHistorySource history = new GoogleQuoteHistorySource(server.historyUrlTemplate());
+        final GoogleQuoteIntradaySource intraday = new GoogleQuoteIntradaySource(server.intradayUrlTemplate());
+        final CompletableFuture<DataFrame<LocalDate,String>> historyFuture = history.readAsync(options -> {
+            options.setTicker("AAPL");
+            options.setStart(start);
+            options.setEnd(end);
+        });
+        final CompletableFuture<DataFrame<LocalDateTime,String>> intradayFuture = intraday.readAsync(options -> {
+            options.setTicker("AAPL");
+            options.setDayCount(2);
+        });
+        Assert.assertTrue(historyFuture.get().rowCount() > 250);
+        Assert.assertEquals(intradayFuture.get().rowCount(), 780);
+        try {
+            intraday.readAsync(options -> {
+                options.setTicker("FAIL1");
+                options.setDayCount(2);
+            }).get();
+            Assert.fail("An exception should have been raised");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof DataFrameException);
+        }
+    }
+
+
+    /**
+     * Returns the contents of a stream as a UTF-8 string
+     * @param is    the input stream
+     * @return      the stream contents
+     * @throws IOException  if the read fails
+     */
+    private static String read(InputStream is) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        for (int count = is.read(buffer); count >= 0; count = is.read(buffer)) {
+            bytes.write(buffer, 0, count);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}